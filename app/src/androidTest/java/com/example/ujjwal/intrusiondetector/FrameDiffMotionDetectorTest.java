@@ -0,0 +1,138 @@
+package com.example.ujjwal.intrusiondetector;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test, which runs the frame difference detector with OpenCV on an Android device. The search around the tiles which
+ * changed has to find the same motion as a search of the whole frame, also for blobs cut by tile edges.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameDiffMotionDetectorTest {
+    private static final Size SIZE = new Size(320, 240);
+    private static final Scalar BACKGROUND = new Scalar(100);
+    private static final Scalar BRIGHT = new Scalar(255);
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    private static Mat background() {
+        return new Mat((int) SIZE.height, (int) SIZE.width, CvType.CV_8UC1, BACKGROUND);
+    }
+
+    // Runs a still frame and then the moved one through a detector
+    private static List<Rect> detect(Mat moved, double minArea, boolean tileFiltering) {
+        FrameDiffMotionDetector detector = new FrameDiffMotionDetector(SIZE, minArea, FrameDiffMotionDetector.DEFAULT_LEARNING_RATE,
+                FrameDiffMotionDetector.DEFAULT_FIXED_POINT, 5);
+        detector.setTileFiltering(tileFiltering);
+        Mat still = background();
+        detector.detect(still);
+        List<Rect> regions = detector.detect(moved);
+        detector.release();
+        still.release();
+        return regions;
+    }
+
+    private static void assertSameAsWholeFrame(Mat moved, double minArea) {
+        List<Rect> whole = detect(moved, minArea, false);
+        List<Rect> tiled = detect(moved, minArea, true);
+        assertFalse("The whole frame search should find the blob", whole.isEmpty());
+        assertEquals(Regions.union(whole), Regions.union(tiled));
+        assertEquals(Regions.area(whole), Regions.area(tiled));
+        moved.release();
+    }
+
+    @Test
+    public void smallBlob_onATileCorner() {
+        Mat moved = background();
+        // The tiles are 32 pixels wide and 30 high, so this is split over four tiles
+        Imgproc.rectangle(moved, new Point(58, 56), new Point(69, 65), BRIGHT, -1);
+        assertSameAsWholeFrame(moved, 100);
+    }
+
+    @Test
+    public void outline_enclosingQuietTiles() {
+        Mat moved = background();
+        // Only the one pixel outline changes, but the contour's area is everything inside it
+        Imgproc.rectangle(moved, new Point(20, 20), new Point(200, 170), BRIGHT, 1);
+        assertSameAsWholeFrame(moved, 5000);
+    }
+
+    @Test
+    public void scatteredPixels_joinedByDilation() {
+        Mat moved = background();
+        // Too few pixels changed for a blob of this size, until dilation joins them
+        for(int y = 90; y < 150; y += 4) {
+            for(int x = 30; x < 100; x += 4) {
+                moved.put(y, x, 255);
+            }
+        }
+        assertSameAsWholeFrame(moved, 1500);
+    }
+
+    @Test
+    public void blob_reachingIntoAQuietTile() {
+        Mat moved = background();
+        // A thin bar along a tile edge, whose dilation reaches over the edge
+        Imgproc.rectangle(moved, new Point(100, 88), new Point(250, 89), BRIGHT, -1);
+        assertSameAsWholeFrame(moved, 300);
+    }
+
+    @Test
+    public void smallBlob_afterAWholeFrameChange() {
+        Mat still = background();
+        Mat bright = new Mat((int) SIZE.height, (int) SIZE.width, CvType.CV_8UC1, BRIGHT);
+        Mat moved = background();
+        Imgproc.rectangle(moved, new Point(100, 70), new Point(115, 80), BRIGHT, -1);
+        // The background is not learned, so both detectors compare the blob with the same still frame; the first one has its
+        // pooled buffers filled by the bright frame, which must not leak into the tiles searched for the blob
+        FrameDiffMotionDetector used = new FrameDiffMotionDetector(SIZE, 50, 0, FrameDiffMotionDetector.DEFAULT_FIXED_POINT, 5);
+        FrameDiffMotionDetector fresh = new FrameDiffMotionDetector(SIZE, 50, 0, FrameDiffMotionDetector.DEFAULT_FIXED_POINT, 5);
+        used.detect(still);
+        used.detect(bright);
+        fresh.detect(still);
+        List<Rect> expected = fresh.detect(moved);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, used.detect(moved));
+        used.release();
+        fresh.release();
+        still.release();
+        bright.release();
+        moved.release();
+    }
+
+    @Test
+    public void excludedMotion_neverReachesTheTiles() {
+        FrameDiffMotionDetector detector = new FrameDiffMotionDetector(SIZE, 100, FrameDiffMotionDetector.DEFAULT_LEARNING_RATE,
+                FrameDiffMotionDetector.DEFAULT_FIXED_POINT, 5);
+        // The box around the included pixels is the whole frame, with its top left excluded up to x 176 and y 132; tiles wholly
+        // inside that are skipped anyway, so the motion is put in the excluded part of the tiles from x 160 to 192
+        detector.setZones(DetectionZones.parse("+0,0,1,1;-0,0,0.55,0.55"));
+        Mat still = background();
+        Mat moved = background();
+        Imgproc.rectangle(moved, new Point(162, 80), new Point(173, 125), BRIGHT, -1);
+        detector.detect(still);
+        assertTrue(detector.detect(moved).isEmpty());
+        assertTrue(detector.getTileGrid().activeRegions(0, 0).isEmpty());
+        detector.release();
+        still.release();
+        moved.release();
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: AnalysisRateScheduler.java
+ * Description: This class decides which camera frames are analysed. It keeps a running average of what one analysis costs, and
+ * picks the highest rate(between a floor and a ceiling) which keeps analysis within a CPU budget, so a slow or throttled phone
+ * analyses fewer frames instead of running flat out and heating up further. For a while after motion is found it analyses at
+ * the ceiling rate, so an intruder is followed closely. Times are passed in(in nanoseconds) rather than read from the clock, so
+ * the class works the same on a phone and in a unit test. */
+
+public class AnalysisRateScheduler {
+    public static final double DEFAULT_MIN_RATE = 2;
+    public static final double DEFAULT_MAX_RATE = 30;
+    // Fraction of one core the analysis may use on average
+    public static final double DEFAULT_CPU_BUDGET = 0.25;
+    public static final long DEFAULT_BOOST_NANOS = 5000000000L;
+    // Weight of the newest measurement in the running average of the cost
+    private static final double COST_SMOOTHING = 0.1;
+    // Fraction of a frame interval a frame may arrive early and still be analysed, so camera jitter does not skip frames
+    private static final double EARLY_TOLERANCE = 0.25;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double cpuBudget;
+    private final long boostNanos;
+
+    private double averageCostNanos = 0;
+    private double rate;
+    // The time slot of the last analysed frame; the next frame is due one interval(at the current rate) after it
+    private long lastSlot;
+    private boolean started = false;
+    private long boostUntil;
+    private boolean boosted = false;
+    private long offered = 0;
+    private long accepted = 0;
+
+    public AnalysisRateScheduler() {
+        this(DEFAULT_MIN_RATE, DEFAULT_MAX_RATE, DEFAULT_CPU_BUDGET, DEFAULT_BOOST_NANOS);
+    }
+
+    /**
+     * @param minRate - fewest frames per second analysed, however expensive analysis gets
+     * @param maxRate - most frames per second analysed, also the rate used after motion
+     * @param cpuBudget - average fraction of one core the analysis may use(e.g. 0.25)
+     * @param boostNanos - how long to analyse at maxRate after motion is found
+     */
+    public AnalysisRateScheduler(double minRate, double maxRate, double cpuBudget, long boostNanos) {
+        if(minRate <= 0 || maxRate < minRate) {
+            throw new IllegalArgumentException("Rates must satisfy 0 < min <= max: " + minRate + ", " + maxRate);
+        }
+        if(cpuBudget <= 0) {
+            throw new IllegalArgumentException("CPU budget must be positive: " + cpuBudget);
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.cpuBudget = cpuBudget;
+        this.boostNanos = boostNanos;
+        // Nothing is known about the cost yet, so start fast and let the first measurements slow it down
+        rate = maxRate;
+    }
+
+    /**
+     * Called for every frame the camera delivers, before any work is done on it.
+     * @param now - the frame's time, e.g. System.nanoTime()
+     * @return whether the frame should be analysed; if not, it should be dropped straight away
+     */
+    public synchronized boolean offer(long now) {
+        offered++;
+        if(boosted && now - boostUntil >= 0) {
+            boosted = false;
+            updateRate();
+        }
+        long interval = (long) (1e9 / rate);
+        long due = lastSlot + interval;
+        if(started && now - due < -(long) (interval * EARLY_TOLERANCE)) {
+            return false;
+        }
+        // Frames take the slot they were due in, so the average rate holds even though they arrive on the camera's own schedule;
+        // after a long gap the slots restart from now instead of letting a burst of frames through
+        lastSlot = started && now - due < interval ? due : now;
+        started = true;
+        accepted++;
+        return true;
+    }
+
+    /**
+     * Called when an analysis finishes, with what it cost.
+     * @param costNanos - CPU(or, failing that, wall clock) time the analysis took
+     * @param motion - whether motion was found, which starts or extends the boost
+     * @param now - when the analysis finished, on the same clock as offer()
+     */
+    public synchronized void record(long costNanos, boolean motion, long now) {
+        averageCostNanos = averageCostNanos == 0 ? costNanos : averageCostNanos + (costNanos - averageCostNanos) * COST_SMOOTHING;
+        if(motion) {
+            boosted = true;
+            boostUntil = now + boostNanos;
+            // A frame taken early may hold a slot still in the future; the boost should start with the very next frame
+            if(lastSlot - now > 0) {
+                lastSlot = now;
+            }
+        }
+        updateRate();
+    }
+
+    // The highest rate within the budget, clamped to [minRate, maxRate], or maxRate while boosted
+    private void updateRate() {
+        double budgetRate = averageCostNanos > 0 ? cpuBudget * 1e9 / averageCostNanos : maxRate;
+        rate = boosted ? maxRate : Math.max(minRate, Math.min(maxRate, budgetRate));
+    }
+
+    // Forgets the boost and frame timing, e.g. when the camera restarts; the measured cost is kept
+    public synchronized void reset() {
+        started = false;
+        boosted = false;
+        updateRate();
+    }
+
+    // Frames per second currently being analysed
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized double getAverageCostMillis() {
+        return averageCostNanos / 1e6;
+    }
+
+    public synchronized boolean isBoosted() {
+        return boosted;
+    }
+
+    public synchronized long getOfferedCount() {
+        return offered;
+    }
+
+    public synchronized long getAcceptedCount() {
+        return accepted;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "rate=" + Math.round(rate * 10) / 10.0 + "fps, cost=" + Math.round(averageCostNanos / 1e5) / 10.0 + "ms, boosted=" + boosted
+                + ", offered=" + offered + ", scheduled=" + accepted;
+    }
+}
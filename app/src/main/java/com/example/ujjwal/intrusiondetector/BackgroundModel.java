@@ -0,0 +1,185 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: BackgroundModel.java
+ * Description: This class holds the running average of the scene which every new frame is compared against. It owns a single
+ * accumulator which is allocated once, blends each analysed frame into it with a configurable learning rate, and lets the
+ * analysis workers diff against it without ever seeing a half-written model. The accumulator is either float, or 16-bit fixed
+ * point with 8 fractional bits, in which case frames stay 8-bit and the model publishes an 8-bit reference for them. */
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class BackgroundModel {
+    // Scale of the 8.8 fixed point accumulator
+    private static final double FIXED_POINT_ONE = 256.0;
+
+    private final Mat accumulator;
+    private final double learningRate;
+    private final boolean fixedPoint;
+    // Fixed point only: the frame lifted to 8.8, and the 8-bit reference readers diff against
+    private final Mat scaledFrame;
+    private final Mat reference;
+    // Readers (diffs, snapshots) share the model, the single writer (update) has it to itself
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean initialized = false;
+
+    /**
+     * @param size - the size of the frames that will be fed to the model
+     * @param learningRate - how much of each new frame is blended into the model, between 0(never adapt) and 1(only the last frame)
+     * @param fixedPoint - whether frames are CV_8U and the model is kept in 16-bit fixed point, instead of CV_32F frames and model
+     */
+    BackgroundModel(Size size, double learningRate, boolean fixedPoint) {
+        if(learningRate < 0 || learningRate > 1) {
+            throw new IllegalArgumentException("Learning rate must be between 0 and 1: " + learningRate);
+        }
+        this.learningRate = learningRate;
+        this.fixedPoint = fixedPoint;
+        if(fixedPoint) {
+            accumulator = new Mat(size, CvType.CV_16UC1);
+            scaledFrame = new Mat(size, CvType.CV_16UC1);
+            reference = new Mat(size, CvType.CV_8UC1);
+        } else {
+            accumulator = new Mat(size, CvType.CV_32FC1);
+            scaledFrame = null;
+            reference = accumulator;
+        }
+    }
+
+    BackgroundModel(Size size, double learningRate) {
+        this(size, learningRate, false);
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    // The type frames must have when they are fed to update() and absdiff()
+    public int getFrameType() {
+        return fixedPoint ? CvType.CV_8UC1 : CvType.CV_32FC1;
+    }
+
+    public boolean isInitialized() {
+        lock.readLock().lock();
+        try {
+            return initialized;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Blends a frame into the model; the first frame after a reset becomes the model as it is
+    public void update(Mat frame) {
+        update(frame, learningRate);
+    }
+
+    /**
+     * Blends a frame into the model with a one-off learning rate, e.g. when the model is only refreshed every few frames and has to
+     * catch up by as much as it would have learned from all of them.
+     */
+    public void update(Mat frame, double learningRate) {
+        lock.writeLock().lock();
+        try {
+            if(fixedPoint) {
+                // acc = (1 - rate) * acc + rate * frame, all in 8.8 fixed point, then publish the rounded 8-bit reference
+                frame.convertTo(scaledFrame, CvType.CV_16U, FIXED_POINT_ONE);
+                if(!initialized) {
+                    scaledFrame.copyTo(accumulator);
+                } else {
+                    Core.addWeighted(accumulator, 1 - learningRate, scaledFrame, learningRate, 0, accumulator);
+                }
+                accumulator.convertTo(reference, CvType.CV_8U, 1 / FIXED_POINT_ONE);
+            } else if(!initialized) {
+                frame.convertTo(accumulator, CvType.CV_32F);
+            } else {
+                Imgproc.accumulateWeighted(frame, accumulator, learningRate);
+            }
+            initialized = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the absolute difference between part of a frame and the same part of the model into dst.
+     * @param frame - the frame cropped to roi, of getFrameType()
+     * @param roi - where frame sits in the full frame
+     * @return false if the model has not seen a frame yet, in which case dst is untouched
+     */
+    public boolean absdiff(Mat frame, Rect roi, Mat dst) {
+        lock.readLock().lock();
+        try {
+            if(!initialized) {
+                return false;
+            }
+            Mat region = reference.submat(roi);
+            Core.absdiff(frame, region, dst);
+            region.release();
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the absolute difference between a frame of getFrameType() and the model into dst.
+     * @return false if the model has not seen a frame yet, in which case dst is untouched
+     */
+    public boolean absdiff(Mat frame, Mat dst) {
+        lock.readLock().lock();
+        try {
+            if(!initialized) {
+                return false;
+            }
+            Core.absdiff(frame, reference, dst);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Copies a consistent view of the model into dst, converted to the given type
+    public boolean snapshot(Mat dst, int type) {
+        lock.readLock().lock();
+        try {
+            if(!initialized) {
+                return false;
+            }
+            reference.convertTo(dst, type);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Forgets the scene, so the next frame starts a new model; the accumulator itself is kept for reuse
+    public void reset() {
+        lock.writeLock().lock();
+        try {
+            initialized = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void release() {
+        lock.writeLock().lock();
+        try {
+            initialized = false;
+            accumulator.release();
+            if(fixedPoint) {
+                scaledFrame.release();
+                reference.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
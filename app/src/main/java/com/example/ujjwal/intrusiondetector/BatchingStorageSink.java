@@ -0,0 +1,281 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: BatchingStorageSink.java
+ * Description: This class is the base of the storage sinks. Puts wait in a list, and the sink's own thread takes everything waiting
+ * (up to a batch size) and hands it to the subclass in one go, so work a sink has to do once per batch, like finding its folder, is
+ * shared by all of them. A batch only has to be started on the sink's thread: a sink which uploads marks each put as stored when
+ * its upload finishes, on whatever thread that is, so a slow upload never holds up the puts behind it, and the sink's thread is
+ * free for the next batch straight away. A put whose caller gives up on it(by cancelling its future) is taken out of the list, or
+ * if it has been started, the sink is told so it can stop it. Subclasses only store a batch; the futures, the thread and the counts
+ * are kept here. */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+public abstract class BatchingStorageSink implements StorageSink {
+    // One put, which the subclass marks as stored or failed, once; later marks are ignored
+    public static final class Put {
+        private final BatchingStorageSink sink;
+        private final byte[] data;
+        private final Map<String, String> metadata;
+        private String location;
+        private Exception error;
+        private boolean done = false;
+        private Runnable onCancel;
+        // Completed once the put is marked, with the location or the error
+        private final FutureTask<String> result = new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if(error != null) {
+                    throw error;
+                }
+                return location;
+            }
+        }) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if(cancelled) {
+                    sink.cancelled(Put.this);
+                }
+                return cancelled;
+            }
+        };
+
+        Put(BatchingStorageSink sink, byte[] data, Map<String, String> metadata) {
+            this.sink = sink;
+            this.data = data;
+            this.metadata = Collections.unmodifiableMap(new HashMap<>(metadata));
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getName() {
+            return metadata.get(NAME_KEY);
+        }
+
+        public String get(String key) {
+            return metadata.get(key);
+        }
+
+        public Map<String, String> getMetadata() {
+            return metadata;
+        }
+
+        public void stored(String location) {
+            complete(location, null);
+        }
+
+        public void failed(Exception error) {
+            complete(null, error);
+        }
+
+        private void complete(String location, Exception error) {
+            synchronized(this) {
+                if(done || result.isCancelled()) {
+                    return;
+                }
+                done = true;
+                this.location = location;
+                this.error = error;
+            }
+            // Counted first, so whoever waits on the put sees it in the counts
+            sink.completed(error == null);
+            result.run();
+        }
+
+        // Whether the caller has given up on the put, so it need not be stored
+        public boolean isCancelled() {
+            return result.isCancelled();
+        }
+
+        // Runs the action if the caller gives up on the put(straight away, if it already has), e.g. to stop its upload
+        public void setOnCancel(Runnable action) {
+            synchronized(this) {
+                if(!result.isCancelled()) {
+                    onCancel = action;
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        private void runOnCancel() {
+            Runnable action;
+            synchronized(this) {
+                action = onCancel;
+                onCancel = null;
+            }
+            if(action != null) {
+                action.run();
+            }
+        }
+    }
+
+    private final String name;
+    private final int maxBatch;
+    private final ExecutorService executor;
+    private final List<Put> pending = new ArrayList<>();
+    private boolean closed = false;
+    private long stored = 0;
+    private long failed = 0;
+    private long cancelled = 0;
+    private long batches = 0;
+
+    // Starts batches until nothing is waiting, including puts which arrive meanwhile
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            while(true) {
+                List<Put> batch;
+                synchronized(BatchingStorageSink.this) {
+                    if(pending.isEmpty()) {
+                        return;
+                    }
+                    batch = new ArrayList<>(pending.subList(0, Math.min(maxBatch, pending.size())));
+                    pending.subList(0, batch.size()).clear();
+                    batches++;
+                }
+                try {
+                    store(batch);
+                } catch(Exception e) {
+                    // Puts which were already marked keep their result
+                    for(Put put : batch) {
+                        put.failed(e);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * @param name - name of the sink's thread, and of the sink in its counts
+     * @param maxBatch - most puts handed over in one batch
+     */
+    protected BatchingStorageSink(final String name, int maxBatch) {
+        if(maxBatch < 1) {
+            throw new IllegalArgumentException("A batch needs room for a put: " + maxBatch);
+        }
+        this.name = name;
+        this.maxBatch = maxBatch;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stores a batch, or starts storing it, on the sink's thread. Every put has to be marked as stored or failed in the end, here or
+     * later on another thread; throwing fails every put not marked yet. Puts whose caller has given up may be skipped.
+     */
+    protected abstract void store(List<Put> batch) throws Exception;
+
+    // Frees what the sink holds, once it is closed and every batch has been started; on the sink's thread
+    protected void onClose() {
+    }
+
+    @Override
+    public Future<String> put(byte[] data, Map<String, String> metadata) {
+        Put put = new Put(this, data, metadata);
+        if(put.getName() == null) {
+            throw new IllegalArgumentException("Nothing to store the data as: " + metadata);
+        }
+        synchronized(this) {
+            if(!closed) {
+                pending.add(put);
+                // Otherwise the thread is already on its way, or will take this after the batch it is starting
+                if(pending.size() == 1) {
+                    executor.execute(drain);
+                }
+                return put.result;
+            }
+        }
+        put.failed(new IllegalStateException(name + " is closed"));
+        return put.result;
+    }
+
+    private synchronized void completed(boolean succeeded) {
+        if(succeeded) {
+            stored++;
+        } else {
+            failed++;
+        }
+    }
+
+    // A put whose future was cancelled: it is not started if it is still waiting, and stopped if the sink can
+    private void cancelled(Put put) {
+        synchronized(this) {
+            cancelled++;
+            if(pending.remove(put)) {
+                return;
+            }
+        }
+        put.runOnCancel();
+    }
+
+    @Override
+    public void close() {
+        synchronized(this) {
+            if(closed) {
+                return;
+            }
+            closed = true;
+        }
+        // Runs after the batches already waiting for the thread
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onClose();
+            }
+        });
+        executor.shutdown();
+    }
+
+    // Puts stored so far
+    public synchronized long getStoredCount() {
+        return stored;
+    }
+
+    // Puts which could not be stored so far
+    public synchronized long getFailedCount() {
+        return failed;
+    }
+
+    // Puts whose caller gave up on them so far
+    public synchronized long getCancelledCount() {
+        return cancelled;
+    }
+
+    // Batches handed to the subclass so far
+    public synchronized long getBatchCount() {
+        return batches;
+    }
+
+    // Puts waiting for the thread
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + ": " + stored + " stored in " + batches + " batches, " + failed + " failed, " + cancelled + " given up, "
+                + pending.size() + " waiting";
+    }
+}
@@ -11,17 +11,23 @@ import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
+import android.support.v4.content.ContextCompat;
 import android.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.InputType;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.SurfaceView;
 import android.view.WindowManager;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import com.firebase.ui.auth.AuthUI;
@@ -33,35 +39,25 @@ import com.google.firebase.auth.FirebaseUser;
 
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.CapturedFrame;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.Point;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
+import org.opencv.core.Rect;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
-public class CameraActivity extends AppCompatActivity implements CameraBridgeViewBase.CvCameraViewListener2{
+public class CameraActivity extends AppCompatActivity implements CameraBridgeViewBase.CvCameraViewListener2, SurveillancePipeline.Listener {
 
     private static final String TAG = "MainActivity";
     private CameraBridgeViewBase cameraView;
-    private int width;
-    private int height;
-    private volatile boolean first = true;
-    private volatile Mat firstFrame;
+    // Draws the boxes around motion over the preview, which the camera puts on screen itself
+    private DetectionOverlayView detectionOverlay;
+    // The motion detection pipeline, which SurveillanceService also uses when running without a preview
+    private SurveillancePipeline pipeline;
     private boolean googleSignIn;
     private String providerID = "";
     private GoogleSignInAccount acct = null;
-    private int runNum = 1;
-    private long timeStamp = System.currentTimeMillis();
-    private long frameTimestamp;
-    private boolean startingFrame = true;
 
     private boolean useDefault = false; //Can be put into menu option
 
@@ -100,6 +96,13 @@ public class CameraActivity extends AppCompatActivity implements CameraBridgeVie
         cameraView.setVisibility(SurfaceView.VISIBLE);
         cameraView.setCvCameraViewListener(this);
         cameraView.setMaxFrameSize(600, 600);
+        detectionOverlay = findViewById(R.id.detectionOverlay);
+        // Sends any images an earlier run could not upload
+        FirebaseUploader.resume(this);
+        // Uses the motion detector and zones that were picked last time(the frame differencing one everywhere by default)
+        pipeline = SurveillancePipeline.fromPreferences(this, cameraView.getCameraIndex(), this);
+        // The camera can only be used by one of them, so coming back to the preview stops the headless mode
+        stopService(new Intent(this, SurveillanceService.class));
 
         //Firebase authentication, makes sure the user is still authenticated, or reroutes to the MainActivity
         FirebaseAuth auth = FirebaseAuth.getInstance();
@@ -144,7 +147,8 @@ public class CameraActivity extends AppCompatActivity implements CameraBridgeVie
     private void userMessage() {
         // Creates an alert dialog to tell user(blocks other processes)
         useDefault = false;
-        googleSignIn = !(getIntent().getParcelableExtra("Account") == null);
+        acct = getIntent().getParcelableExtra("Account");
+        googleSignIn = acct != null;
         providerID = getIntent().getStringExtra("Provider");
         AlertDialog.Builder builder = new AlertDialog.Builder(CameraActivity.this);
         builder.setMessage("To authenticate with the bot, your id has been copied to your clipboard, please paste it into your current phone to authenticate.")
@@ -214,11 +218,142 @@ public class CameraActivity extends AppCompatActivity implements CameraBridgeVie
             AlertDialog dialog = builder.create();
             dialog.show();
             return true;
+        // Whether user wants to pick a different motion detector
+        } else if(item.getItemId() == R.id.detector_menu) {
+            Log.d(TAG, "Detector Menu");
+            chooseDetector();
+            return true;
+        // Whether user wants to change what alerts upload
+        } else if(item.getItemId() == R.id.upload_menu) {
+            Log.d(TAG, "Upload Menu");
+            editUploadSettings();
+            return true;
+        // Whether user wants to keep watching with the screen off
+        } else if(item.getItemId() == R.id.headless_menu) {
+            Log.d(TAG, "Headless Mode");
+            startHeadless();
+            return true;
+        // Whether user wants to change the parts of the view which are watched
+        } else if(item.getItemId() == R.id.zones_menu) {
+            Log.d(TAG, "Zones Menu");
+            editZones();
+            return true;
         }
         else {
             return super.onOptionsItemSelected(item);
         }
     }
+    // Lets the user switch motion detectors while the camera is running, and remembers the choice for next time
+    private void chooseDetector() {
+        final MotionDetector.Backend[] backends = MotionDetector.Backend.values();
+        String[] names = new String[backends.length];
+        for(int i = 0; i < backends.length; i++) {
+            names[i] = backends[i].name();
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(CameraActivity.this);
+        builder.setTitle("Motion Detector");
+        builder.setSingleChoiceItems(names, pipeline.getBackend().ordinal(), new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.dismiss();
+                MotionDetector.Backend backend = backends[which];
+                getSharedPreferences(SurveillancePipeline.PREFS_FILE, 0).edit().putString(SurveillancePipeline.DETECTOR_PREF, backend.name()).apply();
+                pipeline.setBackend(backend);
+                Log.d(TAG, "Using motion detector " + backend);
+            }
+        });
+        builder.setCancelable(true);
+        builder.create().show();
+    }
+    // Lets the user type the zones to watch and ignore, e.g. "-0.6,0,1,0.5" to ignore a window in the top right of the view
+    private void editZones() {
+        final EditText input = new EditText(CameraActivity.this);
+        input.setText(pipeline.getZones().toString());
+        AlertDialog.Builder builder = new AlertDialog.Builder(CameraActivity.this);
+        builder.setTitle("Detection Zones");
+        builder.setMessage(R.string.zones_help);
+        builder.setView(input);
+        builder.setPositiveButton("Save", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                DetectionZones zones;
+                try {
+                    zones = DetectionZones.parse(input.getText().toString());
+                } catch(IllegalArgumentException e) {
+                    Toast.makeText(getApplicationContext(), e.getMessage(), Toast.LENGTH_LONG).show();
+                    return;
+                }
+                getSharedPreferences(SurveillancePipeline.PREFS_FILE, 0).edit().putString(SurveillancePipeline.zonesKey(cameraView.getCameraIndex()),
+                        zones.toString()).apply();
+                pipeline.setZones(zones);
+                Log.d(TAG, "Using detection zones " + zones);
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.setCancelable(true);
+        builder.create().show();
+    }
+    // Lets the user pick what alerts upload and how the images are compressed; the next alert uses the new settings
+    private void editUploadSettings() {
+        final SharedPreferences prefs = getSharedPreferences(SurveillancePipeline.PREFS_FILE, 0);
+        final CheckBox region = new CheckBox(CameraActivity.this);
+        region.setText(R.string.upload_region);
+        region.setChecked(SurveillancePipeline.UPLOAD_REGION.equals(prefs.getString(SurveillancePipeline.UPLOAD_MODE_PREF,
+                SurveillancePipeline.UPLOAD_FULL)));
+        final EditText quality = new EditText(CameraActivity.this);
+        quality.setInputType(InputType.TYPE_CLASS_NUMBER);
+        quality.setHint(R.string.upload_quality_hint);
+        quality.setText(String.valueOf(prefs.getInt(SurveillancePipeline.JPEG_QUALITY_PREF, JpegEncoder.DEFAULT_QUALITY)));
+        final EditText width = new EditText(CameraActivity.this);
+        width.setInputType(InputType.TYPE_CLASS_NUMBER);
+        width.setHint(R.string.upload_width_hint);
+        width.setText(String.valueOf(prefs.getInt(SurveillancePipeline.JPEG_MAX_WIDTH_PREF, JpegEncoder.DEFAULT_MAX_WIDTH)));
+        LinearLayout layout = new LinearLayout(CameraActivity.this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(region);
+        layout.addView(quality);
+        layout.addView(width);
+        AlertDialog.Builder builder = new AlertDialog.Builder(CameraActivity.this);
+        builder.setTitle("Upload Settings");
+        builder.setView(layout);
+        builder.setPositiveButton("Save", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                int jpegQuality;
+                int maxWidth;
+                try {
+                    jpegQuality = Integer.parseInt(quality.getText().toString());
+                    maxWidth = Integer.parseInt(width.getText().toString());
+                } catch(NumberFormatException e) {
+                    Toast.makeText(getApplicationContext(), "Quality and width must be numbers", Toast.LENGTH_LONG).show();
+                    return;
+                }
+                if(jpegQuality < 0 || jpegQuality > 100 || maxWidth < 0) {
+                    Toast.makeText(getApplicationContext(), "Quality must be 0 to 100 and the width not negative", Toast.LENGTH_LONG).show();
+                    return;
+                }
+                String mode = region.isChecked() ? SurveillancePipeline.UPLOAD_REGION : SurveillancePipeline.UPLOAD_FULL;
+                prefs.edit().putString(SurveillancePipeline.UPLOAD_MODE_PREF, mode).putInt(SurveillancePipeline.JPEG_QUALITY_PREF, jpegQuality)
+                        .putInt(SurveillancePipeline.JPEG_MAX_WIDTH_PREF, maxWidth).apply();
+                Log.d(TAG, "Uploading " + mode + " images at quality " + jpegQuality + ", at most " + maxWidth + " wide");
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.setCancelable(true);
+        builder.create().show();
+    }
+    // Hands the camera over to SurveillanceService, which keeps watching with the screen off, and closes the preview
+    private void startHeadless() {
+        // The camera is released first, so the service can open it
+        cameraView.disableView();
+        Intent intent = new Intent(this, SurveillanceService.class);
+        intent.putExtra(SurveillanceService.EXTRA_PROVIDER, providerID);
+        intent.putExtra(SurveillanceService.EXTRA_ACCOUNT, acct);
+        intent.putExtra(SurveillanceService.EXTRA_USE_DEFAULT, useDefault);
+        ContextCompat.startForegroundService(this, intent);
+        Toast.makeText(getApplicationContext(), "Watching in the background, stop from the notification", Toast.LENGTH_LONG).show();
+        finish();
+    }
     // When the app is started(from previous app exit) checks to see whether user is signed in
     @Override
     protected void onStart() {
@@ -238,34 +373,19 @@ public class CameraActivity extends AppCompatActivity implements CameraBridgeVie
     // When the camera frames start coming for the algorithm to parse
     @Override
     public void onCameraViewStarted(int width, int height) {
-        if(this.width != width || this.height != height) {
-            this.height = height;
-            this.width = width;
-        }
+        pipeline.onCameraViewStarted(width, height);
     }
     // When the app is closed and when frames stop coming
     @Override
     public void onCameraViewStopped() {
-        first = false;
-        firstFrame = new Mat();
+        pipeline.onCameraViewStopped();
     }
-    // Parses each camera frame separately
+    // Hands each camera frame to the pipeline, which analyses it in the background
     @Override
     public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
-        // If first frame, then use this frame as a reference point for future frames
-        if(first) {
-            firstFrame = inputFrame.gray();
-            Imgproc.resize(firstFrame, firstFrame, new Size(500, firstFrame.height()));
-            first = false;
-            frameTimestamp = System.currentTimeMillis();
-            timeStamp = System.currentTimeMillis();
-        } else {
-            // Process this frame, however run on a separate thread, in order to make sure that the main thread doesn't do too much work.
-            Mat frame = inputFrame.gray();
-            ProcessorThread processor = new ProcessorThread(frame, inputFrame);
-            processor.start();
-        }
-        return inputFrame.rgba();
+        pipeline.onCameraFrame(inputFrame);
+        // In direct preview mode the camera has already drawn this frame, so it is never converted to RGBA just for the screen
+        return cameraView.isDirectPreview() ? null : inputFrame.rgba();
     }
     // When the app is paused, stop cameraview to prevent memory leakage
     @Override
@@ -293,91 +413,28 @@ public class CameraActivity extends AppCompatActivity implements CameraBridgeVie
         super.onDestroy();
         if (cameraView != null)
             cameraView.disableView();
+        pipeline.release();
     }
-    // This is the processor thread, which processes each frame independently
-    private class ProcessorThread extends Thread {
-        private final String TAG = "ProcessorThread";
-        private Mat currFrame;
-        private final double contSize = 500.0; //Default threshold for size of movement(Will detect for a human, but not for a small animal)
-        private CameraBridgeViewBase.CvCameraViewFrame inputFrame;
-
-        public ProcessorThread(Mat frame, CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
-            currFrame = frame;
-            this.inputFrame = inputFrame;
-        }
-
-        /**
-         * Algorithm:
-         * Start time
-         * Resize frame to smaller scale and standardize
-         * CVT to Grayscale as we don't need rgba for computations(Also quicker as this happens every frame)
-         * Gaussian Blur to remove small amounts of noise
-         * Background Subtraction from first frame
-         * Perform Binary Threshold to make all differences between images clear
-         * Dilate Thresholded img to fill in any holes or get rid of residual noise
-         * Find contours in thresholded img
-         * Select the biggest contour and if bigger than set size, then we have proof of motion
-         * Send to FileThread to save file and upload to firebase storage securely
-         * Else, average out the frame and set value to equal first frame, and end threading
-         * End time, calculate time differential and log
-         * */
-        @Override
-        public void run() {
-            long startTime = System.currentTimeMillis();
-            Mat currFrameImg = currFrame.clone();
-            Imgproc.resize(currFrameImg, currFrameImg, new Size(500, currFrameImg.height()));
-            // Make both firstFrame and currFrameImg same channels
-            conversions(Arrays.asList(firstFrame, currFrameImg), CvType.CV_64F, CvType.CV_64F);
-            Log.d(TAG, "firstFrame channels: " + firstFrame.type());
-            Log.d(TAG, "currFrameImg channels: " + currFrameImg.type());
-
-            Imgproc.accumulateWeighted(firstFrame, currFrameImg, 0.5);
-            Mat gauss = new Mat();
-            Imgproc.GaussianBlur(currFrameImg, gauss, new Size(21,21), 0);
-            Mat change = new Mat();
-            Core.absdiff(gauss, firstFrame, change);
-
-            Mat threshold = new Mat();
-            Imgproc.threshold(change, threshold, 5, 255, Imgproc.THRESH_BINARY);
-            Imgproc.dilate(threshold, threshold, new Mat(), new Point(), 2);
-
-            List<MatOfPoint> contours = new ArrayList<>();
-            conversions(Arrays.asList(threshold), CvType.CV_8UC1);
-            Imgproc.findContours(threshold, contours, new Mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-            for(MatOfPoint contour : contours) {
-                if(Imgproc.contourArea(contour) > contSize) {
-                    long currTime = System.currentTimeMillis();
-                    if(currTime - timeStamp >= 10000 || startingFrame) {
-                        timeStamp = System.currentTimeMillis();
-                        // Starts the notification thread to notify user about the image
-                        if(googleSignIn) {
-                            Log.d(TAG, "Running Thread");
-                            NotificationThread nt = new NotificationThread(CameraActivity.this, getApplicationContext(), providerID, inputFrame.rgba(), acct, useDefault);
-                            nt.start();
-                        } else {
-                            Log.d(TAG, "Running Thread");
-                            NotificationThread nt = new NotificationThread(CameraActivity.this, getApplicationContext(), providerID, inputFrame.rgba(), useDefault);
-                            nt.start();
-                        }
-                        if(startingFrame) startingFrame = false;
-                    }
-                    //Rect rect = Imgproc.boundingRect(contour);
-                    //Imgproc.rectangle(inputFrame.rgba(), new Point(rect.x, rect.y), new Point(rect.x + rect.width, rect.y + rect.height), new Scalar(255, 0, 0), 3);
-                    break;
-                }
-            }
-            long endTime = System.currentTimeMillis();
-            long time = (endTime - startTime);
-            Log.d(TAG, "Processing time for run #" + runNum + ": " + time);
-            runNum++;
-        }
-
-        private void conversions(List<Mat> mats, int... types) {
-            int i = 0;
-            for(Mat m : mats) {
-                m.convertTo(m, types[i]);
-                i++;
-            }
+    // Shows the regions which moved as boxes over the preview(or clears the boxes if nothing moved)
+    @Override
+    public void onFrameAnalysed(List<Rect> regions, int frameWidth, int frameHeight) {
+        detectionOverlay.setRegions(regions, frameWidth, frameHeight);
+    }
+    // Keeps the frames recorded around the alert on the phone
+    @Override
+    public void onIncident(Incident incident) {
+        SurveillancePipeline.saveIncident(getApplicationContext(), incident);
+    }
+    // Starts the notification thread to notify user about the image
+    @Override
+    public void onMotion(CapturedFrame frame, List<Rect> regions, long lagNanos) {
+        Log.d(TAG, "Running Thread");
+        NotificationThread nt;
+        if(googleSignIn) {
+            nt = new NotificationThread(getApplicationContext(), providerID, frame, regions, lagNanos, acct, useDefault);
+        } else {
+            nt = new NotificationThread(getApplicationContext(), providerID, frame, regions, lagNanos, useDefault);
         }
+        nt.start();
     }
 }
@@ -0,0 +1,153 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: ContourMotionDetector.java
+ * Description: This class is the shared last step of the motion detectors. Each detector turns a frame into a binary foreground
+ * mask in its own way, and this class finds the outer contours of that mask and keeps the ones big enough to count as motion.
+ * Each detector has its own pool of scratch buffers, and contours are freed as soon as they are measured, so a running detector
+ * does not leave native memory for the finalizers. */
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public abstract class ContourMotionDetector implements MotionDetector {
+    //Default threshold for size of movement(Will detect for a human, but not for a small animal)
+    public static final double DEFAULT_MIN_AREA = 500.0;
+
+    protected final double minArea;
+    // Scratch buffers for one frame at a time; subclasses lease from it in detect() and free it in release()
+    protected final MatPool pool = new MatPool();
+    // Reused for every call to findRegions(), which the detectors only make from one thread at a time
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private final Mat hierarchy = new Mat();
+    // Every detector dilates its mask around the centre of the kernel, so the blobs don't move
+    protected static final Point DILATE_ANCHOR = new Point(-1, -1);
+    private static final Scalar BORDER_ZERO = new Scalar(0);
+
+    // Detection zones compiled for one frame size: the box frames are cropped to, and the excluded pixels left inside it
+    static final class ZoneCrop {
+        private static final Scalar ZERO = new Scalar(0);
+        final ZoneMask mask;
+        final Rect box;
+        // Top left corner of the box, which is where contours found in a cropped frame are moved to
+        final Point origin;
+        // 255 where a pixel of the box is excluded; null when the box has no excluded pixels
+        final Mat excluded;
+
+        ZoneCrop(ZoneMask mask) {
+            this.mask = mask;
+            box = new Rect(mask.getLeft(), mask.getTop(), mask.getRight() - mask.getLeft(), mask.getBottom() - mask.getTop());
+            origin = new Point(box.x, box.y);
+            if(mask.isEmpty() || mask.isRectangular()) {
+                excluded = null;
+            } else {
+                excluded = new Mat(box.height, box.width, CvType.CV_8UC1);
+                excluded.put(0, 0, mask.excludedInBox());
+            }
+        }
+
+        // Whether no pixel is looked at, so frames need not be analysed at all
+        boolean isEmpty() {
+            return mask.isEmpty();
+        }
+
+        // The part of a full frame which is looked at
+        Mat crop(Mat frame) {
+            return mask.isFull() ? frame : frame.submat(box);
+        }
+
+        // Clears the excluded pixels of a mask which covers the whole box
+        void clearExcluded(Mat binary) {
+            if(excluded != null) {
+                binary.setTo(ZERO, excluded);
+            }
+        }
+
+        // Clears the excluded pixels of a mask which covers roi(in box coordinates) of the box
+        void clearExcluded(Mat binary, Rect roi) {
+            if(excluded != null) {
+                Mat area = excluded.submat(roi);
+                binary.setTo(ZERO, area);
+                area.release();
+            }
+        }
+
+        void release() {
+            if(excluded != null) {
+                excluded.release();
+            }
+        }
+    }
+
+    protected ContourMotionDetector(double minArea) {
+        this.minArea = minArea;
+    }
+
+    // Returns the bounding boxes of the outer contours in a CV_8UC1 mask whose area is bigger than minArea
+    protected List<Rect> findRegions(Mat mask) {
+        List<Rect> regions = new ArrayList<>();
+        findRegions(mask, new Point(), regions);
+        return regions;
+    }
+
+    // Adds the boxes of a mask which covers only part of the frame to regions, moved by offset into frame coordinates
+    protected void findRegions(Mat mask, Point offset, List<Rect> regions) {
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE, offset);
+        for(int i = 0; i < contours.size(); i++) {
+            MatOfPoint contour = contours.get(i);
+            if(Imgproc.contourArea(contour) > minArea) {
+                regions.add(Imgproc.boundingRect(contour));
+            }
+            contour.release();
+        }
+        contours.clear();
+    }
+
+    /**
+     * Dilates a mask in place, around DILATE_ANCHOR. The mask may be the corner of a bigger pooled buffer, so the pixels around it are taken as 0
+     * rather than read; otherwise whatever earlier frames left next to the corner would grow into it.
+     */
+    protected static void dilate(Mat mask, Mat kernel, int iterations) {
+        Imgproc.dilate(mask, mask, kernel, DILATE_ANCHOR, iterations, Core.BORDER_CONSTANT | Core.BORDER_ISOLATED, BORDER_ZERO);
+    }
+
+    // Frees the buffers shared by every detector; subclasses free their own and call this
+    protected void releaseBuffers() {
+        pool.release();
+        hierarchy.release();
+    }
+
+    // Joins boxes which overlap into their bounding box until none overlap, so no pixel is searched twice; boxes is modified and returned
+    static List<Rect> mergeOverlapping(List<Rect> boxes) {
+        boolean merged = true;
+        while(merged) {
+            merged = false;
+            for(int i = 0; i < boxes.size() && !merged; i++) {
+                for(int j = i + 1; j < boxes.size() && !merged; j++) {
+                    Rect a = boxes.get(i);
+                    Rect b = boxes.get(j);
+                    if(a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height) {
+                        int x0 = Math.min(a.x, b.x);
+                        int y0 = Math.min(a.y, b.y);
+                        int x1 = Math.max(a.x + a.width, b.x + b.width);
+                        int y1 = Math.max(a.y + a.height, b.y + b.height);
+                        boxes.set(i, new Rect(x0, y0, x1 - x0, y1 - y0));
+                        boxes.remove(j);
+                        merged = true;
+                    }
+                }
+            }
+        }
+        return boxes;
+    }
+}
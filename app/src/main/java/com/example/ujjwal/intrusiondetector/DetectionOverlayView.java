@@ -0,0 +1,73 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: DetectionOverlayView.java
+ * Description: This view draws the boxes around detected motion on top of the camera preview. When the camera draws the preview
+ * straight to the screen, frames never pass through a bitmap the boxes could be drawn into, so they live in this transparent
+ * view instead. It is redrawn(by the GPU, like any other view) only when the boxes change, not on every camera frame. */
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import org.opencv.core.Rect;
+
+import java.util.List;
+
+public class DetectionOverlayView extends View {
+    private final Paint paint = new Paint();
+    // Boxes as left, top, right, bottom in frame pixels; swapped whole, so drawing never sees a half written set
+    private volatile float[] boxes = new float[0];
+    private volatile int frameWidth = 1;
+    private volatile int frameHeight = 1;
+
+    public DetectionOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public DetectionOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        paint.setColor(Color.RED);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(4 * getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * Replaces the boxes shown; can be called from any thread.
+     * @param regions - boxes in the coordinates of the analysed frame, empty to clear the overlay
+     * @param frameWidth - width of the analysed frame, which is stretched over the whole view like the preview is
+     * @param frameHeight - height of the analysed frame
+     */
+    public void setRegions(List<Rect> regions, int frameWidth, int frameHeight) {
+        if(regions.isEmpty() && boxes.length == 0) {
+            return;
+        }
+        float[] next = new float[regions.size() * 4];
+        for(int i = 0; i < regions.size(); i++) {
+            Rect rect = regions.get(i);
+            next[i * 4] = rect.x;
+            next[i * 4 + 1] = rect.y;
+            next[i * 4 + 2] = rect.x + rect.width;
+            next[i * 4 + 3] = rect.y + rect.height;
+        }
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        boxes = next;
+        postInvalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float[] current = boxes;
+        float scaleX = (float) getWidth() / frameWidth;
+        float scaleY = (float) getHeight() / frameHeight;
+        for(int i = 0; i < current.length; i += 4) {
+            canvas.drawRect(current[i] * scaleX, current[i + 1] * scaleY, current[i + 2] * scaleX, current[i + 3] * scaleY, paint);
+        }
+    }
+}
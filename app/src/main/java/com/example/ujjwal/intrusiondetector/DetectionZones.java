@@ -0,0 +1,178 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: DetectionZones.java
+ * Description: This class holds the parts of a camera's view where motion should be looked for(include zones) and the parts
+ * which should be ignored, like a TV, a window or a tree(exclude zones). Zones are rectangles in fractions of the frame, so the
+ * same settings work at any resolution; compile() turns them into a ZoneMask for one frame size, which the detectors use to skip
+ * the excluded pixels entirely. Zones are saved as text like "+0,0,1,1;-0.6,0,1,0.5", one zone per entry, + to include, - to
+ * exclude, then left, top, right, bottom. */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class DetectionZones {
+    // No zones: the whole frame is looked at
+    public static final DetectionZones EVERYWHERE = new DetectionZones(Collections.<Zone>emptyList());
+
+    // One rectangle, in fractions(0 - 1) of the frame's width and height
+    public static class Zone {
+        public final boolean exclude;
+        public final double left;
+        public final double top;
+        public final double right;
+        public final double bottom;
+
+        public Zone(boolean exclude, double left, double top, double right, double bottom) {
+            if(!(left >= 0 && left < right && right <= 1 && top >= 0 && top < bottom && bottom <= 1)) {
+                throw new IllegalArgumentException("Zone must be a non-empty box inside 0,0,1,1: " + left + "," + top + "," + right +
+                        "," + bottom);
+            }
+            this.exclude = exclude;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+    }
+
+    private final List<Zone> zones;
+
+    public DetectionZones(List<Zone> zones) {
+        this.zones = Collections.unmodifiableList(new ArrayList<>(zones));
+    }
+
+    /**
+     * Reads zones saved by toString().
+     * @param spec - the saved zones; null or blank means everywhere
+     * @throws IllegalArgumentException if the text is not a list of valid zones
+     */
+    public static DetectionZones parse(String spec) {
+        if(spec == null || spec.trim().isEmpty()) {
+            return EVERYWHERE;
+        }
+        List<Zone> zones = new ArrayList<>();
+        for(String entry : spec.split(";")) {
+            entry = entry.trim();
+            if(entry.isEmpty()) {
+                continue;
+            }
+            char sign = entry.charAt(0);
+            if(sign != '+' && sign != '-') {
+                throw new IllegalArgumentException("Zone must start with + or -: " + entry);
+            }
+            String[] parts = entry.substring(1).split(",");
+            if(parts.length != 4) {
+                throw new IllegalArgumentException("Zone needs left, top, right and bottom: " + entry);
+            }
+            double[] box = new double[4];
+            for(int i = 0; i < 4; i++) {
+                try {
+                    box[i] = Double.parseDouble(parts[i].trim());
+                } catch(NumberFormatException e) {
+                    throw new IllegalArgumentException("Not a number in zone: " + entry);
+                }
+            }
+            zones.add(new Zone(sign == '-', box[0], box[1], box[2], box[3]));
+        }
+        return zones.isEmpty() ? EVERYWHERE : new DetectionZones(zones);
+    }
+
+    public List<Zone> getZones() {
+        return zones;
+    }
+
+    public boolean isEverywhere() {
+        return zones.isEmpty();
+    }
+
+    /**
+     * Works out which pixels of a frame are looked at. If there are include zones, only pixels inside one of them are; otherwise
+     * the whole frame is. Pixels inside an exclude zone never are.
+     */
+    public ZoneMask compile(int width, int height) {
+        boolean hasIncludes = false;
+        for(Zone zone : zones) {
+            hasIncludes |= !zone.exclude;
+        }
+        boolean[] line = new boolean[width];
+        int[] rowIndex = new int[height + 1];
+        int[] spans = new int[16];
+        int count = 0;
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                line[x] = !hasIncludes;
+            }
+            // Includes first, so an exclude always wins where they overlap
+            for(int pass = 0; pass < 2; pass++) {
+                for(Zone zone : zones) {
+                    if(zone.exclude != (pass == 1) || y < edge(zone.top, height) || y >= edge(zone.bottom, height)) {
+                        continue;
+                    }
+                    for(int x = edge(zone.left, width); x < edge(zone.right, width); x++) {
+                        line[x] = !zone.exclude;
+                    }
+                }
+            }
+            rowIndex[y] = count;
+            int x = 0;
+            while(x < width) {
+                if(!line[x]) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while(x < width && line[x]) {
+                    x++;
+                }
+                if(count + 2 > spans.length) {
+                    int[] grown = new int[spans.length * 2];
+                    System.arraycopy(spans, 0, grown, 0, count);
+                    spans = grown;
+                }
+                spans[count++] = start;
+                spans[count++] = x;
+            }
+        }
+        rowIndex[height] = count;
+        int[] packed = new int[count];
+        System.arraycopy(spans, 0, packed, 0, count);
+        return new ZoneMask(width, height, rowIndex, packed);
+    }
+
+    // The pixel edge nearest to a fraction of the frame
+    private static int edge(double fraction, int length) {
+        return (int) Math.round(fraction * length);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof DetectionZones && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    // The zones as text which parse() reads back
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for(Zone zone : zones) {
+            if(builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(zone.exclude ? '-' : '+').append(format(zone.left)).append(',').append(format(zone.top)).append(',')
+                    .append(format(zone.right)).append(',').append(format(zone.bottom));
+        }
+        return builder.toString();
+    }
+
+    // Drops the trailing .0 of whole numbers so saved zones stay short
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
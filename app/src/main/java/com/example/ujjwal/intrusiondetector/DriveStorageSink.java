@@ -0,0 +1,212 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: DriveStorageSink.java
+ * Description: This class is a storage sink which puts data in a folder of the user's Google Drive, named after the last part of
+ * its name(Drive folders are not paths), and gives the file's Drive ID as the location. Each Google account has one sink, with one
+ * Drive client, which everything storing to that account's Drive shares.
+ * The folder's ID is saved in a FolderIdCache shared by every account, so the folder is only looked up(or made, if the user has
+ * none) once per account, not once per alert or per run of the app, and storing a file takes a single call to make it. The saved ID
+ * is trusted until storing in it fails; only then is the folder checked, and if it has been deleted or trashed, it is looked up
+ * again and the files which failed are stored once more. */
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.drive.Drive;
+import com.google.android.gms.drive.DriveContents;
+import com.google.android.gms.drive.DriveFile;
+import com.google.android.gms.drive.DriveFolder;
+import com.google.android.gms.drive.DriveId;
+import com.google.android.gms.drive.DriveResourceClient;
+import com.google.android.gms.drive.DriveStatusCodes;
+import com.google.android.gms.drive.Metadata;
+import com.google.android.gms.drive.MetadataBuffer;
+import com.google.android.gms.drive.MetadataChangeSet;
+import com.google.android.gms.drive.query.Filters;
+import com.google.android.gms.drive.query.Query;
+import com.google.android.gms.drive.query.SearchableField;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class DriveStorageSink extends BatchingStorageSink {
+    private static final String TAG = "DriveStorageSink";
+    // Title of the folder the images are put in
+    public static final String FOLDER_TITLE = "Intrusion Detector Images";
+    // Files of a batch are made together, up to this many
+    private static final int MAX_BATCH = 8;
+    private static final long TIMEOUT_MILLIS = 120 * 1000;
+    // File under the app's files where the IDs of the folders are saved
+    private static final String FOLDER_IDS_FILE = "folder_ids.properties";
+
+    // One sink per account, by the account's ID
+    private static final Map<String, DriveStorageSink> sinks = new HashMap<>();
+    private static FolderIdCache folderIds;
+
+    private final DriveResourceClient client;
+    // Key of the folder's ID in the cache
+    private final String folderKey;
+    // Only used on the sink's thread
+    private DriveFolder folder;
+    // Whether the folder is known to be there in this run of the app, so failures are not put down to a stale ID
+    private boolean checked = false;
+
+    private DriveStorageSink(Context context, GoogleSignInAccount account, String accountKey) {
+        super(TAG, MAX_BATCH);
+        client = Drive.getDriveResourceClient(context.getApplicationContext(), account);
+        folderKey = "drive/" + accountKey + "/" + FOLDER_TITLE;
+    }
+
+    // The sink of the account, which is made the first time
+    public static synchronized DriveStorageSink forAccount(Context context, GoogleSignInAccount account) {
+        if(folderIds == null) {
+            folderIds = new FolderIdCache(new File(context.getApplicationContext().getFilesDir(), FOLDER_IDS_FILE));
+        }
+        String key = account.getId() != null ? account.getId() : String.valueOf(account.getEmail());
+        DriveStorageSink sink = sinks.get(key);
+        if(sink == null) {
+            sink = new DriveStorageSink(context, account, key);
+            sinks.put(key, sink);
+        }
+        return sink;
+    }
+
+    private static <T> T await(Task<T> task) throws ExecutionException, InterruptedException, TimeoutException {
+        return Tasks.await(task, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // The images folder, from the cache if its ID was saved there, without checking it is still there
+    private DriveFolder folder() throws ExecutionException, InterruptedException, TimeoutException {
+        if(folder != null) {
+            return folder;
+        }
+        String id = folderIds.get(folderKey);
+        if(id != null) {
+            try {
+                folder = DriveId.decodeFromString(id).asDriveFolder();
+                return folder;
+            } catch(IllegalArgumentException e) {
+                forgetFolder();
+            }
+        }
+        folder = findOrMakeFolder();
+        checked = true;
+        try {
+            folderIds.put(folderKey, folder.getDriveId().encodeToString());
+        } catch(IOException e) {
+            Log.e(TAG, "Couldn't save the folder's ID", e);
+        }
+        return folder;
+    }
+
+    private void forgetFolder() {
+        folder = null;
+        try {
+            folderIds.remove(folderKey);
+        } catch(IOException e) {
+            Log.e(TAG, "Couldn't forget the folder's ID", e);
+        }
+    }
+
+    /**
+     * Whether the folder is still there, i.e. neither deleted nor trashed. If the answer is not known(e.g. the phone is offline), it
+     * is taken to be there, so a saved ID is not thrown away because of the connection.
+     */
+    private boolean folderExists() throws InterruptedException, TimeoutException {
+        try {
+            return !await(client.getMetadata(folder)).isTrashed();
+        } catch(ExecutionException e) {
+            return !(e.getCause() instanceof ApiException
+                    && ((ApiException) e.getCause()).getStatusCode() == DriveStatusCodes.DRIVE_RESOURCE_NOT_AVAILABLE);
+        }
+    }
+
+    // The images folder in the root of the user's Drive, which is made if there is none
+    private DriveFolder findOrMakeFolder() throws ExecutionException, InterruptedException, TimeoutException {
+        DriveFolder root = await(client.getRootFolder());
+        Query query = new Query.Builder().addFilter(Filters.and(Filters.eq(SearchableField.TITLE, FOLDER_TITLE),
+                Filters.eq(SearchableField.MIME_TYPE, DriveFolder.MIME_TYPE), Filters.eq(SearchableField.TRASHED, false))).build();
+        MetadataBuffer found = await(client.queryChildren(root, query));
+        try {
+            for(Metadata metadata : found) {
+                return metadata.getDriveId().asDriveFolder();
+            }
+        } finally {
+            found.release();
+        }
+        MetadataChangeSet changeSet = new MetadataChangeSet.Builder().setTitle(FOLDER_TITLE).setMimeType(DriveFolder.MIME_TYPE)
+                .setStarred(true).build();
+        Log.d(TAG, "Making the images folder");
+        return await(client.createFolder(root, changeSet));
+    }
+
+    // Drive calls block the sink's thread, which only this account's images wait on
+    @Override
+    protected void store(List<Put> batch) throws Exception {
+        Map<Put, Exception> failed = createFiles(folder(), batch);
+        if(!failed.isEmpty() && !checked) {
+            // The saved ID has not been checked in this run, so the folder may be gone
+            if(folderExists()) {
+                checked = true;
+            } else {
+                Log.d(TAG, "The saved images folder is gone, looking it up again");
+                forgetFolder();
+                failed = createFiles(folder(), new ArrayList<>(failed.keySet()));
+            }
+        }
+        for(Map.Entry<Put, Exception> failure : failed.entrySet()) {
+            failure.getKey().failed(failure.getValue());
+        }
+    }
+
+    /**
+     * Makes a file in the folder for every put of the batch, all at once, and marks the ones which are stored.
+     * @return the puts which failed, with the reason, which are left to the caller to mark
+     */
+    private Map<Put, Exception> createFiles(DriveFolder parent, List<Put> batch) throws Exception {
+        List<Put> started = new ArrayList<>(batch.size());
+        List<Task<DriveFile>> files = new ArrayList<>(batch.size());
+        for(Put put : batch) {
+            if(put.isCancelled()) {
+                continue;
+            }
+            DriveContents contents = await(client.createContents());
+            OutputStream os = contents.getOutputStream();
+            os.write(put.getData());
+            String name = put.getName();
+            MetadataChangeSet changeSet = new MetadataChangeSet.Builder().setTitle(name.substring(name.lastIndexOf('/') + 1))
+                    .setMimeType(put.get(CONTENT_TYPE_KEY) != null ? put.get(CONTENT_TYPE_KEY) : "application/octet-stream")
+                    .setStarred(true).build();
+            started.add(put);
+            files.add(client.createFile(parent, changeSet, contents));
+        }
+        Map<Put, Exception> failed = new LinkedHashMap<>();
+        for(int i = 0; i < started.size(); i++) {
+            Put put = started.get(i);
+            try {
+                put.stored(await(files.get(i)).getDriveId().encodeToString());
+                // A file made in the folder shows it is there
+                checked = true;
+            } catch(ExecutionException e) {
+                Log.d(TAG, "Couldn't make " + put.getName() + ": " + e.getCause());
+                failed.put(put, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            }
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: DurableFiles.java
+ * Description: This class writes the files which have to survive the app being killed or the phone losing power: the upload
+ * journal, stored images and saved folder IDs. Data is synced to the disk before a write returns, and a file which is replaced is
+ * written to a temporary file next to it which is then renamed over it, so a crash leaves either the old file or the new one,
+ * never half of one. */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+public final class DurableFiles {
+    // Ending of the temporary files, which are only left behind by a crash and can be deleted
+    public static final String TMP_SUFFIX = ".tmp";
+
+    private DurableFiles() {
+    }
+
+    // Writes a new file, and syncs it to the disk
+    public static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Writes or replaces a file through a temporary file, making its directory if it is missing
+    public static void replace(File file, byte[] data) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't make " + dir);
+        }
+        File tmp = new File(dir, file.getName() + TMP_SUFFIX);
+        write(tmp, data);
+        if(!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Couldn't rename " + tmp + " to " + file);
+        }
+    }
+
+    // Writes or replaces a properties file through a temporary file
+    public static void replace(File file, Properties properties) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        properties.store(out, null);
+        replace(file, out.toByteArray());
+    }
+}
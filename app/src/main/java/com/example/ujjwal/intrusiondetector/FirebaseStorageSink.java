@@ -0,0 +1,70 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: FirebaseStorageSink.java
+ * Description: This class is a storage sink which puts data in a Firebase Storage bucket, with the name as the path in the bucket,
+ * and gives its download URL as the location. The bucket's reference is looked up once, when the sink is made. Every upload is
+ * started as soon as its batch is taken, and marked when Firebase says it is done, so uploads run side by side and a big one never
+ * holds up a small one behind it. An upload whose caller gives up on it is cancelled, so a retry does not race a second copy. */
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+public class FirebaseStorageSink extends BatchingStorageSink {
+    private static final String TAG = "FirebaseStorageSink";
+
+    private final StorageReference bucket;
+
+    /**
+     * @param bucket - URL of the bucket, like gs://name.appspot.com
+     * @param maxBatch - most uploads started together
+     */
+    public FirebaseStorageSink(String bucket, int maxBatch) {
+        super(TAG, maxBatch);
+        this.bucket = FirebaseStorage.getInstance().getReferenceFromUrl(bucket);
+    }
+
+    @Override
+    protected void store(List<Put> batch) {
+        for(final Put put : batch) {
+            if(put.isCancelled()) {
+                continue;
+            }
+            StorageMetadata.Builder metadata = new StorageMetadata.Builder();
+            if(put.get(CONTENT_TYPE_KEY) != null) {
+                metadata.setContentType(put.get(CONTENT_TYPE_KEY));
+            }
+            final UploadTask upload = bucket.child(put.getName()).putBytes(put.getData(), metadata.build());
+            upload.addOnCompleteListener(new OnCompleteListener<UploadTask.TaskSnapshot>() {
+                @Override
+                public void onComplete(@NonNull Task<UploadTask.TaskSnapshot> task) {
+                    if(task.isSuccessful()) {
+                        put.stored(task.getResult().getMetadata().getDownloadUrl().toString());
+                    } else if(task.isCanceled()) {
+                        put.failed(new CancellationException("Upload of " + put.getName() + " was cancelled"));
+                    } else {
+                        Log.d(TAG, "Couldn't upload " + put.getName() + ": " + task.getException());
+                        put.failed(task.getException());
+                    }
+                }
+            });
+            put.setOnCancel(new Runnable() {
+                @Override
+                public void run() {
+                    upload.cancel();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: FirebaseUploader.java
+ * Description: This class sends the images in the upload queue to Firebase Storage(through a FirebaseStorageSink, which all
+ * uploads share), and once one is stored, records it under the user in the Firebase Database for the backend to notify them. The
+ * whole app shares one upload queue, whose journal is kept in the app's files, so alerts from the camera activity and from the
+ * surveillance service wait in the same line, and images taken while offline are uploaded once the phone is back online, even
+ * after the app was closed.
+ * Each alert is sent as a small thumbnail and a full size image. The thumbnail goes first, creates the alert's event and notifies
+ * the user, so the alert is seen within seconds even on a slow connection; the full size image follows at low priority, and fills
+ * in the event's url once it is stored. In the region mode, the full size image is replaced by a crop of just the part which moved,
+ * at full resolution, and the thumbnail is made even smaller, as it is only there to show where the crop was taken. */
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.opencv.core.Rect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class FirebaseUploader implements SinkUploader.Listener {
+    private static final String TAG = "FirebaseUploader";
+    private static final String STORAGE_BUCKET = "gs://intrusiondetector-bbba9.appspot.com";
+    // Keys of the metadata an image is queued with
+    public static final String UID_KEY = "uid";
+    public static final String DATE_KEY = "date";
+    public static final String TIME_KEY = "time";
+    public static final String AREA_KEY = "area";
+    public static final String BBOX_KEY = "bbox";
+    // The push key of the alert's event, which both of its images are recorded under
+    public static final String EVENT_KEY = "event";
+    // Which of the alert's images an upload is
+    public static final String KIND_KEY = "kind";
+    public static final String KIND_THUMBNAIL = "thumbnail";
+    public static final String KIND_FULL = "full";
+    public static final String KIND_CROP = "crop";
+    // The box the crop was cut from, and the size of the camera frame it was cut from, for region uploads
+    public static final String CROP_KEY = "crop";
+    public static final String FRAME_WIDTH_KEY = "frameWidth";
+    public static final String FRAME_HEIGHT_KEY = "frameHeight";
+    // Node under each user with one child per alert
+    public static final String EVENTS_NODE = "events";
+    // Directory of the journal under the app's files
+    private static final String JOURNAL_DIR = "uploads";
+    // Two uploads at a time keep the radio busy without flooding it
+    private static final int WORKERS = 2;
+    // At most 50MB of images wait for a connection(a few hundred alerts)
+    private static final long JOURNAL_BYTE_BUDGET = 50L * 1024 * 1024;
+    // Retries start after 5 seconds and back off to once every 15 minutes
+    private static final long BASE_BACKOFF_MILLIS = 5000;
+    private static final long MAX_BACKOFF_MILLIS = 15 * 60 * 1000;
+    // An upload which takes longer than this counts as failed, so a dead connection does not hold a worker forever
+    private static final long UPLOAD_TIMEOUT_SECONDS = 120;
+    // Every worker's upload can be started together
+    private static final int MAX_BATCH = WORKERS;
+
+    // Updates from alerts this close together are merged into one database write
+    private static final long COALESCE_WINDOW_MILLIS = 300;
+
+    private static UploadQueue queue;
+    private static StorageSink sink;
+    private static UpdateCoalescer coalescer;
+    // The fields of a user's profile, which are written along with their alerts
+    private static final String[] PROFILE_FIELDS = {"name", "email", "phonenumber"};
+    // The profile fields last written for each user, so unchanged ones are not written again
+    private static final Map<String, Map<String, Object>> writtenProfiles = new HashMap<>();
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private FirebaseUploader(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns the app's upload queue, starting it(and sending whatever an earlier run left in the journal) the first time.
+     */
+    public static synchronized UploadQueue getQueue(Context context) throws IOException {
+        if(queue == null) {
+            Context app = context.getApplicationContext();
+            SinkUploader uploader = new SinkUploader(getSink(), TimeUnit.SECONDS.toMillis(UPLOAD_TIMEOUT_SECONDS),
+                    new FirebaseUploader(app));
+            UploadQueue created = new UploadQueue(new File(app.getFilesDir(), JOURNAL_DIR), WORKERS, JOURNAL_BYTE_BUDGET,
+                    BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, uploader);
+            created.start();
+            queue = created;
+        }
+        return queue;
+    }
+
+    // The app's Firebase Storage sink, which is made the first time
+    public static synchronized StorageSink getSink() {
+        if(sink == null) {
+            sink = new FirebaseStorageSink(STORAGE_BUCKET, MAX_BATCH);
+        }
+        return sink;
+    }
+
+    /**
+     * Starts the app's upload queue if it is not running yet, so uploads left from an earlier run are sent without waiting for the
+     * next alert.
+     */
+    public static void resume(Context context) {
+        try {
+            getQueue(context);
+        } catch(IOException e) {
+            Log.e(TAG, "Couldn't start the upload queue", e);
+        }
+    }
+
+    // Depth, age and counts of the upload queue, for the stats logs
+    public static synchronized String describeQueue() {
+        return queue == null ? "not started" : queue.toString();
+    }
+
+    /**
+     * Queues the images of an intrusion for upload, to be stored as intrusions/uid/date(and date_thumb) and recorded as one event.
+     * @param date - when the image was taken, which is also its name
+     * @param time - the same moment in milliseconds since the epoch
+     * @param regions - the regions which moved, in the full size image's coordinates
+     */
+    public static void enqueueImage(Context context, String uid, String date, long time, List<Rect> regions, byte[] thumbnail,
+                                    byte[] full) throws IOException {
+        Map<String, String> metadata = eventMetadata(uid, date, time, regions);
+        UploadQueue uploads = getQueue(context);
+        metadata.put(KIND_KEY, KIND_THUMBNAIL);
+        uploads.enqueue(metadata, thumbnail);
+        metadata.put(KIND_KEY, KIND_FULL);
+        uploads.enqueue(metadata, full, true);
+    }
+
+    /**
+     * Queues a crop of the regions which moved, with a small image of the whole scene, to be stored as intrusions/uid/date_crop
+     * (and date_thumb) and recorded as one event. Both are small, so both are sent at normal priority, the scene first.
+     * @param regions - the regions which moved, in the camera frame's coordinates
+     * @param crop - the box the crop was cut from, in the same coordinates
+     */
+    public static void enqueueRegion(Context context, String uid, String date, long time, List<Rect> regions, int frameWidth,
+                                     int frameHeight, Rect crop, byte[] scene, byte[] cropped) throws IOException {
+        Map<String, String> metadata = eventMetadata(uid, date, time, regions);
+        metadata.put(CROP_KEY, Regions.format(crop));
+        metadata.put(FRAME_WIDTH_KEY, Integer.toString(frameWidth));
+        metadata.put(FRAME_HEIGHT_KEY, Integer.toString(frameHeight));
+        UploadQueue uploads = getQueue(context);
+        metadata.put(KIND_KEY, KIND_THUMBNAIL);
+        uploads.enqueue(metadata, scene);
+        metadata.put(KIND_KEY, KIND_CROP);
+        uploads.enqueue(metadata, cropped);
+    }
+
+    // The metadata every image of an alert is queued with, under a new event key
+    private static Map<String, String> eventMetadata(String uid, String date, long time, List<Rect> regions) {
+        Map<String, String> metadata = new HashMap<>();
+        // Push keys are made on the phone, so this does not wait for the database
+        metadata.put(EVENT_KEY, userRef(uid).child(EVENTS_NODE).push().getKey());
+        metadata.put(UID_KEY, uid);
+        metadata.put(StorageSink.CONTENT_TYPE_KEY, "image/jpeg");
+        metadata.put(DATE_KEY, date);
+        metadata.put(TIME_KEY, Long.toString(time));
+        metadata.put(AREA_KEY, Long.toString(Regions.area(regions)));
+        Rect bbox = Regions.union(regions);
+        if(bbox != null) {
+            metadata.put(BBOX_KEY, Regions.format(bbox));
+        }
+        return metadata;
+    }
+
+    /**
+     * Holds back the full size images(the thumbnails are still sent), e.g. while the connection is slow or metered; the images
+     * wait in the journal until they are resumed.
+     */
+    public static void setFullResolutionPaused(Context context, boolean paused) throws IOException {
+        getQueue(context).setLowPriorityPaused(paused);
+    }
+
+    private static DatabaseReference userRef(String uid) {
+        return FirebaseDatabase.getInstance().getReference().child("users").child(uid);
+    }
+
+    // Images are stored as intrusions/uid/date, with the kind's ending
+    @Override
+    public String nameOf(UploadQueue.Job job) {
+        return "intrusions/" + job.get(UID_KEY) + "/" + job.get(DATE_KEY) + suffix(job.get(KIND_KEY));
+    }
+
+    // Called on an upload worker once the image is stored
+    @Override
+    public void onStored(UploadQueue.Job job, String downloadURL) throws Exception {
+        String kind = job.get(KIND_KEY);
+        Log.d(TAG, "Image(" + kind + ") uploaded after " + job.getAttempts() + " failed attempts at url: " + downloadURL);
+        // The upload stays in the journal until its record has been handed to the database client
+        updateDatabase(job, downloadURL).get(UPLOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if(KIND_FULL.equals(kind) || KIND_CROP.equals(kind)) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, "Image Uploaded Successfully to Firebase", Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    // Ending of the stored name of each kind of image; full size images(and uploads from before there were kinds) have none
+    private static String suffix(String kind) {
+        if(KIND_THUMBNAIL.equals(kind)) {
+            return "_thumb";
+        }
+        return KIND_CROP.equals(kind) ? "_crop" : "";
+    }
+
+    // A box as the fields of a database node
+    private static Map<String, Object> box(Rect rect) {
+        Map<String, Object> box = new HashMap<>();
+        box.put("x", rect.x);
+        box.put("y", rect.y);
+        box.put("width", rect.width);
+        box.put("height", rect.height);
+        return box;
+    }
+
+    // Uploads queued before the event fields existed have none, so they get the fallback
+    private static long parseLong(String value, long fallback) {
+        try {
+            return value == null ? fallback : Long.parseLong(value);
+        } catch(NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Records the image in its alert's event under users/uid/events, and for the first image of an alert, points the user's
+     * notification fields at it. Everything goes into one multi-path update, which is merged with the updates of any other alert
+     * from the next COALESCE_WINDOW_MILLIS, so the backend sees each burst of alerts as one complete change. Each event is a child
+     * of its own with a push() key, which sorts by time, so an alert costs the same however long the history is, and the newest
+     * events can be read with orderByKey().limitToLast(n). The fields of the event are written one by one rather than as a whole,
+     * so the alert's two images can be recorded in either order. The event of a region upload also holds the crop's box and the
+     * frame's size, so the crop can be placed on the scene.
+     * @return a future which completes once the database has written the update, and fails if it could not
+     */
+    private Future<?> updateDatabase(UploadQueue.Job job, String URL) {
+        Log.d(TAG, "Updating Database");
+        String uid = job.get(UID_KEY);
+        String kind = job.get(KIND_KEY);
+        String eventKey = job.get(EVENT_KEY);
+        // Uploads queued before alerts had thumbnails bring no event, and are recorded as a whole event of their own
+        if(eventKey == null) {
+            eventKey = userRef(uid).child(EVENTS_NODE).push().getKey();
+        }
+        String event = EVENTS_NODE + "/" + eventKey + "/";
+        Map<String, Object> updates = new HashMap<>();
+        if(KIND_FULL.equals(kind) || KIND_CROP.equals(kind)) {
+            updates.put(event + (KIND_CROP.equals(kind) ? "cropUrl" : "url"), URL);
+            return getCoalescer().submit(uid, updates);
+        }
+        String date = job.get(DATE_KEY);
+        updates.put(event + (KIND_THUMBNAIL.equals(kind) ? "thumbnail" : "url"), URL);
+        updates.put(event + "timestamp", parseLong(job.get(TIME_KEY), job.getCreatedMillis()));
+        updates.put(event + "date", date);
+        updates.put(event + "area", parseLong(job.get(AREA_KEY), 0));
+        Rect bbox = Regions.parse(job.get(BBOX_KEY));
+        if(bbox != null) {
+            updates.put(event + "bbox", box(bbox));
+        }
+        Rect crop = Regions.parse(job.get(CROP_KEY));
+        if(crop != null) {
+            updates.put(event + "crop", box(crop));
+            updates.put(event + "frameWidth", parseLong(job.get(FRAME_WIDTH_KEY), 0));
+            updates.put(event + "frameHeight", parseLong(job.get(FRAME_HEIGHT_KEY), 0));
+        }
+        updates.put("notify", true);
+        updates.put("recentImg", URL);
+        updates.put("lastImgUpload", date);
+        // The profile is only known while the user who took the image is still signed in
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if(user != null && user.getUid().equals(uid)) {
+            updates.putAll(changedProfile(uid, user));
+        }
+        return getCoalescer().submit(uid, updates);
+    }
+
+    // The profile fields which differ from the ones last written for the user
+    private static synchronized Map<String, Object> changedProfile(String uid, FirebaseUser user) {
+        Map<String, Object> profile = new HashMap<>();
+        profile.put("name", user.getDisplayName() != null ? user.getDisplayName() : "");
+        profile.put("email", user.getEmail() != null ? user.getEmail() : "");
+        profile.put("phonenumber", user.getPhoneNumber() != null ? user.getPhoneNumber() : "");
+        Map<String, Object> written = writtenProfiles.get(uid);
+        Map<String, Object> changed = new HashMap<>();
+        for(Map.Entry<String, Object> field : profile.entrySet()) {
+            if(written == null || !field.getValue().equals(written.get(field.getKey()))) {
+                changed.put(field.getKey(), field.getValue());
+            }
+        }
+        return changed;
+    }
+
+    // Remembers the profile fields of an update the database has written, so they are left out from now on
+    private static synchronized void profileWritten(String uid, Map<String, Object> updates) {
+        Map<String, Object> written = writtenProfiles.get(uid);
+        if(written == null) {
+            written = new HashMap<>();
+            writtenProfiles.put(uid, written);
+        }
+        for(String field : PROFILE_FIELDS) {
+            if(updates.containsKey(field)) {
+                written.put(field, updates.get(field));
+            }
+        }
+    }
+
+    // The app's coalescer of database updates, which writes each merged update under users/node
+    private static synchronized UpdateCoalescer getCoalescer() {
+        if(coalescer == null) {
+            coalescer = new UpdateCoalescer(COALESCE_WINDOW_MILLIS, new UpdateCoalescer.Sink() {
+                @Override
+                public void write(final String node, final Map<String, Object> updates, final UpdateCoalescer.Done done) {
+                    Log.d(TAG, "Writing " + updates.size() + " paths for " + node);
+                    userRef(node).updateChildren(updates).addOnCompleteListener(new OnCompleteListener<Void>() {
+                        @Override
+                        public void onComplete(@NonNull Task<Void> task) {
+                            if(task.isSuccessful()) {
+                                profileWritten(node, updates);
+                                done.finished(null);
+                            } else {
+                                Log.d(TAG, "Couldn't write the update for " + node + ": " + task.getException());
+                                done.finished(task.getException());
+                            }
+                        }
+                    });
+                }
+            });
+        }
+        return coalescer;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: FolderIdCache.java
+ * Description: This class remembers the IDs of remote folders which have been found or made, like the user's Drive folder of
+ * images, so they are only looked up once, not once per alert or per run of the app. The IDs are kept in a properties file, which is
+ * written through a temporary file that is renamed, so it is always either the old or the new version. Nothing here checks that a
+ * folder still exists; whoever uses an ID removes it when the folder turns out to be gone. */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+public class FolderIdCache {
+    private final File file;
+    private final Properties ids = new Properties();
+
+    /**
+     * Reads the IDs saved in the file; a missing or unreadable file is an empty cache.
+     * @param file - where the IDs are saved, which should belong to this cache only
+     */
+    public FolderIdCache(File file) {
+        this.file = file;
+        if(file.isFile()) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    ids.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch(IOException | IllegalArgumentException e) {
+                ids.clear();
+            }
+        }
+    }
+
+    /**
+     * @param key - what the folder is for, e.g. the account and the folder's title
+     * @return the folder's ID, or null if it has not been saved
+     */
+    public synchronized String get(String key) {
+        return ids.getProperty(key);
+    }
+
+    // Saves the folder's ID; if the file can't be written, the ID is still remembered until the app is closed
+    public synchronized void put(String key, String id) throws IOException {
+        ids.setProperty(key, id);
+        save();
+    }
+
+    // Forgets the folder's ID, e.g. once the folder has been deleted
+    public synchronized void remove(String key) throws IOException {
+        if(ids.remove(key) != null) {
+            save();
+        }
+    }
+
+    private void save() throws IOException {
+        DurableFiles.replace(file, ids);
+    }
+}
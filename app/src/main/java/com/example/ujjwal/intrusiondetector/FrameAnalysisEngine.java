@@ -0,0 +1,175 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: FrameAnalysisEngine.java
+ * Description: This class is the long-lived engine which analyses camera frames in the background. Instead of starting a new thread
+ * for every frame, frames are handed to a fixed pool of workers through a bounded queue. When the workers fall behind, the queue
+ * overflows according to the chosen policy, so CPU use and latency stay flat no matter how fast the camera delivers frames. */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FrameAnalysisEngine {
+
+    // What happens to a frame when the hand-off queue is already full
+    public enum OverflowPolicy {
+        // Throw away the oldest waiting frame so the newest one is always analysed next(keep-latest)
+        DROP_OLDEST,
+        // Throw away the incoming frame and keep the frames that are already waiting
+        DROP_NEWEST
+    }
+
+    /**
+     * A unit of work for the engine. Subclasses hold on to a frame, so they get a chance to free it if the engine drops them
+     * before they are run.
+     */
+    public static abstract class FrameTask implements Runnable {
+        protected void onDropped() {
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final OverflowPolicy policy;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong analysed = new AtomicLong();
+    // Run once, when the workers have stopped
+    private final AtomicReference<Runnable> onTerminated = new AtomicReference<>();
+
+    FrameAnalysisEngine(int workers, int queueCapacity, OverflowPolicy policy) {
+        if(workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Engine needs at least one worker and one queue slot");
+        }
+        this.policy = policy;
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueCapacity);
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, queue, new WorkerFactory(), new OverflowHandler()) {
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                super.afterExecute(r, t);
+                analysed.incrementAndGet();
+            }
+
+            @Override
+            protected void terminated() {
+                super.terminated();
+                runOnTerminated();
+            }
+        };
+        executor.prestartAllCoreThreads();
+    }
+
+    // Hands a frame to the workers; returns false if the frame itself was dropped
+    public boolean submit(FrameTask task) {
+        accepted.incrementAndGet();
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getAnalysedCount() {
+        return analysed.get();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    // Stops the workers; frames still waiting in the queue are dropped and freed
+    public void shutdown() {
+        executor.shutdown();
+        for(Runnable r : executor.getQueue().toArray(new Runnable[0])) {
+            if(executor.remove(r)) {
+                dropped.incrementAndGet();
+                ((FrameTask) r).onDropped();
+            }
+        }
+    }
+
+    /**
+     * Stops the workers like shutdown(), and runs the action once the frame being analysed(if any) is done, e.g. to free what the
+     * tasks use. The action runs on the last worker as it stops(or on this thread, if the workers have already stopped), so nobody
+     * has to wait for them.
+     */
+    public void shutdown(Runnable action) {
+        onTerminated.set(action);
+        shutdown();
+        // The workers may have stopped before the action was set
+        if(executor.isTerminated()) {
+            runOnTerminated();
+        }
+    }
+
+    private void runOnTerminated() {
+        Runnable action = onTerminated.getAndSet(null);
+        if(action != null) {
+            action.run();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "accepted=" + accepted.get() + ", dropped=" + dropped.get() + ", analysed=" + analysed.get() + ", queued=" + getQueueDepth();
+    }
+
+    // Called by the executor when every worker is busy and the queue is full
+    private class OverflowHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if(executor.isShutdown()) {
+                dropped.incrementAndGet();
+                ((FrameTask) r).onDropped();
+                throw new RejectedExecutionException("Engine has been shut down");
+            }
+            if(policy == OverflowPolicy.DROP_OLDEST) {
+                // Make room by evicting the oldest waiting frame, then retry the newest one
+                Runnable oldest = executor.getQueue().poll();
+                if(oldest != null) {
+                    dropped.incrementAndGet();
+                    ((FrameTask) oldest).onDropped();
+                }
+                executor.execute(r);
+            } else {
+                dropped.incrementAndGet();
+                ((FrameTask) r).onDropped();
+                throw new RejectedExecutionException("Analysis queue is full");
+            }
+        }
+    }
+
+    // Names the worker threads and keeps them below the camera and UI threads
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FrameAnalysis-" + count.getAndIncrement());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
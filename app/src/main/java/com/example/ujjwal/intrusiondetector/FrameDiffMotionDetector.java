@@ -0,0 +1,198 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: FrameDiffMotionDetector.java
+ * Description: This class is the original motion detection pipeline: the frame is blurred, diffed against a running average of the
+ * scene, thresholded and dilated, and the remaining blobs are checked for size. It is the cheapest of the detectors. The difference
+ * is scored per tile first, so a still scene never reaches dilation or contour finding, and a moving one only runs them on the
+ * tiles which changed and the tiles around them. Any change over the threshold makes a tile active, since after dilation(and with
+ * the area a blob encloses) a few scattered pixels can make a blob of any size, and the tiles around catch what dilation and big
+ * blobs reach into; so the tiles never hide a blob the whole frame would have shown. With detection zones, frames are cropped to
+ * the box around the included pixels before any of this, tiles in excluded zones are never passed on, and excluded pixels are
+ * cleared from the blobs of the tiles which are. */
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class FrameDiffMotionDetector extends ContourMotionDetector {
+    // How quickly the background adapts to slow changes(light, shadows)
+    public static final double DEFAULT_LEARNING_RATE = 0.05;
+    // Keeps the whole detection path in 8-bit(model in 16-bit fixed point) instead of converting every frame to float
+    public static final boolean DEFAULT_FIXED_POINT = true;
+    // Size of the blur which removes sensor noise before diffing
+    public static final int DEFAULT_BLUR_SIZE = 21;
+    // Smallest difference in brightness which counts as a change
+    static final double DIFF_THRESHOLD = 5;
+    // Whole tiles around the active tiles which are searched too, so dilation and blobs crossing into a quiet tile are not cut off
+    private static final int TILE_NEIGHBOURS = 1;
+
+    private final Size frameSize;
+    private final double learningRate;
+    private final boolean fixedPoint;
+    private final Size blurSize;
+    // An empty kernel makes dilate() use a 3x3 square
+    private final Mat kernel = new Mat();
+    // The model and tiles cover only the box around the included pixels, so they are rebuilt when the zones change
+    private BackgroundModel model;
+    private TileGrid tiles;
+    private ZoneCrop zones;
+    // Off only to compare against the whole frame search
+    private boolean tileFiltering = true;
+
+    FrameDiffMotionDetector(Size frameSize, double minArea) {
+        this(frameSize, minArea, DEFAULT_LEARNING_RATE, DEFAULT_FIXED_POINT);
+    }
+
+    FrameDiffMotionDetector(Size frameSize, double minArea, double learningRate, boolean fixedPoint) {
+        this(frameSize, minArea, learningRate, fixedPoint, DEFAULT_BLUR_SIZE);
+    }
+
+    FrameDiffMotionDetector(Size frameSize, double minArea, double learningRate, boolean fixedPoint, int blurSize) {
+        super(minArea);
+        this.frameSize = frameSize;
+        this.learningRate = learningRate;
+        this.fixedPoint = fixedPoint;
+        this.blurSize = new Size(blurSize, blurSize);
+        setZones(DetectionZones.EVERYWHERE);
+    }
+
+    @Override
+    public synchronized void setZones(DetectionZones zones) {
+        releaseModel();
+        this.zones = new ZoneCrop(zones.compile((int) frameSize.width, (int) frameSize.height));
+        Size size = this.zones.isEmpty() ? frameSize : this.zones.box.size();
+        model = new BackgroundModel(size, learningRate, fixedPoint);
+        tiles = new TileGrid(size, TileGrid.DEFAULT_TILE_SIZE);
+        tiles.skipExcluded(this.zones.mask, this.zones.box.x, this.zones.box.y);
+    }
+
+    // The per-tile scores of the last frame, for anything else that wants to know where the scene changed. With zones, the grid
+    // covers only the box around the included pixels
+    public synchronized TileGrid getTileGrid() {
+        return tiles;
+    }
+
+    // Whether contours are only searched for around the tiles which changed(the default), or in the whole frame
+    synchronized void setTileFiltering(boolean tileFiltering) {
+        this.tileFiltering = tileFiltering;
+    }
+
+    /**
+     * Algorithm:
+     * Crop the frame to the box around the included pixels, if there are zones
+     * Gaussian Blur to remove small amounts of noise
+     * Background Subtraction from the background model(if the model is empty, this frame becomes the model)
+     * Zero out the differences of excluded pixels, and the ones below the threshold, and sum what is left per tile; if no tile
+     * changed at all, stop here
+     * Within the active tiles and the tiles around them only: Perform Binary Threshold to make all differences between images clear
+     * Dilate Thresholded img to fill in any holes or get rid of residual noise, and clear the excluded pixels it grew into
+     * Find contours in thresholded img and keep the ones bigger than the set size
+     * Blend the frame into the background model so it follows slow changes in the scene
+     * */
+    @Override
+    public synchronized List<Rect> detect(Mat luma) {
+        if(zones.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // A submat still sees the pixels around it, so the blur at the box's edges matches a full frame blur
+        Mat area = zones.crop(luma);
+        int rows = area.rows();
+        int cols = area.cols();
+        Mat gauss = pool.lease(rows, cols, luma.type());
+        Imgproc.GaussianBlur(area, gauss, blurSize, 0);
+        if(area != luma) {
+            area.release();
+        }
+        // Only the current frame is ever converted, and only when the model works in float
+        if(gauss.type() != model.getFrameType()) {
+            Mat converted = pool.lease(rows, cols, model.getFrameType());
+            gauss.convertTo(converted, model.getFrameType());
+            pool.recycle(gauss);
+            gauss = converted;
+        }
+        Mat change = pool.lease(rows, cols, model.getFrameType());
+        List<Rect> regions = Collections.emptyList();
+        if(model.absdiff(gauss, change)) {
+            regions = findChanges(change);
+        }
+        // On the first frame there is nothing to compare against yet, so this frame becomes the reference point
+        model.update(gauss);
+        pool.recycle(change);
+        pool.recycle(gauss);
+        return regions;
+    }
+
+    // Scores the difference per tile, and runs threshold, dilation and contour finding inside the active tiles only
+    private List<Rect> findChanges(Mat change) {
+        // Excluded pixels in tiles on the edge of a zone would otherwise make the tile active
+        zones.clearExcluded(change);
+        // Sensor noise stays below the threshold, so it does not add up to a tile's score
+        Imgproc.threshold(change, change, DIFF_THRESHOLD, 255, Imgproc.THRESH_TOZERO);
+        tiles.score(change);
+        // The differences left are all over the threshold, so any of them makes a tile active
+        List<Rect> active = tiles.activeRegions(0, TILE_NEIGHBOURS);
+        if(!tileFiltering && !active.isEmpty()) {
+            active = Collections.singletonList(new Rect(0, 0, change.cols(), change.rows()));
+        }
+        if(active.isEmpty()) {
+            return Collections.<Rect>emptyList();
+        }
+
+        List<Rect> regions = new ArrayList<>();
+        // Each tile's mask is written into the corner of frame sized buffers, so boxes of any size reuse the same memory
+        boolean convert = change.type() != CvType.CV_8UC1;
+        Mat thresholdBuffer = pool.lease(change.rows(), change.cols(), change.type());
+        Mat binaryBuffer = convert ? pool.lease(change.rows(), change.cols(), CvType.CV_8UC1) : thresholdBuffer;
+        for(Rect roi : active) {
+            Mat tile = change.submat(roi);
+            Mat threshold = thresholdBuffer.submat(0, roi.height, 0, roi.width);
+            Imgproc.threshold(tile, threshold, 0, 255, Imgproc.THRESH_BINARY);
+            dilate(threshold, kernel, 2);
+            Mat binary = threshold;
+            if(convert) {
+                binary = binaryBuffer.submat(0, roi.height, 0, roi.width);
+                threshold.convertTo(binary, CvType.CV_8UC1);
+            }
+            zones.clearExcluded(binary, roi);
+            findRegions(binary, new Point(zones.box.x + roi.x, zones.box.y + roi.y), regions);
+            tile.release();
+            threshold.release();
+            binary.release();
+        }
+        pool.recycle(thresholdBuffer);
+        if(convert) {
+            pool.recycle(binaryBuffer);
+        }
+        return regions;
+    }
+
+    @Override
+    public synchronized void reset() {
+        model.reset();
+    }
+
+    @Override
+    public synchronized void release() {
+        releaseModel();
+        kernel.release();
+        releaseBuffers();
+    }
+
+    // Frees what depends on the zones, which setZones() builds again
+    private void releaseModel() {
+        if(model != null) {
+            model.release();
+            tiles.release();
+            zones.release();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: InMemoryStorageSink.java
+ * Description: This class is a storage sink which keeps what is put in memory, by name, so the alert pipeline can be run and
+ * load tested on a computer without a network. It can wait for a while before each batch, to act like a slow connection. */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class InMemoryStorageSink extends BatchingStorageSink {
+    // Locations start with this, followed by the name
+    public static final String SCHEME = "memory:";
+
+    private final long latencyMillis;
+    private final Map<String, byte[]> stored = new LinkedHashMap<>();
+    private final List<Integer> batchSizes = new ArrayList<>();
+
+    /**
+     * @param maxBatch - most puts stored in one batch
+     * @param latencyMillis - how long each batch takes, or 0
+     */
+    public InMemoryStorageSink(int maxBatch, long latencyMillis) {
+        super("InMemoryStorageSink", maxBatch);
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    protected void store(List<Put> batch) throws InterruptedException {
+        if(latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        synchronized(this) {
+            for(Put put : batch) {
+                stored.put(put.getName(), put.getData());
+                put.stored(SCHEME + put.getName());
+            }
+            batchSizes.add(batch.size());
+        }
+    }
+
+    // The data last stored under the name, or null
+    public synchronized byte[] get(String name) {
+        return stored.get(name);
+    }
+
+    // Names stored so far, in the order they were first stored
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(stored.keySet());
+    }
+
+    // Number of puts in each batch so far
+    public synchronized List<Integer> getBatchSizes() {
+        return new ArrayList<>(batchSizes);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: Incident.java
+ * Description: This class is the bundle of compressed frames recorded around one alert: the frames from the seconds before motion
+ * was found, which the incident buffer froze when the alert fired, followed by the frames from the seconds after it. Together they
+ * show what led up to the alert and what happened next, instead of only the one frame that triggered it. An incident never
+ * changes once it is made, so it can be saved or uploaded from any thread. */
+
+import org.opencv.core.Rect;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+public class Incident {
+    // One compressed frame and when it was taken(in nanoseconds, on the same clock as the trigger)
+    public static class Frame {
+        public final long timestamp;
+        public final byte[] data;
+
+        public Frame(long timestamp, byte[] data) {
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+    }
+
+    private final long triggerTimestamp;
+    private final long triggerTimeMillis;
+    private final List<Rect> regions;
+    private final List<Frame> frames;
+    private final int preEventCount;
+    private final long byteCount;
+
+    /**
+     * @param triggerTimestamp - when the alert fired, on the frames' clock
+     * @param triggerTimeMillis - the same moment on the wall clock, e.g. System.currentTimeMillis()
+     * @param regions - the regions which moved
+     * @param frames - every frame, oldest first; the first preEventCount were taken up to the trigger and the rest after it
+     */
+    Incident(long triggerTimestamp, long triggerTimeMillis, List<Rect> regions, List<Frame> frames, int preEventCount) {
+        this.triggerTimestamp = triggerTimestamp;
+        this.triggerTimeMillis = triggerTimeMillis;
+        this.regions = Collections.unmodifiableList(regions);
+        this.frames = Collections.unmodifiableList(frames);
+        this.preEventCount = preEventCount;
+        long bytes = 0;
+        for(Frame frame : frames) {
+            bytes += frame.data.length;
+        }
+        this.byteCount = bytes;
+    }
+
+    public long getTriggerTimestamp() {
+        return triggerTimestamp;
+    }
+
+    public long getTriggerTimeMillis() {
+        return triggerTimeMillis;
+    }
+
+    public List<Rect> getRegions() {
+        return regions;
+    }
+
+    // Every frame, oldest first
+    public List<Frame> getFrames() {
+        return frames;
+    }
+
+    // Number of frames taken up to the trigger; these come first in getFrames()
+    public int getPreEventCount() {
+        return preEventCount;
+    }
+
+    // Compressed size of all the frames together
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Writes every frame to its own file in the directory, which is created if needed. Files are named after their position and
+     * their time relative to the trigger(e.g. 004_-1200ms.jpg), so they sort in order.
+     */
+    public void writeTo(File dir) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create incident directory " + dir);
+        }
+        for(int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            long offsetMillis = (frame.timestamp - triggerTimestamp) / 1000000L;
+            File file = new File(dir, String.format(Locale.US, "%03d_%+dms.jpg", i, offsetMillis));
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(frame.data);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + frames.size() + "(" + preEventCount + " before), bytes=" + byteCount + ", regions=" + regions.size();
+    }
+}
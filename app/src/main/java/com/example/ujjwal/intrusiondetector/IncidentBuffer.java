@@ -0,0 +1,154 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: IncidentBuffer.java
+ * Description: This class is the ring of recent compressed frames that incidents are cut from. It keeps the frames of the last few
+ * seconds, but never more bytes than its budget, throwing the oldest away first. When an alert fires the ring is frozen: the frames
+ * up to the trigger become the start of an incident, and the frames that arrive during the next few seconds are added to it until
+ * it is complete. Only one incident is recorded at a time and it has the same byte budget, so memory use stays constant however
+ * long the motion goes on. Times are passed in(in nanoseconds) rather than read from the clock, so the class works the same on a
+ * phone and in a unit test. */
+
+import org.opencv.core.Rect;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IncidentBuffer {
+    private final long preEventNanos;
+    private final long postEventNanos;
+    private final long byteBudget;
+
+    private final ArrayDeque<Incident.Frame> ring = new ArrayDeque<>();
+    private long ringBytes = 0;
+    // The incident being recorded, if any
+    private List<Incident.Frame> openFrames;
+    private List<Rect> openRegions;
+    private int openPreCount;
+    private long openBytes;
+    private long openTrigger;
+    private long openTriggerMillis;
+    private long completed = 0;
+    private long ignored = 0;
+
+    /**
+     * @param preEventNanos - how far back before the trigger an incident starts
+     * @param postEventNanos - how long after the trigger an incident goes on
+     * @param byteBudget - most bytes the ring holds, and most bytes of frames after the trigger one incident holds
+     */
+    public IncidentBuffer(long preEventNanos, long postEventNanos, long byteBudget) {
+        if(preEventNanos < 0 || postEventNanos < 0 || byteBudget <= 0) {
+            throw new IllegalArgumentException("Incident times must not be negative and the budget must be positive");
+        }
+        this.preEventNanos = preEventNanos;
+        this.postEventNanos = postEventNanos;
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Adds the next compressed frame. Frames must arrive in the order they were taken.
+     * @return the incident this frame completed, or null
+     */
+    public synchronized Incident add(long timestamp, byte[] data) {
+        Incident.Frame frame = new Incident.Frame(timestamp, data);
+        ring.addLast(frame);
+        ringBytes += data.length;
+        // A single frame bigger than the budget is still kept, as the ring is never emptied completely
+        while(ring.size() > 1 && (ringBytes > byteBudget || timestamp - ring.peekFirst().timestamp > preEventNanos)) {
+            ringBytes -= ring.removeFirst().data.length;
+        }
+        if(openFrames == null) {
+            return null;
+        }
+        // Frames are compressed in the background, so ones taken just before the trigger can arrive after it
+        if(timestamp <= openTrigger) {
+            openFrames.add(frame);
+            openPreCount++;
+            return null;
+        }
+        if(openBytes + data.length <= byteBudget) {
+            openFrames.add(frame);
+            openBytes += data.length;
+        }
+        if(timestamp - openTrigger >= postEventNanos || openBytes + data.length > byteBudget) {
+            return close();
+        }
+        return null;
+    }
+
+    /**
+     * Freezes the ring into the start of a new incident, made of the frames taken up to the trigger. Triggers while an incident is
+     * still being recorded are ignored, as that incident already covers them.
+     * @param timestamp - when the alert fired, on the same clock as the frames
+     * @param timeMillis - the same moment on the wall clock
+     * @return false if the trigger was ignored
+     */
+    public synchronized boolean trigger(long timestamp, long timeMillis, List<Rect> regions) {
+        if(openFrames != null) {
+            ignored++;
+            return false;
+        }
+        openFrames = new ArrayList<>(ring.size() * 2);
+        for(Incident.Frame frame : ring) {
+            if(frame.timestamp <= timestamp && timestamp - frame.timestamp <= preEventNanos) {
+                openFrames.add(frame);
+            }
+        }
+        openPreCount = openFrames.size();
+        openRegions = new ArrayList<>(regions);
+        openBytes = 0;
+        openTrigger = timestamp;
+        openTriggerMillis = timeMillis;
+        // Nothing is recorded after the trigger, so the incident is already complete and waits for the next frame to hand it out
+        if(postEventNanos == 0) {
+            openBytes = byteBudget;
+        }
+        return true;
+    }
+
+    private Incident close() {
+        Incident incident = new Incident(openTrigger, openTriggerMillis, openRegions, openFrames, openPreCount);
+        openFrames = null;
+        openRegions = null;
+        completed++;
+        return incident;
+    }
+
+    // Throws away the ring and any incident being recorded, e.g. when the camera stops
+    public synchronized void clear() {
+        ring.clear();
+        ringBytes = 0;
+        openFrames = null;
+        openRegions = null;
+    }
+
+    public synchronized boolean isRecording() {
+        return openFrames != null;
+    }
+
+    // Bytes held by the ring, never more than the budget(unless one frame is bigger than it)
+    public synchronized long getRingBytes() {
+        return ringBytes;
+    }
+
+    public synchronized int getRingSize() {
+        return ring.size();
+    }
+
+    public synchronized long getCompletedCount() {
+        return completed;
+    }
+
+    // Triggers ignored because an incident was already being recorded
+    public synchronized long getIgnoredCount() {
+        return ignored;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ring=" + ring.size() + " frames/" + ringBytes + " bytes, incidents=" + completed + ", ignored=" + ignored
+                + (openFrames != null ? ", recording" : "");
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: IncidentRecorder.java
+ * Description: This class records the camera into an incident buffer, so an alert can be shown with the seconds before and after
+ * it. A few frames a second are scaled down on the camera thread and compressed to gray JPEGs on a recording thread of their own,
+ * which keeps the work off both the camera thread and the analysis thread; if compression falls behind, the oldest waiting frame
+ * is skipped. Finished incidents are handed to the listener on the recording thread. */
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+
+public class IncidentRecorder {
+    // Gets the finished incidents
+    public interface Listener {
+        // Called on the recording thread once the frames after the trigger have been recorded
+        void onIncident(Incident incident);
+    }
+
+    // Width the recorded frames are scaled to
+    public static final int RECORD_WIDTH = 320;
+    // Time between two recorded frames(5 a second)
+    public static final long DEFAULT_FRAME_INTERVAL_NANOS = 200000000L;
+    public static final int JPEG_QUALITY = 60;
+
+    private final IncidentBuffer buffer;
+    private final long frameIntervalNanos;
+    private final Listener listener;
+    // One compressing worker with a single waiting slot, which always holds the newest frame
+    private final FrameAnalysisEngine encoder = new FrameAnalysisEngine(1, 1, FrameAnalysisEngine.OverflowPolicy.DROP_OLDEST);
+    private final MatPool framePool = new MatPool(3);
+    // Only used by the worker, so one of each is enough
+    private final MatOfByte encoded = new MatOfByte();
+    private final MatOfInt encodeParams = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, JPEG_QUALITY);
+    private long lastFrame;
+    private boolean started = false;
+
+    public IncidentRecorder(IncidentBuffer buffer, long frameIntervalNanos, Listener listener) {
+        this.buffer = buffer;
+        this.frameIntervalNanos = frameIntervalNanos;
+        this.listener = listener;
+    }
+
+    /**
+     * Called on the camera thread with every frame; only one every frame interval is recorded. The frame's luma is only asked for
+     * once the frame is going to be recorded, so frames in between are never copied out of the camera's buffer; it is read in place
+     * and scaled into a frame of the recorder's own, so the camera's buffer can be reused as soon as this returns.
+     */
+    public void record(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        long timestamp = inputFrame.timestamp();
+        if(started && timestamp - lastFrame < frameIntervalNanos) {
+            return;
+        }
+        started = true;
+        lastFrame = timestamp;
+        Mat luma = inputFrame.gray();
+        int height = Math.max(1, luma.rows() * RECORD_WIDTH / luma.cols());
+        Mat frame = framePool.lease(height, RECORD_WIDTH, CvType.CV_8UC1);
+        Imgproc.resize(luma, frame, frame.size(), 0, 0, Imgproc.INTER_AREA);
+        encoder.submit(new EncodeTask(frame, timestamp));
+    }
+
+    /**
+     * Starts an incident at the given frame time; see IncidentBuffer.trigger().
+     * @param regions - the regions which moved, in the coordinates of the recorded frames
+     */
+    public boolean trigger(long timestamp, List<Rect> regions) {
+        return buffer.trigger(timestamp, System.currentTimeMillis(), regions);
+    }
+
+    // Forgets what was recorded, e.g. when the camera stops; the next frame starts the recording again
+    public void reset() {
+        started = false;
+        buffer.clear();
+    }
+
+    public IncidentBuffer getBuffer() {
+        return buffer;
+    }
+
+    // Stops recording without waiting for the frame being compressed, whose worker frees the buffers once it is done; an
+    // incident still being recorded is lost
+    public void release() {
+        encoder.shutdown(new Runnable() {
+            @Override
+            public void run() {
+                encoded.release();
+                encodeParams.release();
+            }
+        });
+        framePool.release();
+    }
+
+    @Override
+    public String toString() {
+        return buffer + ", skipped=" + encoder.getDroppedCount();
+    }
+
+    // Compresses one recorded frame and adds it to the buffer
+    private class EncodeTask extends FrameAnalysisEngine.FrameTask {
+        private final Mat frame;
+        private final long timestamp;
+
+        EncodeTask(Mat frame, long timestamp) {
+            this.frame = frame;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        protected void onDropped() {
+            framePool.recycle(frame);
+        }
+
+        @Override
+        public void run() {
+            boolean ok = Imgcodecs.imencode(".jpg", frame, encoded, encodeParams);
+            framePool.recycle(frame);
+            if(!ok) {
+                return;
+            }
+            Incident incident = buffer.add(timestamp, encoded.toArray());
+            if(incident != null) {
+                listener.onIncident(incident);
+            }
+        }
+    }
+}
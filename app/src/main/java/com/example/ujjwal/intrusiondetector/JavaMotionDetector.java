@@ -0,0 +1,60 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: JavaMotionDetector.java
+ * Description: This class runs the plain Java LumaMotionEngine as a motion detector, so the pure Java pipeline can be picked at
+ * runtime like the OpenCV ones. Only copying the frame's bytes out of its Mat touches OpenCV. */
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class JavaMotionDetector implements MotionDetector {
+    private final LumaMotionEngine engine;
+    private final byte[] frame;
+
+    JavaMotionDetector(Size frameSize, double minArea) {
+        int width = (int) frameSize.width;
+        int height = (int) frameSize.height;
+        // Frames already arrive at the analysis size, so the engine does not scale them again
+        engine = new LumaMotionEngine(width, height, width, height, minArea);
+        frame = new byte[width * height];
+    }
+
+    // The engine reuses its buffers between frames, so frames go through one at a time
+    @Override
+    public synchronized List<Rect> detect(Mat luma) {
+        if(luma.type() != CvType.CV_8UC1 || luma.cols() != engine.getWidth() || luma.rows() != engine.getHeight()) {
+            throw new IllegalArgumentException("Expected a " + engine.getWidth() + "x" + engine.getHeight() + " CV_8UC1 frame: " + luma);
+        }
+        luma.get(0, 0, frame);
+        int count = Math.min(engine.process(frame, 0, engine.getWidth()), LumaMotionEngine.MAX_REGIONS);
+        int[] boxes = engine.getRegions();
+        List<Rect> regions = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            regions.add(new Rect(boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3]));
+        }
+        return regions;
+    }
+
+    @Override
+    public synchronized void reset() {
+        engine.reset();
+    }
+
+    // The engine walks the zones' row spans itself, so excluded pixels are never read
+    @Override
+    public synchronized void setZones(DetectionZones zones) {
+        engine.setZones(zones.compile(engine.getWidth(), engine.getHeight()));
+    }
+
+    @Override
+    public void release() {
+        // Nothing native to free
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: JpegEncoder.java
+ * Description: This class compresses alert frames to JPEG in one step, straight from the camera's NV21 data: the colour is converted
+ * once to the BGR that OpenCV's encoder takes, the frame is scaled down if it is wider than the output width, and it is encoded into
+ * a buffer the encoder keeps for the next frame. No Bitmap is made on the way, and the image is only ever encoded once, at the
+ * chosen quality. It can also encode just a region of the frame, e.g. the part which moved. One encoder is shared by every alert,
+ * so it only encodes one frame at a time. */
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+public class JpegEncoder {
+    public static final int DEFAULT_QUALITY = 85;
+    // 0 keeps the camera's width
+    public static final int DEFAULT_MAX_WIDTH = 0;
+
+    private final int quality;
+    private final int maxWidth;
+    // Reused from one frame to the next
+    private final MatOfByte encoded = new MatOfByte();
+    private final MatOfInt params;
+    private final Mat bgr = new Mat();
+    private final Mat scaled = new Mat();
+
+    /**
+     * @param quality - JPEG quality, from 0 to 100
+     * @param maxWidth - widest image made(narrower frames are not scaled up), or 0 for no limit
+     */
+    public JpegEncoder(int quality, int maxWidth) {
+        if(quality < 0 || quality > 100 || maxWidth < 0) {
+            throw new IllegalArgumentException("Quality must be 0 to 100 and the width not negative: " + quality + ", " + maxWidth);
+        }
+        this.quality = quality;
+        this.maxWidth = maxWidth;
+        params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    // Width of the image made from a frame of the given width
+    public int outputWidth(int width) {
+        return maxWidth > 0 && width > maxWidth ? maxWidth : width;
+    }
+
+    /**
+     * Encodes a frame.
+     * @param yuv420sp - NV21 data of the frame, height * 3 / 2 rows of width bytes
+     * @return the JPEG bytes, which belong to the caller
+     */
+    public synchronized byte[] encodeNv21(Mat yuv420sp) {
+        Imgproc.cvtColor(yuv420sp, bgr, Imgproc.COLOR_YUV2BGR_NV21, 3);
+        return encodeBgr(bgr);
+    }
+
+    /**
+     * Encodes a region of a frame, which is scaled down like a whole frame if it is wider than the output width.
+     * @param yuv420sp - NV21 data of the frame, height * 3 / 2 rows of width bytes
+     * @param region - the part of the frame to encode, which has to lie within it
+     * @return the JPEG bytes, which belong to the caller
+     */
+    public synchronized byte[] encodeNv21(Mat yuv420sp, Rect region) {
+        Imgproc.cvtColor(yuv420sp, bgr, Imgproc.COLOR_YUV2BGR_NV21, 3);
+        Mat crop = bgr.submat(region);
+        try {
+            return encodeBgr(crop);
+        } finally {
+            crop.release();
+        }
+    }
+
+    /**
+     * Encodes an RGBA image, e.g. one that has already been converted for display.
+     * @return the JPEG bytes, which belong to the caller
+     */
+    public synchronized byte[] encodeRgba(Mat rgba) {
+        Imgproc.cvtColor(rgba, bgr, Imgproc.COLOR_RGBA2BGR, 3);
+        return encodeBgr(bgr);
+    }
+
+    private byte[] encodeBgr(Mat image) {
+        Mat output = image;
+        int width = outputWidth(image.cols());
+        if(width != image.cols()) {
+            int height = Math.max(1, (int) Math.round((double) image.rows() * width / image.cols()));
+            Imgproc.resize(image, scaled, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+            output = scaled;
+        }
+        if(!Imgcodecs.imencode(".jpg", output, encoded, params)) {
+            throw new IllegalStateException("JPEG encoding failed for a " + output.cols() + "x" + output.rows() + " image");
+        }
+        return encoded.toArray();
+    }
+
+    // Frees the buffers; the encoder cannot be used afterwards
+    public synchronized void release() {
+        encoded.release();
+        params.release();
+        bgr.release();
+        scaled.release();
+    }
+}
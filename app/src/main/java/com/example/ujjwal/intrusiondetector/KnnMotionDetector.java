@@ -0,0 +1,25 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: KnnMotionDetector.java
+ * Description: This class detects motion with OpenCV's K-nearest neighbours background subtractor, with shadow detection on. It
+ * copes better than MOG2 with scenes that keep changing in small ways(trees, curtains), at a higher cost per frame. */
+
+import org.opencv.video.BackgroundSubtractor;
+import org.opencv.video.Video;
+
+public class KnnMotionDetector extends SubtractorMotionDetector {
+    // Number of frames the model remembers, and how far(squared distance) a pixel must be from its neighbours to be foreground
+    private static final int HISTORY = 500;
+    private static final double DIST2_THRESHOLD = 400;
+
+    KnnMotionDetector(double minArea) {
+        super(minArea);
+    }
+
+    @Override
+    protected BackgroundSubtractor createSubtractor() {
+        return Video.createBackgroundSubtractorKNN(HISTORY, DIST2_THRESHOLD, true);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: LocalStorageSink.java
+ * Description: This class is a storage sink which writes what is put to files under a directory, with the name as the file's path
+ * below it. Each file is written to a temporary file first and then renamed, so a file that is there is always complete. */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class LocalStorageSink extends BatchingStorageSink {
+    private final File root;
+
+    /**
+     * @param root - directory the files are written under, which is made if it is missing
+     * @param maxBatch - most puts stored in one batch
+     */
+    public LocalStorageSink(File root, int maxBatch) {
+        super("LocalStorageSink", maxBatch);
+        this.root = root;
+    }
+
+    // Each file fails on its own, so one bad name does not fail the rest of the batch
+    @Override
+    protected void store(List<Put> batch) {
+        for(Put put : batch) {
+            try {
+                put.stored(write(put).getPath());
+            } catch(IOException e) {
+                put.failed(e);
+            }
+        }
+    }
+
+    private File write(Put put) throws IOException {
+        String name = put.getName();
+        // Names come from metadata, so they must not reach outside the directory
+        if(name.isEmpty() || name.startsWith("/") || name.equals("..") || name.startsWith("../") || name.endsWith("/..")
+                || name.contains("/../")) {
+            throw new IOException("Not a name under " + root + ": " + name);
+        }
+        File file = new File(root, name);
+        DurableFiles.replace(file, put.getData());
+        return file;
+    }
+}
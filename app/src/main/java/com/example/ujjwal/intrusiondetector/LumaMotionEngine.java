@@ -0,0 +1,426 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: LumaMotionEngine.java
+ * Description: This class is a plain Java version of the frame differencing pipeline, which works straight on the luma(Y) plane
+ * of a camera frame held in a byte array. It needs neither OpenCV nor Android, so it can be profiled and tested on any JVM, and it
+ * is the fallback detector when the native library is not available. Every buffer is allocated up front, so processing a frame
+ * allocates nothing. Detection can be limited to zones(a ZoneMask), in which case excluded pixels are never diffed, thresholded or
+ * learnt, and only the part of the frame around the included ones is scaled and blurred. */
+
+import java.util.Arrays;
+
+public class LumaMotionEngine {
+    // Defaults which match the OpenCV pipeline in FrameDiffMotionDetector
+    public static final int DEFAULT_BLUR_SIZE = 21;
+    public static final int DEFAULT_DIFF_THRESHOLD = 5;
+    public static final int DEFAULT_DILATE_ITERATIONS = 2;
+    public static final double DEFAULT_LEARNING_RATE = 0.05;
+    // Most regions reported for one frame; anything past this is still counted but not stored
+    public static final int MAX_REGIONS = 64;
+
+    // Fixed point formats: the background keeps 8 fractional bits, blur weights sum to 1 << 16
+    private static final int BG_SHIFT = 8;
+    private static final int KERNEL_SHIFT = 16;
+
+    private final int srcWidth;
+    private final int srcHeight;
+    private final int width;
+    private final int height;
+    private final int diffThreshold;
+    private final int dilateRadius;
+    private final double minArea;
+    private final int learningRate;
+
+    // Downscale tables: the source columns/rows [start, end) averaged into each output column/row
+    private final int[] colStart;
+    private final int[] colEnd;
+    private final int[] rowStart;
+    private final int[] rowEnd;
+    private final int[] rowSums;
+
+    private final int[] kernel;
+    private final int[] scaled;
+    private final int[] blurTemp;
+    private final int[] blurred;
+    private final int[] background;
+    private final byte[] mask;
+    private final byte[] maskTemp;
+    private final int[] fillQueue;
+    private final int[] regions = new int[MAX_REGIONS * 4];
+    private int regionCount;
+    private boolean initialized = false;
+
+    private ZoneMask zones;
+    // Box around the included pixels, and that box grown by the blur radius(the pixels the blur reads), right and bottom exclusive
+    private int left, top, right, bottom;
+    private int readLeft, readTop, readRight, readBottom;
+
+    /**
+     * Creates an engine with the same settings as the OpenCV frame differencing pipeline.
+     * @param srcWidth - width of the luma frames passed to process()
+     * @param srcHeight - height of the luma frames passed to process()
+     * @param width - width frames are scaled down to before analysis
+     * @param height - height frames are scaled down to before analysis
+     * @param minArea - the smallest region, in pixels at the analysis size, which counts as motion
+     */
+    public LumaMotionEngine(int srcWidth, int srcHeight, int width, int height, double minArea) {
+        this(srcWidth, srcHeight, width, height, DEFAULT_BLUR_SIZE, DEFAULT_DIFF_THRESHOLD, DEFAULT_DILATE_ITERATIONS, minArea,
+                DEFAULT_LEARNING_RATE);
+    }
+
+    public LumaMotionEngine(int srcWidth, int srcHeight, int width, int height, int blurSize, int diffThreshold,
+                            int dilateIterations, double minArea, double learningRate) {
+        if(width < 1 || height < 1 || width > srcWidth || height > srcHeight) {
+            throw new IllegalArgumentException("Analysis size must be between 1x1 and the source size");
+        }
+        if(blurSize < 1 || blurSize % 2 == 0) {
+            throw new IllegalArgumentException("Blur size must be odd: " + blurSize);
+        }
+        if(learningRate < 0 || learningRate > 1) {
+            throw new IllegalArgumentException("Learning rate must be between 0 and 1: " + learningRate);
+        }
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.width = width;
+        this.height = height;
+        this.diffThreshold = diffThreshold;
+        this.dilateRadius = dilateIterations;
+        this.minArea = minArea;
+        this.learningRate = (int) Math.round(learningRate * (1 << BG_SHIFT));
+
+        colStart = new int[width];
+        colEnd = new int[width];
+        rowStart = new int[height];
+        rowEnd = new int[height];
+        buildScaleTable(srcWidth, width, colStart, colEnd);
+        buildScaleTable(srcHeight, height, rowStart, rowEnd);
+        rowSums = new int[width];
+
+        kernel = gaussianKernel(blurSize);
+        int size = width * height;
+        scaled = new int[size];
+        blurTemp = new int[size];
+        blurred = new int[size];
+        background = new int[size];
+        mask = new byte[size];
+        maskTemp = new byte[size];
+        fillQueue = new int[size];
+        setZones(ZoneMask.everywhere(width, height));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Looks for motion in one frame and learns it into the background.
+     * @param luma - the frame's luma plane, one byte per pixel(e.g. the start of an NV21 preview buffer)
+     * @param offset - index of the frame's top left pixel in luma
+     * @param rowStride - distance in bytes between the starts of two rows
+     * @return the number of moving regions found; their boxes are read with getRegions()
+     */
+    public int process(byte[] luma, int offset, int rowStride) {
+        if(rowStride < srcWidth || offset < 0 || offset + (long) (srcHeight - 1) * rowStride + srcWidth > luma.length) {
+            throw new IllegalArgumentException("Luma buffer is too small for a " + srcWidth + "x" + srcHeight + " frame");
+        }
+        regionCount = 0;
+        if(zones.isEmpty()) {
+            return 0;
+        }
+        downscale(luma, offset, rowStride);
+        blur();
+        if(initialized) {
+            threshold();
+            dilate();
+            findRegions();
+        }
+        learn();
+        return regionCount;
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * Bounding boxes of the regions found by the last process() call, stored as x, y, width, height for each region. Only the
+     * first min(getRegionCount(), MAX_REGIONS) boxes are valid; the array is reused by the next call.
+     */
+    public int[] getRegions() {
+        return regions;
+    }
+
+    // The thresholded, dilated foreground mask of the last frame(1 = moved), width * height bytes
+    public byte[] getMask() {
+        return mask;
+    }
+
+    /**
+     * Limits detection to the included pixels of a mask; motion elsewhere is never reported. The background is forgotten.
+     * @param zones - compiled for the analysis size(getWidth() x getHeight())
+     */
+    public void setZones(ZoneMask zones) {
+        if(zones.getWidth() != width || zones.getHeight() != height) {
+            throw new IllegalArgumentException("Zones must be compiled for " + width + "x" + height);
+        }
+        this.zones = zones;
+        int radius = kernel.length / 2;
+        left = zones.getLeft();
+        top = zones.getTop();
+        right = zones.getRight();
+        bottom = zones.getBottom();
+        readLeft = Math.max(0, left - radius);
+        readTop = Math.max(0, top - radius);
+        readRight = Math.min(width, right + radius);
+        readBottom = Math.min(height, bottom + radius);
+        // Excluded pixels are never written from here on, so they must start out clear
+        Arrays.fill(mask, (byte) 0);
+        Arrays.fill(maskTemp, (byte) 0);
+        reset();
+    }
+
+    public ZoneMask getZones() {
+        return zones;
+    }
+
+    // Forgets the background, so the next frame becomes the reference point
+    public void reset() {
+        initialized = false;
+        regionCount = 0;
+    }
+
+    // Splits length source pixels into count runs as evenly as possible, for area averaging
+    private static void buildScaleTable(int length, int count, int[] start, int[] end) {
+        for(int i = 0; i < count; i++) {
+            start[i] = (int) ((long) i * length / count);
+            end[i] = (int) ((long) (i + 1) * length / count);
+        }
+    }
+
+    // Integer Gaussian weights, with sigma picked the way OpenCV does when it is passed as 0
+    private static int[] gaussianKernel(int size) {
+        double sigma = 0.3 * ((size - 1) * 0.5 - 1) + 0.8;
+        double[] weights = new double[size];
+        double sum = 0;
+        int radius = size / 2;
+        for(int i = 0; i < size; i++) {
+            double x = i - radius;
+            weights[i] = Math.exp(-(x * x) / (2 * sigma * sigma));
+            sum += weights[i];
+        }
+        int[] kernel = new int[size];
+        int total = 0;
+        for(int i = 0; i < size; i++) {
+            kernel[i] = (int) Math.round(weights[i] / sum * (1 << KERNEL_SHIFT));
+            total += kernel[i];
+        }
+        // Put any rounding error on the centre tap so the weights sum to exactly one
+        kernel[radius] += (1 << KERNEL_SHIFT) - total;
+        return kernel;
+    }
+
+    // Mirrors an out of range index back inside [0, length) without repeating the edge pixel(OpenCV's default border)
+    private static int reflect(int i, int length) {
+        if(length == 1) {
+            return 0;
+        }
+        while(i < 0 || i >= length) {
+            i = i < 0 ? -i : 2 * length - 2 - i;
+        }
+        return i;
+    }
+
+    // Averages each block of source pixels into one analysis pixel, for the part of the frame the blur reads
+    private void downscale(byte[] luma, int offset, int rowStride) {
+        for(int y = readTop; y < readBottom; y++) {
+            for(int x = readLeft; x < readRight; x++) {
+                rowSums[x] = 0;
+            }
+            for(int sy = rowStart[y]; sy < rowEnd[y]; sy++) {
+                int row = offset + sy * rowStride;
+                for(int x = readLeft; x < readRight; x++) {
+                    int sum = 0;
+                    for(int sx = colStart[x]; sx < colEnd[x]; sx++) {
+                        sum += luma[row + sx] & 0xFF;
+                    }
+                    rowSums[x] += sum;
+                }
+            }
+            int rows = rowEnd[y] - rowStart[y];
+            int out = y * width;
+            for(int x = readLeft; x < readRight; x++) {
+                int count = rows * (colEnd[x] - colStart[x]);
+                scaled[out + x] = (rowSums[x] + count / 2) / count;
+            }
+        }
+    }
+
+    // Separable Gaussian blur: rows into blurTemp, then columns into blurred, rounding back to 0-255 after each pass. Only the box
+    // around the included pixels is blurred; the rows above and below it are blurred across too, as the column pass reads them
+    private void blur() {
+        int radius = kernel.length / 2;
+        int half = 1 << (KERNEL_SHIFT - 1);
+        for(int y = readTop; y < readBottom; y++) {
+            int row = y * width;
+            for(int x = left; x < right; x++) {
+                int sum = half;
+                for(int k = -radius; k <= radius; k++) {
+                    int sx = x + k;
+                    if(sx < 0 || sx >= width) {
+                        sx = reflect(sx, width);
+                    }
+                    sum += scaled[row + sx] * kernel[k + radius];
+                }
+                blurTemp[row + x] = sum >> KERNEL_SHIFT;
+            }
+        }
+        for(int y = top; y < bottom; y++) {
+            for(int x = left; x < right; x++) {
+                int sum = half;
+                for(int k = -radius; k <= radius; k++) {
+                    int sy = y + k;
+                    if(sy < 0 || sy >= height) {
+                        sy = reflect(sy, height);
+                    }
+                    sum += blurTemp[sy * width + x] * kernel[k + radius];
+                }
+                blurred[y * width + x] = sum >> KERNEL_SHIFT;
+            }
+        }
+    }
+
+    // Marks every included pixel which differs from the background by more than the threshold
+    private void threshold() {
+        int round = 1 << (BG_SHIFT - 1);
+        int[] rowIndex = zones.getRowIndex();
+        int[] spans = zones.getSpans();
+        for(int y = top; y < bottom; y++) {
+            int row = y * width;
+            for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+                for(int i = row + spans[s]; i < row + spans[s + 1]; i++) {
+                    int diff = blurred[i] - ((background[i] + round) >> BG_SHIFT);
+                    mask[i] = (byte) ((diff > diffThreshold || -diff > diffThreshold) ? 1 : 0);
+                }
+            }
+        }
+    }
+
+    // Grows the mask by dilateRadius pixels in every direction(the same as that many 3x3 dilations), rows then columns. Only
+    // included pixels are written, so blobs stop at the edge of their zone and excluded pixels stay clear
+    private void dilate() {
+        if(dilateRadius <= 0) {
+            return;
+        }
+        int[] rowIndex = zones.getRowIndex();
+        int[] spans = zones.getSpans();
+        for(int y = top; y < bottom; y++) {
+            int row = y * width;
+            for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+                for(int x = spans[s]; x < spans[s + 1]; x++) {
+                    byte value = 0;
+                    int from = Math.max(0, x - dilateRadius);
+                    int to = Math.min(width - 1, x + dilateRadius);
+                    for(int sx = from; sx <= to && value == 0; sx++) {
+                        value = mask[row + sx];
+                    }
+                    maskTemp[row + x] = value;
+                }
+            }
+        }
+        for(int y = top; y < bottom; y++) {
+            int from = Math.max(0, y - dilateRadius);
+            int to = Math.min(height - 1, y + dilateRadius);
+            for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+                for(int x = spans[s]; x < spans[s + 1]; x++) {
+                    byte value = 0;
+                    for(int sy = from; sy <= to && value == 0; sy++) {
+                        value = maskTemp[sy * width + x];
+                    }
+                    mask[y * width + x] = value;
+                }
+            }
+        }
+    }
+
+    // Labels 8-connected blobs in the mask with a flood fill, and keeps the boxes of the ones bigger than minArea
+    private void findRegions() {
+        int[] rowIndex = zones.getRowIndex();
+        int[] spans = zones.getSpans();
+        // Visited pixels are marked with 2 so each blob is only filled once; blobs never leave the included pixels
+        for(int y = top; y < bottom; y++) {
+            for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+                for(int start = y * width + spans[s]; start < y * width + spans[s + 1]; start++) {
+                    if(mask[start] == 1) {
+                        fill(start);
+                    }
+                }
+            }
+        }
+        for(int y = top; y < bottom; y++) {
+            for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+                for(int i = y * width + spans[s]; i < y * width + spans[s + 1]; i++) {
+                    mask[i] = (byte) (mask[i] != 0 ? 1 : 0);
+                }
+            }
+        }
+    }
+
+    // Flood fills the blob containing start, and keeps its box if it is bigger than minArea
+    private void fill(int start) {
+        int head = 0;
+        int tail = 0;
+        fillQueue[tail++] = start;
+        mask[start] = 2;
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        while(head < tail) {
+            int p = fillQueue[head++];
+            int px = p % width;
+            int py = p / width;
+            if(px < minX) minX = px;
+            if(px > maxX) maxX = px;
+            if(py < minY) minY = py;
+            if(py > maxY) maxY = py;
+            for(int ny = Math.max(0, py - 1); ny <= Math.min(height - 1, py + 1); ny++) {
+                for(int nx = Math.max(0, px - 1); nx <= Math.min(width - 1, px + 1); nx++) {
+                    int n = ny * width + nx;
+                    if(mask[n] == 1) {
+                        mask[n] = 2;
+                        fillQueue[tail++] = n;
+                    }
+                }
+            }
+        }
+        // tail is the number of pixels in the blob
+        if(tail > minArea) {
+            if(regionCount < MAX_REGIONS) {
+                int r = regionCount * 4;
+                regions[r] = minX;
+                regions[r + 1] = minY;
+                regions[r + 2] = maxX - minX + 1;
+                regions[r + 3] = maxY - minY + 1;
+            }
+            regionCount++;
+        }
+    }
+
+    // Blends the blurred frame into the background; the first frame after a reset becomes the background as it is
+    private void learn() {
+        int[] rowIndex = zones.getRowIndex();
+        int[] spans = zones.getSpans();
+        for(int y = top; y < bottom; y++) {
+            for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+                for(int i = y * width + spans[s]; i < y * width + spans[s + 1]; i++) {
+                    int target = blurred[i] << BG_SHIFT;
+                    background[i] = initialized ? background[i] + (((target - background[i]) * learningRate) >> BG_SHIFT) : target;
+                }
+            }
+        }
+        initialized = true;
+    }
+}
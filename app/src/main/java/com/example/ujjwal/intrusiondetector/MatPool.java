@@ -0,0 +1,124 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: MatPool.java
+ * Description: This class keeps native image buffers for reuse. A pipeline leases a Mat of the shape it needs for one frame and
+ * recycles it when done, so once every shape has been seen, frames stop allocating native memory and nothing is left for the
+ * finalizers to free. A pool belongs to one pipeline; it only keeps a few buffers of each shape, and frees the rest. */
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MatPool {
+    // Buffers of one shape which are free to be leased
+    private static class Shape {
+        final int rows;
+        final int cols;
+        final int type;
+        final ArrayDeque<Mat> free = new ArrayDeque<>();
+
+        Shape(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+        }
+    }
+
+    public static final int DEFAULT_MAX_FREE = 4;
+
+    // A pipeline uses a handful of shapes, so a list is searched instead of a map, which would box a key for every lease
+    private final List<Shape> shapes = new ArrayList<>();
+    private final int maxFree;
+    private int created = 0;
+    private int leased = 0;
+    private boolean released = false;
+
+    public MatPool() {
+        this(DEFAULT_MAX_FREE);
+    }
+
+    // @param maxFree - most buffers of one shape kept for reuse; more than that are freed as they come back
+    public MatPool(int maxFree) {
+        this.maxFree = maxFree;
+    }
+
+    /**
+     * Hands out a buffer; its contents are whatever the last user left in it.
+     * @return a continuous Mat of the shape, owned by the caller until it is passed to recycle()
+     */
+    public synchronized Mat lease(int rows, int cols, int type) {
+        if(released) {
+            throw new IllegalStateException("Pool has been released");
+        }
+        leased++;
+        Shape shape = find(rows, cols, type);
+        if(shape != null && !shape.free.isEmpty()) {
+            return shape.free.pop();
+        }
+        created++;
+        return new Mat(rows, cols, type);
+    }
+
+    /**
+     * Takes back a buffer from lease(), which the caller must not use afterwards. Buffers OpenCV has resized since they were leased
+     * are filed under their new shape.
+     */
+    public synchronized void recycle(Mat mat) {
+        leased--;
+        if(released || mat.empty() || !mat.isContinuous() || mat.isSubmatrix()) {
+            mat.release();
+            return;
+        }
+        Shape shape = find(mat.rows(), mat.cols(), mat.type());
+        if(shape == null) {
+            shape = new Shape(mat.rows(), mat.cols(), mat.type());
+            shapes.add(shape);
+        }
+        if(shape.free.size() < maxFree) {
+            shape.free.push(mat);
+        } else {
+            mat.release();
+        }
+    }
+
+    private Shape find(int rows, int cols, int type) {
+        for(int i = 0; i < shapes.size(); i++) {
+            Shape shape = shapes.get(i);
+            if(shape.rows == rows && shape.cols == cols && shape.type == type) {
+                return shape;
+            }
+        }
+        return null;
+    }
+
+    // Number of buffers allocated so far; flat once the pipeline has warmed up
+    public synchronized int getCreatedCount() {
+        return created;
+    }
+
+    // Number of buffers leased and not yet recycled
+    public synchronized int getLeasedCount() {
+        return leased;
+    }
+
+    // Frees every free buffer; buffers still leased are freed when they are recycled
+    public synchronized void release() {
+        released = true;
+        for(Shape shape : shapes) {
+            for(Mat mat : shape.free) {
+                mat.release();
+            }
+            shape.free.clear();
+        }
+        shapes.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "created=" + created + ", leased=" + leased;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: Mog2MotionDetector.java
+ * Description: This class detects motion with OpenCV's Gaussian mixture background subtractor(MOG2), with shadow detection on so
+ * that shadows moving across the floor are not reported as intruders. */
+
+import org.opencv.video.BackgroundSubtractor;
+import org.opencv.video.Video;
+
+public class Mog2MotionDetector extends SubtractorMotionDetector {
+    // Number of frames the model remembers, and how far(squared Mahalanobis distance) a pixel must be from it to be foreground
+    private static final int HISTORY = 500;
+    private static final double VAR_THRESHOLD = 16;
+
+    Mog2MotionDetector(double minArea) {
+        super(minArea);
+    }
+
+    @Override
+    protected BackgroundSubtractor createSubtractor() {
+        return Video.createBackgroundSubtractorMOG2(HISTORY, VAR_THRESHOLD, true);
+    }
+}
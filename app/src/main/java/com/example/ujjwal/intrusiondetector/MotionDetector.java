@@ -0,0 +1,93 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: MotionDetector.java
+ * Description: This interface is what the analysis engine calls to look for motion in a frame. Each backend takes a single channel
+ * luma frame at the analysis resolution and returns the regions which moved, so the camera code does not care which algorithm
+ * is running, and each deployment can pick the cheapest detector that meets its false-positive budget. */
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.util.List;
+
+public interface MotionDetector {
+
+    // The detectors which can be chosen at runtime
+    enum Backend {
+        // Blur and absdiff against a running average of the scene(the original pipeline, and the cheapest)
+        FRAME_DIFF {
+            @Override
+            public MotionDetector create(Size frameSize, double minArea) {
+                return new FrameDiffMotionDetector(frameSize, minArea);
+            }
+        },
+        // Frame differencing on a 1/4 scale frame first, and at full resolution only around what changed there
+        PYRAMID {
+            @Override
+            public MotionDetector create(Size frameSize, double minArea) {
+                return new PyramidMotionDetector(frameSize, minArea);
+            }
+        },
+        // Gaussian mixture background subtraction, which ignores shadows
+        MOG2 {
+            @Override
+            public MotionDetector create(Size frameSize, double minArea) {
+                return new Mog2MotionDetector(minArea);
+            }
+        },
+        // K-nearest neighbours background subtraction, which ignores shadows
+        KNN {
+            @Override
+            public MotionDetector create(Size frameSize, double minArea) {
+                return new KnnMotionDetector(minArea);
+            }
+        },
+        // The frame differencing pipeline in plain Java, which does not depend on the native library's image processing
+        JAVA {
+            @Override
+            public MotionDetector create(Size frameSize, double minArea) {
+                return new JavaMotionDetector(frameSize, minArea);
+            }
+        };
+
+        /**
+         * Creates a detector of this type.
+         * @param frameSize - the size of the frames that will be passed to detect()
+         * @param minArea - the smallest area in pixels which counts as motion
+         */
+        public abstract MotionDetector create(Size frameSize, double minArea);
+
+        // Looks a backend up by name, falling back to the default if the name is unknown(e.g. from an older version's settings)
+        public static Backend fromName(String name) {
+            for(Backend backend : values()) {
+                if(backend.name().equals(name)) {
+                    return backend;
+                }
+            }
+            return FRAME_DIFF;
+        }
+    }
+
+    /**
+     * Looks for motion in one frame, and learns the frame into the detector's idea of the background.
+     * @param luma - a CV_8UC1 frame at the size the detector was created for; it is not modified
+     * @return the bounding boxes of the moving regions which are bigger than the minimum area, empty if nothing moved
+     */
+    List<Rect> detect(Mat luma);
+
+    // Forgets the background, so the next frame is treated as the first one
+    void reset();
+
+    /**
+     * Limits detection to zones of the frame: motion outside them is never reported, and the excluded pixels are skipped rather
+     * than diffed and thrown away, so a camera which excludes a big window gets cheaper as well as quieter. The background is
+     * forgotten. Like reset(), it must not be called while a frame is being analysed.
+     */
+    void setZones(DetectionZones zones);
+
+    // Frees the native buffers the detector holds; it must not be used afterwards
+    void release();
+}
@@ -4,87 +4,93 @@ package com.example.ujjwal.intrusiondetector;
  * Name: Ujjwal Krishnamurthi
  * Program File: NotificationThread.java
  * Description: This class is a subclass of the Thread class, and is called to run by the Camera Activity class once the camera has
- * detected motion. Specifically, this runs in the background and posts to Firebase Database and Storage with the image and the
- * necessary descriptors for the backend to use. */
+ * detected motion(or by the Surveillance Service, when running without a preview). Specifically, this runs in the background, saves
+ * the image to the phone and queues it for FirebaseUploader, which posts it to Firebase Storage and Database with the necessary
+ * descriptors for the backend to use. */
 
-import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
-import android.graphics.Bitmap;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
-import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.facebook.AccessToken;
-
 import com.firebase.ui.auth.AuthUI;
 
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.drive.Drive;
-import com.google.android.gms.drive.DriveContents;
-import com.google.android.gms.drive.DriveFile;
-import com.google.android.gms.drive.DriveFolder;
-import com.google.android.gms.drive.DriveResourceClient;
-import com.google.android.gms.drive.MetadataChangeSet;
-import com.google.android.gms.tasks.Continuation;
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
-import com.google.firebase.storage.FirebaseStorage;
-import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 
-import org.opencv.android.Utils;
-import org.opencv.core.Mat;
+import org.opencv.android.CapturedFrame;
+import org.opencv.core.Rect;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class NotificationThread extends Thread {
     private Context context;
-    private Activity activity;
+    // Toasts are shown on the main thread, which works the same whether an activity or a service started this thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final String TAG = "NotificationThread";
     private String choice;
-    private Mat img;
+    // The alert frame, which is compressed straight from its NV21 data, and which this thread releases when done with it
+    private CapturedFrame frame;
+    // The regions which moved, in the frame's coordinates, which are recorded with the image
+    private List<Rect> regions;
+    // How long after the frame the regions were found in this frame was taken
+    private final long lagNanos;
     private GoogleSignInAccount account;
-    private final String STORAGE_BUCKET = "gs://intrusiondetector-bbba9.appspot.com";
-    private boolean createdFolder = false;
-    private Task<DriveFolder> folder;
     private final String UUID = FirebaseAuth.getInstance().getCurrentUser().getUid();
     private boolean useDefault;
-    private List<String> imgList = new ArrayList<>();
-    private String downloadURL;
+    // Shared by every alert, so the encoder's buffers are reused and gallery copies are written one at a time; made again when the
+    // JPEG settings change
+    private static JpegEncoder encoder;
+    // Thumbnails are small enough to upload in a few seconds on a slow connection
+    private static final int THUMBNAIL_WIDTH = 320;
+    private static final int THUMBNAIL_QUALITY = 70;
+    private static JpegEncoder thumbnailEncoder;
+    // In the region mode, the scene only has to show where the crop was taken, so it is made smaller still
+    private static final int SCENE_WIDTH = 160;
+    private static final int SCENE_QUALITY = 50;
+    private static JpegEncoder sceneEncoder;
+    // Crops keep the camera's resolution, and reach this far(as a fraction of the moving box, or at least the pixels) around it
+    private static final double CROP_MARGIN = 0.15;
+    private static final int CROP_MIN_MARGIN = 16;
+    // The regions were found in an earlier frame, so crops also reach as far as an intruder can have moved since: someone is
+    // assumed to take at least this many seconds to cross the view. Anyone faster can still be partly cut off.
+    private static final double CROSSING_SECONDS = 2;
+    private static JpegEncoder cropEncoder;
+    private static final ExecutorService galleryWriter = Executors.newSingleThreadExecutor();
 
-    NotificationThread(Activity activity, Context context, String choice, Mat img, boolean useDefault) {
-        this.activity = activity;
+    NotificationThread(Context context, String choice, CapturedFrame frame, List<Rect> regions, long lagNanos, boolean useDefault) {
         this.context = context;
         this.choice = choice;
-        this.img = img;
+        this.frame = frame;
+        this.regions = regions;
+        this.lagNanos = lagNanos;
         this.account = null;
         this.useDefault = useDefault;
     }
 
-    NotificationThread(Activity activity, Context context, String choice, Mat img, @Nullable GoogleSignInAccount acct, boolean useDefault) {
-        this.activity = activity;
+    NotificationThread(Context context, String choice, CapturedFrame frame, List<Rect> regions, long lagNanos,
+                       @Nullable GoogleSignInAccount acct, boolean useDefault) {
         this.context = context;
         this.choice = choice;
-        this.img = img;
+        this.frame = frame;
+        this.regions = regions;
+        this.lagNanos = lagNanos;
         this.account = acct;
         this.useDefault = useDefault;
     }
@@ -92,6 +98,15 @@ public class NotificationThread extends Thread {
     // Must be less than 2 seconds(Good practice in general), max should be two mins, but probs won't get that far.
     @Override
     public void run() {
+        try {
+            notifyUser();
+        } finally {
+            // The image has been compressed by now(uploads only hold the bytes), so the frame can be freed
+            frame.release();
+        }
+    }
+
+    private void notifyUser() {
         HashMap<String, Object> data;
         if(!useDefault) {
             switch(choice) {
@@ -144,177 +159,185 @@ public class NotificationThread extends Thread {
     private HashMap<String, Object> AuthFacebook() {
         Log.d(TAG, "Facebook");
         HashMap<String, Object> data = serializeBitmap();
-        Bitmap bitmap = Bitmap.createBitmap(img.width(), img.height(), Bitmap.Config.ARGB_8888);
-        Utils.matToBitmap(img, bitmap);
-        AccessToken token = AccessToken.getCurrentAccessToken();
         //Toast.makeText(context, "When motion is detected, user will be notified on their timeline", Toast.LENGTH_LONG).show();
         return data;
     }
     private HashMap<String, Object> AuthGoogle() {
         Log.d(TAG, "Google");
         HashMap<String, Object> data = serializeBitmap();
-        final byte[] serializedBitmap = (byte[]) data.get("Bitmap");
-        final String date = (String) data.get("Date");
-        //createFolderIfNecessaryAndAdd(serializedBitmap, date);
+        // A copy goes to the user's Drive as well, through the account's shared sink, which does not wait for it
+        if(account != null) {
+            HashMap<String, String> metadata = new HashMap<>();
+            metadata.put(StorageSink.NAME_KEY, data.get("Date") + ".jpg");
+            metadata.put(StorageSink.CONTENT_TYPE_KEY, "image/jpeg");
+            DriveStorageSink.forAccount(context, account).put((byte[]) data.get("Bitmap"), metadata);
+        }
         //Toast.makeText(context, "When motion is detected, user will be notified via Google Drive and Email", Toast.LENGTH_LONG).show();
         return data;
     }
     private HashMap<String, Object> AuthDefault() {
         // Post to firebase and save to phone as backup copy
-        Toast.makeText(context, "When motion is detected, data will be saved to phone and firebase", Toast.LENGTH_LONG).show();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, "When motion is detected, data will be saved to phone and firebase", Toast.LENGTH_LONG).show();
+            }
+        });
         return serializeBitmap();
     }
 
+    // Queues the image for upload; the queue keeps it on disk until it is in Firebase, so it is not lost while offline
     private void defaultSaves(HashMap<String, Object> data) {
         Log.d(TAG, "Starting defaultSaves");
         byte[] serializedBitmap = (byte[]) data.get("Bitmap");
+        byte[] thumbnail = (byte[]) data.get("Thumbnail");
         final String date = (String) data.get("Date");
-
-        FirebaseStorage storage = FirebaseStorage.getInstance();
-        StorageReference ref = storage.getReferenceFromUrl(STORAGE_BUCKET);
-        String uri_path = "intrusions/" + UUID + "/" + date;
-        final StorageReference imgRef = ref.child(uri_path);
-
-        final UploadTask task = imgRef.putBytes(serializedBitmap);
-        task.addOnFailureListener(new OnFailureListener() {
-            @Override
-            public void onFailure(@NonNull Exception e) {
-                final Exception exception = e;
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Toast.makeText(context, "Image Failed to Upload to Firebase", Toast.LENGTH_LONG).show();
-                        Log.d(TAG, "Failed to upload to firebase: " + exception.getMessage());
-                    }
-                });
-            }
-        }).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-            @Override
-            public void onSuccess(final UploadTask.TaskSnapshot taskSnapshot) {
-                downloadURL = taskSnapshot.getMetadata().getDownloadUrl().toString();
-                imgList.add(downloadURL);
-                updateDatabase(downloadURL, date);
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Toast.makeText(context, "Image Uploaded Successfully to Firebase", Toast.LENGTH_LONG).show();
-                        Log.d(TAG, "Image Successfully uploaded at url: " + taskSnapshot.getDownloadUrl().toString());
-                    }
-                });
+        long time = (Long) data.get("Time");
+        Rect crop = (Rect) data.get("Crop");
+        try {
+            if(crop != null) {
+                FirebaseUploader.enqueueRegion(context, UUID, date, time, regions, frame.width(), frame.height(), crop, thumbnail,
+                        serializedBitmap);
+            } else {
+                FirebaseUploader.enqueueImage(context, UUID, date, time, regions, thumbnail, serializedBitmap);
             }
-        }).addOnCompleteListener(new OnCompleteListener<UploadTask.TaskSnapshot>() {
-            @Override
-            public void onComplete(@NonNull Task<UploadTask.TaskSnapshot> task) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Toast.makeText(context, "Image Uploading to Firebase", Toast.LENGTH_LONG).show();
-                        Log.d(TAG, "In process of uploading");
-                    }
-                });
-            }
-        });
-    }
-
-    private void updateDatabase(final String URL, final String date) {
-        Log.d(TAG, "Updating Database");
-        FirebaseDatabase database = FirebaseDatabase.getInstance();
-        final DatabaseReference mainRef = database.getReference();
-        final DatabaseReference curr_user = mainRef.child("users").child(UUID);
-        //curr_user.setValue("User: " + UUID);
-        curr_user.child("images").addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                Log.d(TAG, "Value Change");
-                String imgList = (String) dataSnapshot.getValue();
-                List<String> imgs = new ArrayList<>();
-                if(imgList != null) {
-                    for (String img : imgList.split(",")) {
-                        imgs.add(img.replace("[", "").replace("]", ""));
-                    }
-                }
-                imgs.add(URL);
-                curr_user.child("images").setValue(imgs.toString());
-                curr_user.child("notify").setValue(true);
-                curr_user.child("recentImg").setValue(URL);
-                curr_user.child("lastImgUpload").setValue(date);
-                if(FirebaseAuth.getInstance().getCurrentUser().getDisplayName() != null) {
-                    curr_user.child("name").setValue(FirebaseAuth.getInstance().getCurrentUser().getDisplayName());
-                } else {
-                    curr_user.child("name").setValue("");
-                }
-                if(FirebaseAuth.getInstance().getCurrentUser().getEmail() != null) {
-                    curr_user.child("email").setValue(FirebaseAuth.getInstance().getCurrentUser().getEmail());
-                } else {
-                    curr_user.child("email").setValue("");
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(context, "Image Uploading to Firebase", Toast.LENGTH_LONG).show();
+                    Log.d(TAG, "Queued for upload");
                 }
-                if(FirebaseAuth.getInstance().getCurrentUser().getPhoneNumber() != null) {
-                    curr_user.child("phonenumber").setValue(FirebaseAuth.getInstance().getCurrentUser().getPhoneNumber());
-                } else {
-                    curr_user.child("phonenumber").setValue("");
+            });
+        } catch (final IOException e) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(context, "Image Failed to Upload to Firebase", Toast.LENGTH_LONG).show();
+                    Log.d(TAG, "Failed to queue upload: " + e.getMessage());
                 }
-            }
-
-            @Override
-            public void onCancelled(DatabaseError databaseError) {
-
-            }
-        });
+            });
+        }
     }
 
+    /**
+     * Compresses the frame once, straight from its NV21 data, with the app's JPEG settings; the regions are scaled to match if the
+     * image is made smaller than the frame. The copy in the phone's gallery is written from the same bytes, in the background.
+     * A small thumbnail is made as well, which is uploaded first so the user is notified quickly. In the region mode, only the box
+     * around the regions which moved is compressed(at the camera's resolution, with a margin which also covers how far they can
+     * have moved since the frame they were found in), and the thumbnail is a smaller image of the whole scene; the regions then
+     * stay in the frame's coordinates.
+     */
     private HashMap<String, Object> serializeBitmap() {
         String pattern = "dd-MM-yy-HH-mm-SS";
-        String date = new SimpleDateFormat(pattern, Locale.US).format(new Date()); //Change so works internationally
-        Bitmap bitmap = Bitmap.createBitmap(img.width(), img.height(), Bitmap.Config.ARGB_8888);
-        Utils.matToBitmap(img, bitmap);
-        MediaStore.Images.Media.insertImage(context.getContentResolver(), bitmap, date + ".jpg", "Movement detected on " + date);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 100, baos);
-        byte[] serializedBitmap = baos.toByteArray();
-        activity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Toast.makeText(context, "Image Saved to Phone", Toast.LENGTH_LONG).show();
-            }
-        });
-        Log.d(TAG, "Saved img to phone with filename: " + date + ".jpg");
+        long time = System.currentTimeMillis();
+        String date = new SimpleDateFormat(pattern, Locale.US).format(new Date(time)); //Change so works internationally
         HashMap<String, Object> data = new HashMap<>();
-        data.put("Bitmap", serializedBitmap);
         data.put("Date", date);
+        data.put("Time", time);
+        SharedPreferences prefs = context.getSharedPreferences(SurveillancePipeline.PREFS_FILE, 0);
+        Rect moved = Regions.union(regions);
+        if(moved != null && SurveillancePipeline.UPLOAD_REGION.equals(prefs.getString(SurveillancePipeline.UPLOAD_MODE_PREF,
+                SurveillancePipeline.UPLOAD_FULL))) {
+            int displacement = (int) Math.ceil(frame.width() * lagNanos / (CROSSING_SECONDS * TimeUnit.SECONDS.toNanos(1)));
+            Rect crop = Regions.expand(moved, CROP_MARGIN, CROP_MIN_MARGIN, displacement, frame.width(), frame.height());
+            byte[] cropped = getCropEncoder(context).encodeNv21(frame.yuv(), crop);
+            saveToGallery(cropped, date);
+            data.put("Bitmap", cropped);
+            data.put("Thumbnail", getSceneEncoder().encodeNv21(frame.yuv()));
+            data.put("Crop", crop);
+            return data;
+        }
+        JpegEncoder encoder = getEncoder(context);
+        byte[] serializedBitmap = encoder.encodeNv21(frame.yuv());
+        int width = encoder.outputWidth(frame.width());
+        if(width != frame.width()) {
+            regions = Regions.scale(regions, (double) width / frame.width());
+        }
+        byte[] thumbnail = getThumbnailEncoder().encodeNv21(frame.yuv());
+        saveToGallery(serializedBitmap, date);
+        data.put("Bitmap", serializedBitmap);
+        data.put("Thumbnail", thumbnail);
         return data;
     }
 
-    private void createFolderIfNecessaryAndAdd(final byte[] serializedBitmap, final String date) {
-        final DriveResourceClient res_client = Drive.getDriveResourceClient(context, account);
-        final Task<DriveFolder> rootFolder = res_client.getRootFolder();
-        final Task<DriveContents> contentsTask = res_client.createContents();
-        if(!createdFolder) {
-            rootFolder.continueWithTask(new Continuation<DriveFolder, Task<DriveFolder>>() {
-                @Override
-                public Task<DriveFolder> then(@NonNull Task<DriveFolder> task) {
-                    DriveFolder parent = task.getResult();
-                    MetadataChangeSet changeSet = new MetadataChangeSet.Builder().setTitle("Intrusion Detector Images").setMimeType(DriveFolder.MIME_TYPE).setStarred(true).build();
-                    folder = res_client.createFolder(parent, changeSet);
-                    createdFolder = true;
-                    return folder;
-                }
-            });
-        } else {
+    // The app's JPEG encoder, with the quality and width saved in the settings. An encoder which is replaced is not released, as
+    // another alert may still be using it; the garbage collector frees it.
+    private static synchronized JpegEncoder getEncoder(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(SurveillancePipeline.PREFS_FILE, 0);
+        int quality = prefs.getInt(SurveillancePipeline.JPEG_QUALITY_PREF, JpegEncoder.DEFAULT_QUALITY);
+        int maxWidth = prefs.getInt(SurveillancePipeline.JPEG_MAX_WIDTH_PREF, JpegEncoder.DEFAULT_MAX_WIDTH);
+        if(encoder == null || encoder.getQuality() != quality || encoder.getMaxWidth() != maxWidth) {
+            encoder = new JpegEncoder(quality, maxWidth);
+        }
+        return encoder;
+    }
 
-            Tasks.whenAll(folder, contentsTask).continueWithTask(new Continuation<Void, Task<DriveFile>>() {
-                @Override
-                public Task<DriveFile> then(@NonNull Task<Void> task) {
-                    DriveContents contents = contentsTask.getResult();
-                    MetadataChangeSet mcs = new MetadataChangeSet.Builder().setTitle(date + ".jpg").setMimeType("image/jpeg").setStarred(true).build();
-                    OutputStream os = contents.getOutputStream();
+    private static synchronized JpegEncoder getThumbnailEncoder() {
+        if(thumbnailEncoder == null) {
+            thumbnailEncoder = new JpegEncoder(THUMBNAIL_QUALITY, THUMBNAIL_WIDTH);
+        }
+        return thumbnailEncoder;
+    }
+
+    private static synchronized JpegEncoder getSceneEncoder() {
+        if(sceneEncoder == null) {
+            sceneEncoder = new JpegEncoder(SCENE_QUALITY, SCENE_WIDTH);
+        }
+        return sceneEncoder;
+    }
+
+    // Crops are encoded with the app's JPEG quality, but never scaled down
+    private static synchronized JpegEncoder getCropEncoder(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(SurveillancePipeline.PREFS_FILE, 0);
+        int quality = prefs.getInt(SurveillancePipeline.JPEG_QUALITY_PREF, JpegEncoder.DEFAULT_QUALITY);
+        if(cropEncoder == null || cropEncoder.getQuality() != quality) {
+            cropEncoder = new JpegEncoder(quality, 0);
+        }
+        return cropEncoder;
+    }
+
+    // Adds the JPEG to the phone's gallery as it is, without encoding it again, on the gallery thread
+    private void saveToGallery(final byte[] jpeg, final String date) {
+        galleryWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(MediaStore.Images.Media.TITLE, date + ".jpg");
+                values.put(MediaStore.Images.Media.DISPLAY_NAME, date + ".jpg");
+                values.put(MediaStore.Images.Media.DESCRIPTION, "Movement detected on " + date);
+                values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+                values.put(MediaStore.Images.Media.DATE_TAKEN, System.currentTimeMillis());
+                ContentResolver resolver = context.getContentResolver();
+                Uri uri = null;
+                try {
+                    uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+                    if(uri == null) {
+                        throw new IOException("Gallery refused the image");
+                    }
+                    OutputStream os = resolver.openOutputStream(uri);
+                    if(os == null) {
+                        throw new IOException("Couldn't open " + uri);
+                    }
                     try {
-                        os.write(serializedBitmap);
-                    } catch (IOException ioe) {
-                        Log.e(TAG, "Couldn't write File: I/O Error");
+                        os.write(jpeg);
+                    } finally {
+                        os.close();
+                    }
+                } catch(IOException | SecurityException e) {
+                    Log.e(TAG, "Couldn't save img to phone: " + e.getMessage());
+                    if(uri != null) {
+                        resolver.delete(uri, null, null);
                     }
-                    return res_client.createFile(folder.getResult(), mcs, contents);
+                    return;
                 }
-            });
-        }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, "Image Saved to Phone", Toast.LENGTH_LONG).show();
+                    }
+                });
+                Log.d(TAG, "Saved img to phone with filename: " + date + ".jpg");
+            }
+        });
     }
 }
@@ -0,0 +1,97 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: PipelineStats.java
+ * Description: This class counts the frames the camera delivers and the frames that get analysed, and works out, for the time
+ * since it was last sampled, how many of each arrived per second and how much CPU the whole app used. Comparing these numbers
+ * between the preview and headless modes shows what drawing the preview costs. Frames the camera dropped before delivering them
+ * are found from the gaps in the frames' sequence numbers. Times are passed in(in nanoseconds) rather than read from the clock,
+ * so the class works the same on a phone and in a unit test. */
+
+public class PipelineStats {
+    private long frames = 0;
+    private long analysed = 0;
+    private long dropped = 0;
+    private long lastSequence = -1;
+    // Counts and clocks at the start of the current sampling window
+    private boolean started = false;
+    private long windowStart;
+    private long windowFrames;
+    private long windowAnalysed;
+    private long windowCpu;
+    // Results of the last completed window
+    private double cameraFps = 0;
+    private double analysisFps = 0;
+    private double cpuLoad = 0;
+
+    /**
+     * Called for every frame the camera delivers.
+     * @param sequence - the frame's sequence number(CvCameraViewFrame.sequence()), which starts again from 0 when the camera does
+     */
+    public synchronized void frameDelivered(long sequence) {
+        frames++;
+        if(lastSequence >= 0 && sequence > lastSequence + 1) {
+            dropped += sequence - lastSequence - 1;
+        }
+        lastSequence = sequence;
+    }
+
+    // Called for every frame that finishes analysis
+    public synchronized void frameAnalysed() {
+        analysed++;
+    }
+
+    /**
+     * Ends the current sampling window and starts the next one; the first call only starts a window.
+     * @param now - the time, e.g. System.nanoTime()
+     * @param cpuNanos - CPU time the process has used so far, e.g. from Process.getElapsedCpuTime()
+     */
+    public synchronized void sample(long now, long cpuNanos) {
+        if(started && now - windowStart > 0) {
+            double seconds = (now - windowStart) / 1e9;
+            cameraFps = (frames - windowFrames) / seconds;
+            analysisFps = (analysed - windowAnalysed) / seconds;
+            cpuLoad = (cpuNanos - windowCpu) / 1e9 / seconds;
+        }
+        started = true;
+        windowStart = now;
+        windowFrames = frames;
+        windowAnalysed = analysed;
+        windowCpu = cpuNanos;
+    }
+
+    // Frames per second the camera delivered in the last window
+    public synchronized double getCameraFps() {
+        return cameraFps;
+    }
+
+    // Frames per second analysed in the last window
+    public synchronized double getAnalysisFps() {
+        return analysisFps;
+    }
+
+    // CPU the process used in the last window, as a fraction of one core(so it can go above 1 on several cores)
+    public synchronized double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    public synchronized long getAnalysedCount() {
+        return analysed;
+    }
+
+    // Frames the camera dropped before delivering them, because delivery fell behind
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "camera=" + Math.round(cameraFps * 10) / 10.0 + "fps, analysed=" + Math.round(analysisFps * 10) / 10.0 + "fps, cpu="
+                + Math.round(cpuLoad * 100) + "%, dropped=" + dropped;
+    }
+}
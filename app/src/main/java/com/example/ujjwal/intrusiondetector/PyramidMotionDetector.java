@@ -0,0 +1,180 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: PyramidMotionDetector.java
+ * Description: This class finds motion coarse to fine. Every frame is first shrunk with an image pyramid and checked for change at
+ * 1/4 or 1/8 scale, which is all the work done when nothing moves(nearly all of the time). Only when the small frame shows a
+ * change is the full resolution diff, threshold and contour pipeline run, and then only inside the boxes around that change.
+ * Detection zones are applied to the coarse check, which skips the excluded pixels, and the full resolution boxes are kept inside
+ * the included ones. */
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class PyramidMotionDetector extends ContourMotionDetector {
+    // Number of times the frame is halved before the coarse check: 2 is 1/4 scale, 3 is 1/8 scale
+    public static final int DEFAULT_LEVELS = 2;
+    // The full resolution background is only refreshed every this many frames, catching up on everything it missed at once
+    private static final int REFRESH_INTERVAL = 8;
+    // Coarse blobs this fraction of the(scaled down) minimum area are worth checking at full resolution
+    private static final double CANDIDATE_AREA_FRACTION = 0.5;
+    // Extra full resolution pixels around each candidate, so the blur and dilation see the same neighbourhood as on a full frame
+    private static final int MARGIN = FrameDiffMotionDetector.DEFAULT_BLUR_SIZE / 2 + 2;
+
+    private final int scale;
+    private final Mat[] pyramid;
+    private final FrameDiffMotionDetector coarse;
+    private final BackgroundModel model;
+    private final Size frameSize;
+    private final Size blurSize = new Size(FrameDiffMotionDetector.DEFAULT_BLUR_SIZE, FrameDiffMotionDetector.DEFAULT_BLUR_SIZE);
+    private final double refreshRate;
+    private int frameCount = 0;
+    // An empty kernel makes dilate() use a 3x3 square
+    private final Mat kernel = new Mat();
+    private ZoneCrop zones;
+
+    PyramidMotionDetector(Size frameSize, double minArea) {
+        this(frameSize, minArea, DEFAULT_LEVELS);
+    }
+
+    PyramidMotionDetector(Size frameSize, double minArea, int levels) {
+        super(minArea);
+        if(levels < 1) {
+            throw new IllegalArgumentException("Pyramid needs at least one level: " + levels);
+        }
+        this.frameSize = frameSize;
+        scale = 1 << levels;
+        pyramid = new Mat[levels];
+        int width = (int) frameSize.width;
+        int height = (int) frameSize.height;
+        for(int i = 0; i < levels; i++) {
+            // pyrDown rounds odd sizes up
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            pyramid[i] = new Mat();
+        }
+        // The coarse check is the normal pipeline on the small frame, with the blur scaled down to match
+        int coarseBlur = Math.max(3, (FrameDiffMotionDetector.DEFAULT_BLUR_SIZE / scale) | 1);
+        double coarseArea = minArea / (scale * scale) * CANDIDATE_AREA_FRACTION;
+        coarse = new FrameDiffMotionDetector(new Size(width, height), coarseArea, FrameDiffMotionDetector.DEFAULT_LEARNING_RATE, true, coarseBlur);
+        model = new BackgroundModel(frameSize, FrameDiffMotionDetector.DEFAULT_LEARNING_RATE, true);
+        refreshRate = 1 - Math.pow(1 - FrameDiffMotionDetector.DEFAULT_LEARNING_RATE, REFRESH_INTERVAL);
+        zones = new ZoneCrop(ZoneMask.everywhere((int) frameSize.width, (int) frameSize.height));
+    }
+
+    @Override
+    public synchronized void setZones(DetectionZones zones) {
+        coarse.setZones(zones);
+        this.zones.release();
+        this.zones = new ZoneCrop(zones.compile((int) frameSize.width, (int) frameSize.height));
+        reset();
+    }
+
+    /**
+     * Algorithm:
+     * Build the pyramid down to the coarse level
+     * Run the frame differencing pipeline on the coarse frame to find candidate boxes
+     * If there are candidates, scale their boxes up, pad and merge them, and run the full resolution pipeline inside each box only
+     * Every few frames(or on the first one), blend the full frame into the full resolution background
+     * */
+    @Override
+    public synchronized List<Rect> detect(Mat luma) {
+        if(zones.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Mat level = luma;
+        for(Mat next : pyramid) {
+            Imgproc.pyrDown(level, next);
+            level = next;
+        }
+        List<Rect> candidates = coarse.detect(level);
+
+        List<Rect> regions = Collections.emptyList();
+        if(!candidates.isEmpty() && model.isInitialized()) {
+            regions = new ArrayList<>();
+            // Every box is worked on in the corner of two frame sized buffers, so boxes of any size reuse the same memory
+            Mat gaussBuffer = pool.lease(luma.rows(), luma.cols(), CvType.CV_8UC1);
+            Mat changeBuffer = pool.lease(luma.rows(), luma.cols(), CvType.CV_8UC1);
+            for(Rect roi : toFullResolution(candidates)) {
+                verify(luma, roi, gaussBuffer, changeBuffer, regions);
+            }
+            pool.recycle(gaussBuffer);
+            pool.recycle(changeBuffer);
+        }
+
+        if(!model.isInitialized() || ++frameCount % REFRESH_INTERVAL == 0) {
+            Mat gauss = pool.lease(luma.rows(), luma.cols(), CvType.CV_8UC1);
+            Imgproc.GaussianBlur(luma, gauss, blurSize, 0);
+            model.update(gauss, refreshRate);
+            pool.recycle(gauss);
+        }
+        return regions;
+    }
+
+    // Runs the full resolution pipeline inside one box, adding what it finds to regions
+    private void verify(Mat luma, Rect roi, Mat gaussBuffer, Mat changeBuffer, List<Rect> regions) {
+        // A submat still sees the pixels around it, so the blur at the box's edges matches a full frame blur
+        Mat area = luma.submat(roi);
+        Mat gauss = gaussBuffer.submat(0, roi.height, 0, roi.width);
+        Imgproc.GaussianBlur(area, gauss, blurSize, 0);
+        Mat change = changeBuffer.submat(0, roi.height, 0, roi.width);
+        if(model.absdiff(gauss, roi, change)) {
+            // Excluded pixels are cleared before thresholding, and again after dilation has grown into them
+            Rect inBox = new Rect(roi.x - zones.box.x, roi.y - zones.box.y, roi.width, roi.height);
+            zones.clearExcluded(change, inBox);
+            Imgproc.threshold(change, change, FrameDiffMotionDetector.DIFF_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+            dilate(change, kernel, 2);
+            zones.clearExcluded(change, inBox);
+            findRegions(change, new Point(roi.x, roi.y), regions);
+        }
+        area.release();
+        gauss.release();
+        change.release();
+    }
+
+    // Scales coarse boxes up to full resolution, pads them, clips them to the box around the included pixels and merges the ones
+    // that overlap
+    private List<Rect> toFullResolution(List<Rect> candidates) {
+        Rect box = zones.box;
+        List<Rect> rois = new ArrayList<>();
+        for(Rect c : candidates) {
+            int x0 = Math.max(box.x, c.x * scale - MARGIN);
+            int y0 = Math.max(box.y, c.y * scale - MARGIN);
+            int x1 = Math.min(box.x + box.width, (c.x + c.width) * scale + MARGIN);
+            int y1 = Math.min(box.y + box.height, (c.y + c.height) * scale + MARGIN);
+            // Rounding at the coarse level can put a candidate just outside the box
+            if(x1 > x0 && y1 > y0) {
+                rois.add(new Rect(x0, y0, x1 - x0, y1 - y0));
+            }
+        }
+        return mergeOverlapping(rois);
+    }
+
+    @Override
+    public synchronized void reset() {
+        coarse.reset();
+        model.reset();
+        frameCount = 0;
+    }
+
+    @Override
+    public synchronized void release() {
+        coarse.release();
+        model.release();
+        zones.release();
+        kernel.release();
+        releaseBuffers();
+        for(Mat mat : pyramid) {
+            mat.release();
+        }
+    }
+}
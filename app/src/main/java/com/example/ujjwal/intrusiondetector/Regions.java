@@ -0,0 +1,104 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: Regions.java
+ * Description: This class sums up the regions a motion detector found, for the records of an alert: how much of the frame moved, and
+ * the one box around everything that did. It also scales regions between frame sizes, grows a box by a margin to crop around it,
+ * and turns a box into text and back, so it can travel with an upload's metadata. */
+
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class Regions {
+    private Regions() {
+    }
+
+    // Total area of the regions, in pixels
+    public static long area(List<Rect> regions) {
+        long area = 0;
+        for(Rect rect : regions) {
+            area += (long) rect.width * rect.height;
+        }
+        return area;
+    }
+
+    // Smallest box around every region, or null if there are none
+    public static Rect union(List<Rect> regions) {
+        if(regions.isEmpty()) {
+            return null;
+        }
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for(Rect rect : regions) {
+            left = Math.min(left, rect.x);
+            top = Math.min(top, rect.y);
+            right = Math.max(right, rect.x + rect.width);
+            bottom = Math.max(bottom, rect.y + rect.height);
+        }
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    // Maps regions to a frame which is the given factor bigger(or smaller, below 1), rounding the sizes up
+    public static List<Rect> scale(List<Rect> regions, double factor) {
+        List<Rect> scaled = new ArrayList<>(regions.size());
+        for(Rect rect : regions) {
+            scaled.add(new Rect((int) (rect.x * factor), (int) (rect.y * factor), (int) Math.ceil(rect.width * factor),
+                    (int) Math.ceil(rect.height * factor)));
+        }
+        return scaled;
+    }
+
+    /**
+     * Grows a box on every side, e.g. so a crop around the moving regions also shows what is next to them.
+     * @param margin - fraction of the box's width(or height) added on the left and right(or top and bottom)
+     * @param minMargin - fewest pixels added on each side, so small boxes still get some of their surroundings
+     * @return the grown box, cut off at the edges of a frame of the given size
+     */
+    public static Rect expand(Rect rect, double margin, int minMargin, int width, int height) {
+        return expand(rect, margin, minMargin, 0, width, height);
+    }
+
+    /**
+     * Grows a box like expand() above, and then by a further number of pixels on every side, e.g. as far as what is in the box
+     * can have moved since it was found.
+     */
+    public static Rect expand(Rect rect, double margin, int minMargin, int extra, int width, int height) {
+        int dx = Math.max(minMargin, (int) Math.ceil(rect.width * margin)) + extra;
+        int dy = Math.max(minMargin, (int) Math.ceil(rect.height * margin)) + extra;
+        int left = Math.max(0, rect.x - dx);
+        int top = Math.max(0, rect.y - dy);
+        int right = Math.min(width, rect.x + rect.width + dx);
+        int bottom = Math.min(height, rect.y + rect.height + dy);
+        return new Rect(left, top, Math.max(0, right - left), Math.max(0, bottom - top));
+    }
+
+    // A box as "x,y,width,height"
+    public static String format(Rect rect) {
+        return rect.x + "," + rect.y + "," + rect.width + "," + rect.height;
+    }
+
+    /**
+     * Reads a box written by format().
+     * @return the box, or null if the text is null or not a box
+     */
+    public static Rect parse(String text) {
+        if(text == null) {
+            return null;
+        }
+        String[] parts = text.split(",");
+        if(parts.length != 4) {
+            return null;
+        }
+        try {
+            return new Rect(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim()),
+                    Integer.parseInt(parts[3].trim()));
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
+}
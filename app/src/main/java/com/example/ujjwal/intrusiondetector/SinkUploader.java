@@ -0,0 +1,59 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: SinkUploader.java
+ * Description: This class sends the uploads of an upload queue to a storage sink, and tells a listener where each one was stored,
+ * e.g. to record it in a database. The upload only leaves the queue once the listener is done, so if the data or its record is
+ * lost on the way, the queue tries again. A put which takes too long is cancelled before the upload counts as failed, so the retry
+ * does not store the same data a second time alongside it. */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class SinkUploader implements UploadQueue.Uploader {
+    // Called on the upload worker
+    public interface Listener {
+        // The name the upload's data is stored under
+        String nameOf(UploadQueue.Job job);
+
+        // Throwing marks the upload as failed, and it is stored again later
+        void onStored(UploadQueue.Job job, String location) throws Exception;
+    }
+
+    private final StorageSink sink;
+    private final long timeoutMillis;
+    private final Listener listener;
+
+    /**
+     * @param timeoutMillis - an upload which has not been stored by then counts as failed, so a dead connection does not hold a
+     * worker forever
+     */
+    public SinkUploader(StorageSink sink, long timeoutMillis, Listener listener) {
+        this.sink = sink;
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+    }
+
+    @Override
+    public void upload(UploadQueue.Job job, byte[] data) throws Exception {
+        Map<String, String> metadata = new HashMap<>(job.getMetadata());
+        metadata.put(StorageSink.NAME_KEY, listener.nameOf(job));
+        Future<String> put = sink.put(data, metadata);
+        String location;
+        try {
+            location = put.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch(ExecutionException e) {
+            // The queue logs the reason the sink gave, not the wrapper
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch(TimeoutException | InterruptedException e) {
+            put.cancel(false);
+            throw e;
+        }
+        listener.onStored(job, location);
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: StorageSink.java
+ * Description: This interface is somewhere alert images are stored: Firebase Storage, Google Drive, a directory on the phone, or
+ * memory, for tests. Storing is asynchronous, and a sink may store puts which arrive close together as one batch, so a sink is made
+ * once and shared by everything that stores to the same place. */
+
+import java.util.Map;
+import java.util.concurrent.Future;
+
+public interface StorageSink {
+    // Metadata key of the name the data is stored under, like "intrusions/uid/date"; slashes separate folders
+    String NAME_KEY = "name";
+    // Metadata key of the MIME type of the data, like "image/jpeg"
+    String CONTENT_TYPE_KEY = "contentType";
+
+    /**
+     * Starts storing data, and returns straight away.
+     * @param metadata - has to hold NAME_KEY; the rest is kept with the data where the sink can
+     * @return a future of where the data was stored(a URL, a path or an ID, depending on the sink), which fails with the reason
+     * the data could not be stored; cancelling it gives up on the put, which is then not stored, or stopped if it has started
+     */
+    Future<String> put(byte[] data, Map<String, String> metadata);
+
+    // Stores whatever was put already, then stops; puts after this fail
+    void close();
+}
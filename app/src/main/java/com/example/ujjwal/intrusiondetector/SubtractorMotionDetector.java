@@ -0,0 +1,111 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: SubtractorMotionDetector.java
+ * Description: This class runs one of OpenCV's statistical background subtractors as a motion detector. The subtractor builds a
+ * per-pixel model of the scene and marks each pixel as background, shadow or foreground; only foreground pixels count as motion.
+ * With detection zones, the subtractor only ever sees the box around the included pixels. */
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.BackgroundSubtractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public abstract class SubtractorMotionDetector extends ContourMotionDetector {
+    // Subtractors mark shadows with 127 and foreground with 255, so anything below this is not motion
+    private static final double FOREGROUND_THRESHOLD = 200;
+    // Let the subtractor pick its learning rate from its history length
+    private static final double AUTO_LEARNING_RATE = -1;
+    // Throws the model away and learns it again from the frame
+    private static final double RELEARN_RATE = 1;
+
+    // Kept for the detector's whole life: the 3.2 bindings cannot free a subtractor early(clear() goes through the wrong base class
+    // pointer and crashes), so a reset relearns the model instead of making a new one
+    private final BackgroundSubtractor subtractor;
+    private boolean relearn = false;
+    private final Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(3, 3));
+    private DetectionZones zoneSettings = DetectionZones.EVERYWHERE;
+    // The subtractor does not know the frame size up front, so zones are compiled on the first frame
+    private ZoneCrop zones;
+
+    protected SubtractorMotionDetector(double minArea) {
+        super(minArea);
+        subtractor = createSubtractor();
+    }
+
+    // Creates the subtractor with this detector's settings
+    protected abstract BackgroundSubtractor createSubtractor();
+
+    // The subtractors keep native state which is not thread safe, so frames go through one at a time
+    @Override
+    public synchronized List<Rect> detect(Mat luma) {
+        if(zones == null || zones.mask.getWidth() != luma.cols() || zones.mask.getHeight() != luma.rows()) {
+            setZones(zoneSettings, luma.cols(), luma.rows());
+        }
+        if(zones.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Mat area = zones.crop(luma);
+        Mat mask = pool.lease(area.rows(), area.cols(), CvType.CV_8UC1);
+        subtractor.apply(area, mask, relearn ? RELEARN_RATE : AUTO_LEARNING_RATE);
+        if(area != luma) {
+            area.release();
+        }
+        // Nothing has moved against a model which was just learned from this frame
+        if(relearn) {
+            relearn = false;
+            pool.recycle(mask);
+            return Collections.emptyList();
+        }
+        // Leave out excluded pixels, drop shadows and speckle, then close small holes inside moving objects(and clear the excluded
+        // pixels the dilation grew into)
+        zones.clearExcluded(mask);
+        Imgproc.threshold(mask, mask, FOREGROUND_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        Imgproc.morphologyEx(mask, mask, Imgproc.MORPH_OPEN, kernel);
+        Imgproc.dilate(mask, mask, kernel, DILATE_ANCHOR, 2);
+        zones.clearExcluded(mask);
+        List<Rect> regions = new ArrayList<>();
+        findRegions(mask, zones.origin, regions);
+        pool.recycle(mask);
+        return regions;
+    }
+
+    @Override
+    public synchronized void setZones(DetectionZones zones) {
+        zoneSettings = zones;
+        if(this.zones != null) {
+            setZones(zones, this.zones.mask.getWidth(), this.zones.mask.getHeight());
+        }
+    }
+
+    private void setZones(DetectionZones zones, int width, int height) {
+        if(this.zones != null) {
+            this.zones.release();
+        }
+        this.zones = new ZoneCrop(zones.compile(width, height));
+        // The subtractor's model has the size of the old box(it would relearn for a new size anyway)
+        reset();
+    }
+
+    @Override
+    public synchronized void reset() {
+        relearn = true;
+    }
+
+    @Override
+    public synchronized void release() {
+        // The subtractor's finalizer frees it once the detector is dropped
+        kernel.release();
+        if(zones != null) {
+            zones.release();
+        }
+        releaseBuffers();
+    }
+}
@@ -0,0 +1,384 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: SurveillancePipeline.java
+ * Description: This class is the motion detection pipeline: it takes camera frames, picks which ones to analyse, runs the motion
+ * detector on them in the background and reports what moved. It is a CvCameraViewListener2, so the same pipeline can be fed by
+ * the camera view in CameraActivity or by the headless camera in SurveillanceService, and whoever uses it decides what to do with
+ * the results(draw boxes, send alerts) through its Listener. */
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.os.Process;
+import android.util.Log;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.CapturedFrame;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+public class SurveillancePipeline implements CameraBridgeViewBase.CvCameraViewListener2 {
+    // Gets the results of the pipeline, including the incidents recorded around each alert(see IncidentRecorder.Listener)
+    public interface Listener extends IncidentRecorder.Listener {
+        // Called on the analysis thread for every analysed frame with the regions which moved(empty if nothing did), in analysis
+        // frame coordinates
+        void onFrameAnalysed(List<Rect> regions, int frameWidth, int frameHeight);
+        // Called on the camera thread when motion is found, at most once every ALERT_INTERVAL_MILLIS, with the camera frame that
+        // followed the analysed one, the regions scaled to it and how many nanoseconds later than the analysed frame it was taken
+        // (what moved may have moved on by then). The listener owns the frame and has to release it; its colour is only converted
+        // if the listener asks for it, which is best done off the camera thread.
+        void onMotion(CapturedFrame frame, List<Rect> regions, long lagNanos);
+    }
+
+    private static final String TAG = "SurveillancePipeline";
+    // Width every frame is resized to before analysis
+    public static final int ANALYSIS_WIDTH = 500;
+    // Shortest time between two alerts
+    public static final long ALERT_INTERVAL_MILLIS = 10000;
+    // Settings file and key which remember the motion detector the user picked
+    public static final String PREFS_FILE = "prefs";
+    public static final String DETECTOR_PREF = "detector";
+    // Start of the key of the detection zones(see DetectionZones for the format) of each camera, see zonesKey(); on its own, the key
+    // of the zones saved before they were kept per camera
+    public static final String ZONES_PREF = "zones";
+    // Keys of the JPEG quality(0 to 100) and widest size(0 for the camera's) of alert images; read whenever an alert is encoded
+    public static final String JPEG_QUALITY_PREF = "jpeg_quality";
+    public static final String JPEG_MAX_WIDTH_PREF = "jpeg_max_width";
+    // Key of what an alert uploads: the whole frame(UPLOAD_FULL, the default), or a crop of the regions which moved with a small
+    // image of the whole scene(UPLOAD_REGION), which is a fraction of the bytes when the intruder fills a small part of the frame
+    public static final String UPLOAD_MODE_PREF = "upload_mode";
+    public static final String UPLOAD_FULL = "full";
+    public static final String UPLOAD_REGION = "region";
+    // Seconds of camera kept from before an alert, and recorded after it, for the alert's incident
+    public static final long PRE_EVENT_SECONDS = 5;
+    public static final long POST_EVENT_SECONDS = 5;
+    // Most bytes of compressed frames the incident ring holds(a recorded frame is around 10KB)
+    public static final long INCIDENT_BYTE_BUDGET = 1024 * 1024;
+    // Directory under the app's files where incidents are saved, and how many are kept there
+    public static final String INCIDENTS_DIR = "incidents";
+    public static final int MAX_SAVED_INCIDENTS = 20;
+
+    private final Listener listener;
+    private volatile MotionDetector.Backend detectorBackend;
+    private volatile DetectionZones detectionZones;
+    private volatile MotionDetector motionDetector;
+    // Detectors which were swapped out, waiting for the analysis worker to be done with them and free them
+    private final Queue<MotionDetector> retiredDetectors = new ConcurrentLinkedQueue<>();
+    private int width;
+    // Height of the analysis frames, which the worker checks each frame against
+    private volatile int height;
+    private volatile boolean first = true;
+    private long timeStamp = System.currentTimeMillis();
+    private boolean startingFrame = true;
+    private int runNum = 1;
+    // Regions of an alert the analysis thread found, waiting for the camera thread to capture the next frame for it
+    private volatile List<Rect> pendingAlert;
+    // Camera timestamp of the frame those regions were found in; written before them
+    private volatile long pendingAlertTimestamp;
+    // One analysis worker with a single waiting slot: if analysis falls behind, only the newest frame waits to be processed
+    private final FrameAnalysisEngine analysisEngine = new FrameAnalysisEngine(1, 1, FrameAnalysisEngine.OverflowPolicy.DROP_OLDEST);
+    // Picks how many frames a second are analysed, from what analysis costs on this phone, and speeds up after motion
+    private final AnalysisRateScheduler rateScheduler = new AnalysisRateScheduler();
+    // Analysis frames are leased on the camera thread and recycled by the worker, so a running camera allocates no new ones(one
+    // in analysis, one waiting and one being filled is all there can be)
+    private final MatPool framePool = new MatPool(3);
+    private final PipelineStats stats = new PipelineStats();
+    private final IncidentRecorder incidentRecorder;
+
+    public SurveillancePipeline(MotionDetector.Backend backend, DetectionZones zones, Listener listener) {
+        this.detectorBackend = backend;
+        this.detectionZones = zones;
+        this.listener = listener;
+        IncidentBuffer buffer = new IncidentBuffer(TimeUnit.SECONDS.toNanos(PRE_EVENT_SECONDS), TimeUnit.SECONDS.toNanos(POST_EVENT_SECONDS),
+                INCIDENT_BYTE_BUDGET);
+        incidentRecorder = new IncidentRecorder(buffer, IncidentRecorder.DEFAULT_FRAME_INTERVAL_NANOS, listener);
+    }
+
+    // Key of the detection zones of a camera, by its index(CameraBridgeViewBase.CAMERA_ID_ANY and the like, or a number), as each
+    // camera looks at a different scene
+    public static String zonesKey(int cameraIndex) {
+        return ZONES_PREF + "_" + cameraIndex;
+    }
+
+    // Creates a pipeline with the motion detector the user saved, and the detection zones saved for the camera
+    public static SurveillancePipeline fromPreferences(Context context, int cameraIndex, Listener listener) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_FILE, 0);
+        MotionDetector.Backend backend = MotionDetector.Backend.fromName(prefs.getString(DETECTOR_PREF, null));
+        DetectionZones zones = DetectionZones.EVERYWHERE;
+        try {
+            // Zones saved before they were kept per camera are used until the camera's own are saved
+            zones = DetectionZones.parse(prefs.getString(zonesKey(cameraIndex), prefs.getString(ZONES_PREF, null)));
+        } catch(IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring saved detection zones", e);
+        }
+        return new SurveillancePipeline(backend, zones, listener);
+    }
+
+    public MotionDetector.Backend getBackend() {
+        return detectorBackend;
+    }
+
+    public DetectionZones getZones() {
+        return detectionZones;
+    }
+
+    // Swaps detectors for the next frame; a frame already being analysed finishes with the old one, which the worker frees after it
+    public void setBackend(MotionDetector.Backend backend) {
+        detectorBackend = backend;
+        if(height > 0) {
+            swapDetector();
+        }
+    }
+
+    // The zones are compiled into a new detector, swapped in the same way as when the backend changes
+    public void setZones(DetectionZones zones) {
+        detectionZones = zones;
+        if(height > 0) {
+            swapDetector();
+        }
+    }
+
+    /**
+     * Puts a new detector in place and retires the old one. Only the worker uses a detector, and it reads which one for each frame
+     * after freeing the retired ones, so the old detector is freed by the task after the one that may still be using it.
+     */
+    private synchronized void swapDetector() {
+        MotionDetector old = motionDetector;
+        motionDetector = createDetector();
+        if(old != null) {
+            retiredDetectors.add(old);
+            analysisEngine.submit(new ReleaseTask());
+        }
+    }
+
+    // Frees the detectors which were swapped out; only called on the analysis worker, or once it has stopped
+    private void releaseRetiredDetectors() {
+        MotionDetector detector;
+        while((detector = retiredDetectors.poll()) != null) {
+            detector.release();
+        }
+    }
+
+    // Creates the picked motion detector for the analysis resolution, limited to the detection zones
+    private MotionDetector createDetector() {
+        MotionDetector detector = detectorBackend.create(new Size(ANALYSIS_WIDTH, height), ContourMotionDetector.DEFAULT_MIN_AREA);
+        detector.setZones(detectionZones);
+        return detector;
+    }
+
+    // When the camera frames start coming for the algorithm to parse
+    @Override
+    public void onCameraViewStarted(int width, int height) {
+        if(this.width != width || this.height != height || motionDetector == null) {
+            this.height = height;
+            this.width = width;
+            // The detector is sized once for the analysis resolution, so frames never reallocate its model
+            swapDetector();
+        }
+    }
+
+    // When the camera is closed and frames stop coming
+    @Override
+    public void onCameraViewStopped() {
+        first = true;
+        pendingAlert = null;
+        incidentRecorder.reset();
+        rateScheduler.reset();
+        if(motionDetector != null) {
+            motionDetector.reset();
+        }
+    }
+
+    /**
+     * Parses each camera frame separately. Nothing is drawn here, so null is returned; a view which shows the frames should
+     * return inputFrame.rgba() itself.
+     */
+    @Override
+    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        stats.frameDelivered(inputFrame.sequence());
+        // If first frame, reset the timer; the motion detector uses this frame as a reference point for future frames
+        if(first) {
+            first = false;
+            timeStamp = System.currentTimeMillis();
+        }
+        // Keep the last few seconds for the incident of the next alert; compression happens on the recorder's own thread, and
+        // frames it does not record are not touched
+        incidentRecorder.record(inputFrame);
+        // The frame an alert was found in is gone by the time analysis finishes, so the next one is captured for it instead.
+        // Only this frame is copied out of the camera's buffer, and it is never converted to colour here.
+        List<Rect> alert = pendingAlert;
+        if(alert != null) {
+            pendingAlert = null;
+            incidentRecorder.trigger(inputFrame.timestamp(), Regions.scale(alert, (double) IncidentRecorder.RECORD_WIDTH / ANALYSIS_WIDTH));
+            CapturedFrame captured = inputFrame.capture();
+            long lag = Math.max(0, captured.timestamp() - pendingAlertTimestamp);
+            listener.onMotion(captured, Regions.scale(alert, (double) captured.width() / ANALYSIS_WIDTH), lag);
+        }
+        // Process this frame on the analysis engine, in order to make sure that the camera thread doesn't do too much work.
+        // The gray Mat points into the camera's buffer, which is reused for the next frame, so it is read in place and scaled
+        // straight into the worker's own 8-bit frame, instead of being cloned first and resized on the worker.
+        // Frames the scheduler skips are not even resized.
+        if(motionDetector != null && rateScheduler.offer(System.nanoTime())) {
+            Mat luma = inputFrame.gray();
+            Mat frame = framePool.lease(luma.height(), ANALYSIS_WIDTH, CvType.CV_8UC1);
+            Imgproc.resize(luma, frame, frame.size(), 0, 0, Imgproc.INTER_AREA);
+            analysisEngine.submit(new ProcessorTask(frame, inputFrame.timestamp()));
+        }
+        return null;
+    }
+
+    /**
+     * Ends the current stats window(see PipelineStats) and starts the next one.
+     * @return the frame rates and CPU use of the window, and the state of the rate scheduler
+     */
+    public String sampleStats() {
+        stats.sample(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(Process.getElapsedCpuTime()));
+        return stats + ", " + rateScheduler + ", incidents: " + incidentRecorder;
+    }
+
+    public PipelineStats getStats() {
+        return stats;
+    }
+
+    // Stops analysis once the camera is closed, without waiting for it(this is called on the main thread); the pipeline cannot be
+    // used afterwards
+    public void release() {
+        incidentRecorder.release();
+        // The detectors are only freed once the worker is done with them, by the worker itself
+        analysisEngine.shutdown(new Runnable() {
+            @Override
+            public void run() {
+                releaseRetiredDetectors();
+                MotionDetector detector = motionDetector;
+                if(detector != null) {
+                    detector.release();
+                }
+            }
+        });
+        // Frames still being analysed are freed when the worker hands them back
+        framePool.release();
+    }
+
+    /**
+     * Saves an incident under the app's files, in a directory named after the time of its alert, and deletes the oldest saved
+     * incidents beyond MAX_SAVED_INCIDENTS. Meant to be called from Listener.onIncident(), which is already off the camera and
+     * analysis threads.
+     */
+    public static void saveIncident(Context context, Incident incident) {
+        File root = new File(context.getFilesDir(), INCIDENTS_DIR);
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(incident.getTriggerTimeMillis()));
+        try {
+            incident.writeTo(new File(root, name));
+            Log.d(TAG, "Saved incident " + name + ": " + incident);
+        } catch(IOException e) {
+            Log.e(TAG, "Couldn't save incident " + name, e);
+        }
+        String[] saved = root.list();
+        if(saved != null && saved.length > MAX_SAVED_INCIDENTS) {
+            // The names sort in time order
+            Arrays.sort(saved);
+            for(int i = 0; i < saved.length - MAX_SAVED_INCIDENTS; i++) {
+                File dir = new File(root, saved[i]);
+                File[] files = dir.listFiles();
+                if(files != null) {
+                    for(File file : files) {
+                        file.delete();
+                    }
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    /**
+     * Frees swapped out detectors on the worker once the frame before it is done, so they don't wait for the next analysed frame.
+     * If the engine drops it, that next frame(or the shutdown action) frees them instead; it can't be done where it was dropped,
+     * as the worker may still be using them.
+     */
+    private class ReleaseTask extends FrameAnalysisEngine.FrameTask {
+        @Override
+        public void run() {
+            releaseRetiredDetectors();
+        }
+    }
+
+    // This is the processor task, which the analysis engine runs for each frame independently
+    private class ProcessorTask extends FrameAnalysisEngine.FrameTask {
+        private final String TAG = "ProcessorTask";
+        private Mat currFrame;
+        private final long timestamp;
+
+        public ProcessorTask(Mat frame, long timestamp) {
+            currFrame = frame;
+            this.timestamp = timestamp;
+        }
+
+        // The engine skipped this frame, so hand its buffer back for the next one right away
+        @Override
+        protected void onDropped() {
+            framePool.recycle(currFrame);
+        }
+
+        /**
+         * Algorithm:
+         * Start time(wall clock, and CPU time of this thread for the rate scheduler)
+         * Frame arrives already resized to a smaller scale and in grayscale(done while reading the camera's luma plane)
+         * Run the selected motion detector on the frame, which returns the regions bigger than the set size that moved
+         * Hand those regions to the listener(e.g. to show them as boxes over the preview, or clear the boxes if nothing moved)
+         * If any region moved, we have proof of motion
+         * At most once every ALERT_INTERVAL_MILLIS, ask the camera thread to capture the next frame and hand it to the listener,
+         * which saves the image and uploads it
+         * End time, calculate time differential, tell the rate scheduler what the frame cost and whether it moved, and log
+         * */
+        @Override
+        public void run() {
+            // The detector is picked here rather than when the frame was queued, after freeing any swapped out ones; a frame left
+            // from before the camera changed resolution doesn't fit the new detector, so it is skipped
+            releaseRetiredDetectors();
+            if(currFrame.rows() != height) {
+                framePool.recycle(currFrame);
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            long startCpu = Debug.threadCpuTimeNanos();
+            long startNanos = System.nanoTime();
+            List<Rect> regions = motionDetector.detect(currFrame);
+            listener.onFrameAnalysed(regions, currFrame.cols(), currFrame.rows());
+            framePool.recycle(currFrame);
+            // threadCpuTimeNanos() returns -1 where it is not supported, and then the wall clock time is used instead
+            long cost = startCpu >= 0 ? Debug.threadCpuTimeNanos() - startCpu : System.nanoTime() - startNanos;
+            rateScheduler.record(cost, !regions.isEmpty(), System.nanoTime());
+            stats.frameAnalysed();
+            if(!regions.isEmpty()) {
+                long currTime = System.currentTimeMillis();
+                if(currTime - timeStamp >= ALERT_INTERVAL_MILLIS || startingFrame) {
+                    timeStamp = System.currentTimeMillis();
+                    Log.d(TAG, "Motion found, alerting");
+                    pendingAlertTimestamp = timestamp;
+                    pendingAlert = regions;
+                    if(startingFrame) startingFrame = false;
+                }
+            }
+            long endTime = System.currentTimeMillis();
+            long time = (endTime - startTime);
+            Log.d(TAG, "Processing time for run #" + runNum + ": " + time + " (" + analysisEngine + ", " + rateScheduler + ")");
+            runNum++;
+        }
+    }
+}
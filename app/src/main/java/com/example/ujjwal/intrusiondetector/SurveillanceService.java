@@ -0,0 +1,181 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: SurveillanceService.java
+ * Description: This service watches for motion without showing anything, for when the phone is left face down on a shelf. It
+ * owns the camera(through a headless camera, which renders nothing) and the same detection pipeline CameraActivity uses, so the
+ * screen can turn off while the phone keeps watching. It runs in the foreground, with a notification showing the frame rates
+ * and CPU use, and a button to stop it. */
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.CapturedFrame;
+import org.opencv.android.HeadlessJavaCamera;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Rect;
+
+import java.util.List;
+
+public class SurveillanceService extends Service implements SurveillancePipeline.Listener {
+    private static final String TAG = "SurveillanceService";
+    public static final String ACTION_STOP = "com.example.ujjwal.intrusiondetector.STOP_SURVEILLANCE";
+    // Extras with the same sign in details CameraActivity gets, which the alerts need
+    public static final String EXTRA_PROVIDER = "Provider";
+    public static final String EXTRA_ACCOUNT = "Account";
+    public static final String EXTRA_USE_DEFAULT = "UseDefault";
+    private static final String CHANNEL_ID = "surveillance";
+    private static final int NOTIFICATION_ID = 1;
+    // How often the frame rates and CPU use are logged and shown in the notification
+    private static final long STATS_INTERVAL_MILLIS = 10000;
+    // Same limit as the camera view in CameraActivity, so both modes analyse the same frames
+    private static final int MAX_FRAME_SIZE = 600;
+    // Same camera as the camera view in CameraActivity(its layout picks none, so any), so the zones saved for it apply here too
+    private static final int CAMERA_INDEX = CameraBridgeViewBase.CAMERA_ID_ANY;
+
+    private HeadlessJavaCamera camera;
+    private SurveillancePipeline pipeline;
+    private PowerManager.WakeLock wakeLock;
+    private final Handler handler = new Handler();
+    private String providerID = "";
+    private GoogleSignInAccount acct = null;
+    private boolean useDefault = false;
+
+    // Reports the stats of the last interval and schedules the next report
+    private final Runnable statsReporter = new Runnable() {
+        @Override
+        public void run() {
+            String stats = pipeline.sampleStats() + ", uploads: " + FirebaseUploader.describeQueue();
+            Log.i(TAG, stats);
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.notify(NOTIFICATION_ID, buildNotification(stats));
+            handler.postDelayed(this, STATS_INTERVAL_MILLIS);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Surveillance", NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if(intent != null && ACTION_STOP.equals(intent.getAction())) {
+            Log.d(TAG, "Stopping surveillance");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        startForeground(NOTIFICATION_ID, buildNotification("Starting camera"));
+        if(camera != null) {
+            return START_REDELIVER_INTENT;
+        }
+        if(intent != null) {
+            if(intent.getStringExtra(EXTRA_PROVIDER) != null) {
+                providerID = intent.getStringExtra(EXTRA_PROVIDER);
+            }
+            acct = intent.getParcelableExtra(EXTRA_ACCOUNT);
+            useDefault = intent.getBooleanExtra(EXTRA_USE_DEFAULT, false);
+        }
+        if(!OpenCVLoader.initDebug()) {
+            Log.e(TAG, "OpenCVLoader.initDebug(), not working.");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        // The screen may turn off, but the CPU has to keep analysing frames
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        wakeLock.acquire();
+
+        FirebaseUploader.resume(this);
+        pipeline = SurveillancePipeline.fromPreferences(this, CAMERA_INDEX, this);
+        camera = new HeadlessJavaCamera(CAMERA_INDEX, MAX_FRAME_SIZE, MAX_FRAME_SIZE);
+        camera.setCvCameraViewListener(pipeline);
+        if(!camera.start()) {
+            Toast.makeText(getApplicationContext(), "Camera is not available", Toast.LENGTH_LONG).show();
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        Log.d(TAG, "Watching with " + pipeline.getBackend() + " at " + camera.getFrameWidth() + "x" + camera.getFrameHeight());
+        // Starts the first stats window
+        pipeline.sampleStats();
+        handler.postDelayed(statsReporter, STATS_INTERVAL_MILLIS);
+        // If the system kills the service, it is started again with the same sign in details
+        return START_REDELIVER_INTENT;
+    }
+
+    private Notification buildNotification(String text) {
+        Intent stopIntent = new Intent(this, SurveillanceService.class).setAction(ACTION_STOP);
+        PendingIntent stop = PendingIntent.getService(this, 0, stopIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle("Watching for motion")
+                .setContentText(text)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .addAction(0, "Stop", stop)
+                .build();
+    }
+
+    @Override
+    public void onFrameAnalysed(List<Rect> regions, int frameWidth, int frameHeight) {
+        // Nothing is shown while headless
+    }
+
+    // Keeps the frames recorded around the alert on the phone
+    @Override
+    public void onIncident(Incident incident) {
+        SurveillancePipeline.saveIncident(getApplicationContext(), incident);
+    }
+    // Starts the notification thread to save the image and upload it, like CameraActivity does
+    @Override
+    public void onMotion(CapturedFrame frame, List<Rect> regions, long lagNanos) {
+        NotificationThread nt = new NotificationThread(getApplicationContext(), providerID, frame, regions, lagNanos, acct,
+                useDefault);
+        nt.start();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(statsReporter);
+        if(camera != null) {
+            camera.stop();
+            camera = null;
+        }
+        if(pipeline != null) {
+            Log.i(TAG, "Stopped after " + pipeline.getStats().getFrameCount() + " frames: " + pipeline.sampleStats());
+            pipeline.release();
+            pipeline = null;
+        }
+        if(wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        stopForeground(true);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
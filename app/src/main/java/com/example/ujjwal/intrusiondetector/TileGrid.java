@@ -0,0 +1,208 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: TileGrid.java
+ * Description: This class splits a frame into a grid of fixed tiles and scores how much each tile changed, as the sum of the
+ * absolute differences inside it. The scores come from a single pass over the difference image(an integral image), so the detector
+ * can skip contour finding entirely when no tile changed enough, and look only at the tiles that did when some have. The scores of
+ * the last frame stay available, so zones and heatmaps can reuse them without recomputing. */
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TileGrid {
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    // Pixel edges of the tiles: column c spans [xEdges[c], xEdges[c + 1])
+    private final int[] xEdges;
+    private final int[] yEdges;
+    private final Mat integral = new Mat();
+    private final int[] intRow;
+    private final double[] doubleRow;
+    private final double[] upper;
+    private final double[] scores;
+    private final boolean[] active;
+    // Active tiles and the tiles around them, which are searched
+    private final boolean[] searched;
+    // Tiles waiting to be added to the group being gathered
+    private final int[] stack;
+    // Tiles with no included pixel, which never become active
+    private final boolean[] skipped;
+
+    /**
+     * @param frameSize - the size of the difference images that will be scored
+     * @param tileSize - the rough side of a tile in pixels; tiles are stretched a little so they cover the frame exactly
+     */
+    TileGrid(Size frameSize, int tileSize) {
+        width = (int) frameSize.width;
+        height = (int) frameSize.height;
+        columns = Math.max(1, (width + tileSize / 2) / tileSize);
+        rows = Math.max(1, (height + tileSize / 2) / tileSize);
+        xEdges = new int[columns + 1];
+        yEdges = new int[rows + 1];
+        for(int c = 0; c <= columns; c++) {
+            xEdges[c] = c * width / columns;
+        }
+        for(int r = 0; r <= rows; r++) {
+            yEdges[r] = r * height / rows;
+        }
+        intRow = new int[width + 1];
+        doubleRow = new double[width + 1];
+        upper = new double[columns + 1];
+        scores = new double[columns * rows];
+        active = new boolean[columns * rows];
+        searched = new boolean[columns * rows];
+        stack = new int[columns * rows];
+        skipped = new boolean[columns * rows];
+    }
+
+    /**
+     * Skips the tiles which lie wholly in excluded zones, so they are never passed on however much they change.
+     * @param zones - compiled for the full frame
+     * @param left - where the grid's left edge lies in the full frame(when the frame is cropped before scoring)
+     * @param top - where the grid's top edge lies in the full frame
+     */
+    public synchronized void skipExcluded(ZoneMask zones, int left, int top) {
+        for(int r = 0; r < rows; r++) {
+            for(int c = 0; c < columns; c++) {
+                skipped[r * columns + c] = !zones.intersects(left + xEdges[c], top + yEdges[r], xEdges[c + 1] - xEdges[c],
+                        yEdges[r + 1] - yEdges[r]);
+            }
+        }
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    // The pixels covered by a tile
+    public Rect getTile(int column, int row) {
+        return new Rect(xEdges[column], yEdges[row], xEdges[column + 1] - xEdges[column], yEdges[row + 1] - yEdges[row]);
+    }
+
+    /**
+     * Scores every tile of a single channel difference image(CV_8U or CV_32F) of the grid's size.
+     * @return the highest tile score
+     */
+    public synchronized double score(Mat diff) {
+        boolean integer = diff.depth() == CvType.CV_8U;
+        // 8-bit sums fit in an int, which keeps the integral image half the size of a double one
+        Imgproc.integral(diff, integral, integer ? CvType.CV_32S : CvType.CV_64F);
+        double max = 0;
+        for(int r = 0; r <= rows; r++) {
+            // Corners of the tile to the left, carried along the row
+            double upperLeft = 0;
+            double lowerLeft = 0;
+            // Only the integral's rows on tile edges are read, and only the columns on tile edges are used
+            if(integer) {
+                integral.get(yEdges[r], 0, intRow);
+            } else {
+                integral.get(yEdges[r], 0, doubleRow);
+            }
+            for(int c = 0; c <= columns; c++) {
+                double lower = integer ? intRow[xEdges[c]] : doubleRow[xEdges[c]];
+                if(r > 0 && c > 0) {
+                    double sum = lower - upper[c] - lowerLeft + upperLeft;
+                    int tile = (r - 1) * columns + (c - 1);
+                    scores[tile] = sum;
+                    if(sum > max) {
+                        max = sum;
+                    }
+                }
+                upperLeft = upper[c];
+                lowerLeft = lower;
+                upper[c] = lower;
+            }
+        }
+        return max;
+    }
+
+    // Copies the last frame's scores(sum of absolute differences per tile, row by row) into dst, which needs columns * rows slots
+    public synchronized void copyScores(double[] dst) {
+        System.arraycopy(scores, 0, dst, 0, scores.length);
+    }
+
+    /**
+     * Finds the tiles whose score is above a threshold(other than skipped ones), adds the tiles around them, and joins neighbouring
+     * ones into boxes. The tiles around are added whether they are skipped or not, since a blob can reach over or around them.
+     * @param threshold - the smallest sum of absolute differences which makes a tile active
+     * @param neighbours - how many whole tiles around each active tile are added to its box(e.g. for dilation and blobs which
+     * reach into quiet tiles)
+     * @return boxes around the groups of touching tiles, none of which overlap, or none if no tile is active
+     */
+    public synchronized List<Rect> activeRegions(double threshold, int neighbours) {
+        List<Rect> regions = new ArrayList<>();
+        boolean any = false;
+        for(int i = 0; i < scores.length; i++) {
+            active[i] = !skipped[i] && scores[i] > threshold;
+            any |= active[i];
+        }
+        if(!any) {
+            return regions;
+        }
+        for(int r = 0; r < rows; r++) {
+            for(int c = 0; c < columns; c++) {
+                searched[r * columns + c] = false;
+                for(int y = Math.max(0, r - neighbours); y <= Math.min(rows - 1, r + neighbours) && !searched[r * columns + c]; y++) {
+                    for(int x = Math.max(0, c - neighbours); x <= Math.min(columns - 1, c + neighbours); x++) {
+                        if(active[y * columns + x]) {
+                            searched[r * columns + c] = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        // Each group of touching searched tiles becomes its box, and boxes which overlap are merged, so a box holds every blob it cuts
+        for(int start = 0; start < scores.length; start++) {
+            if(!searched[start]) {
+                continue;
+            }
+            int left = columns;
+            int top = rows;
+            int right = -1;
+            int bottom = -1;
+            int size = 0;
+            stack[size++] = start;
+            searched[start] = false;
+            while(size > 0) {
+                int tile = stack[--size];
+                int r = tile / columns;
+                int c = tile % columns;
+                left = Math.min(left, c);
+                top = Math.min(top, r);
+                right = Math.max(right, c);
+                bottom = Math.max(bottom, r);
+                for(int y = Math.max(0, r - 1); y <= Math.min(rows - 1, r + 1); y++) {
+                    for(int x = Math.max(0, c - 1); x <= Math.min(columns - 1, c + 1); x++) {
+                        if(searched[y * columns + x]) {
+                            searched[y * columns + x] = false;
+                            stack[size++] = y * columns + x;
+                        }
+                    }
+                }
+            }
+            regions.add(new Rect(xEdges[left], yEdges[top], xEdges[right + 1] - xEdges[left], yEdges[bottom + 1] - yEdges[top]));
+        }
+        return ContourMotionDetector.mergeOverlapping(regions);
+    }
+
+    public synchronized void release() {
+        integral.release();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: UpdateCoalescer.java
+ * Description: This class merges database updates which arrive close together into one write. The first update for a node starts a
+ * short window; every update for the same node within the window is merged into it(a later value for the same path wins), and when
+ * the window ends the merged update is handed to the sink as one multi-path write. A burst of alerts therefore reaches the database,
+ * and whoever listens to it, as a single change instead of one per alert. Every update's future completes once the database says
+ * its write is done, or fails with the write's error. */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class UpdateCoalescer {
+    // Writes a merged update; called on the coalescer's own thread
+    public interface Sink {
+        /**
+         * @param updates - values by path relative to the node, all to be written at once
+         * @param done - told once the write has finished, on any thread
+         */
+        void write(String node, Map<String, Object> updates, Done done);
+    }
+
+    // How a sink reports the end of a write
+    public interface Done {
+        // @param error - why the write failed, or null if it succeeded
+        void finished(Exception error);
+    }
+
+    // The updates for one node waiting for their window to end
+    private static class Batch implements Done {
+        final Map<String, Object> updates = new HashMap<>();
+        private Exception error;
+        // Completed once the sink has finished the write, with its error if it failed
+        final FutureTask<Void> written = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if(error != null) {
+                    throw error;
+                }
+                return null;
+            }
+        });
+
+        @Override
+        public void finished(Exception error) {
+            synchronized(this) {
+                if(written.isDone()) {
+                    return;
+                }
+                this.error = error;
+            }
+            written.run();
+        }
+    }
+
+    private final long windowMillis;
+    private final Sink sink;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Batch> pending = new HashMap<>();
+    private long submitted = 0;
+    private long written = 0;
+
+    // @param windowMillis - how long after the first update of a batch it is written
+    public UpdateCoalescer(long windowMillis, Sink sink) {
+        this.windowMillis = windowMillis;
+        this.sink = sink;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "UpdateCoalescer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds updates to the node's batch, starting one if there is none.
+     * @return a future which completes once the batch holding these updates has been written, and fails if the write did
+     */
+    public synchronized Future<?> submit(final String node, Map<String, Object> updates) {
+        submitted++;
+        Batch batch = pending.get(node);
+        if(batch == null) {
+            batch = new Batch();
+            pending.put(node, batch);
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(node);
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        batch.updates.putAll(updates);
+        return batch.written;
+    }
+
+    // Takes the node's batch out, so updates from now on start a new one, and writes it
+    private void flush(String node) {
+        Batch batch;
+        synchronized(this) {
+            batch = pending.remove(node);
+            written++;
+        }
+        try {
+            sink.write(node, batch.updates, batch);
+        } catch(RuntimeException e) {
+            batch.finished(e);
+        }
+    }
+
+    // Updates submitted so far
+    public synchronized long getSubmittedCount() {
+        return submitted;
+    }
+
+    // Merged writes handed to the sink so far, finished or not
+    public synchronized long getWrittenCount() {
+        return written;
+    }
+
+    // Writes the batches still waiting, then stops the thread
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,528 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: UploadQueue.java
+ * Description: This class is the persistent queue every upload goes through. Each upload is written to a journal on disk before
+ * anything is sent, so an image taken while offline, or while the app was being killed, is still uploaded later. A fixed number
+ * of workers take the uploads in order; one that fails is tried again after a delay which doubles with every failure, up to a
+ * limit, so a flaky connection is neither flooded nor given up on. The journal has a byte budget, and when it is full the oldest
+ * upload is thrown away to make room. Uploads are sent by an Uploader, so the queue does not depend on where they go.
+ *
+ * Uploads can be queued at low priority, for ones that can wait(like full size images whose thumbnails were already sent). They are
+ * only sent when no normal upload is due, they never take the last free worker, so a new normal upload never waits behind one, they
+ * are thrown away first when the journal is full, and they can be paused altogether.
+ *
+ * Journal format: every upload is an "<id>.data" file with its bytes and an "<id>.job" properties file with its attempts and
+ * metadata. The job file is written last, through a temporary file which is renamed, so only complete uploads are ever read back;
+ * leftovers of an interrupted write are deleted when the queue starts. */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+public class UploadQueue {
+    // Sends one upload; it is called on a worker thread and may block until the upload is done
+    public interface Uploader {
+        // Throwing marks the attempt as failed, and the upload is tried again later
+        void upload(Job job, byte[] data) throws Exception;
+    }
+
+    // One upload waiting in the journal
+    public static class Job {
+        private final long id;
+        private final long createdMillis;
+        private final Map<String, String> metadata;
+        private final long size;
+        private final boolean lowPriority;
+        private int attempts;
+        private long nextAttemptMillis;
+        private boolean inFlight = false;
+
+        Job(long id, long createdMillis, Map<String, String> metadata, long size, boolean lowPriority, int attempts) {
+            this.id = id;
+            this.createdMillis = createdMillis;
+            this.metadata = Collections.unmodifiableMap(metadata);
+            this.size = size;
+            this.lowPriority = lowPriority;
+            this.attempts = attempts;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        // The metadata the upload was queued with
+        public String get(String key) {
+            return metadata.get(key);
+        }
+
+        // All of the metadata, which cannot be changed
+        public Map<String, String> getMetadata() {
+            return metadata;
+        }
+
+        public boolean isLowPriority() {
+            return lowPriority;
+        }
+
+        // Failed attempts so far
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String JOB_SUFFIX = ".job";
+    private static final String CREATED_KEY = "created";
+    private static final String ATTEMPTS_KEY = "attempts";
+    private static final String LOW_PRIORITY_KEY = "low";
+    private static final String META_PREFIX = "meta.";
+    // Fraction of a backoff delay added at random, so uploads that failed together are not all retried together
+    private static final double BACKOFF_JITTER = 0.2;
+
+    private final File dir;
+    private final long byteBudget;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Uploader uploader;
+    private final Thread[] workers;
+    private final Random random = new Random();
+
+    // Every job in the journal, oldest first
+    private final List<Job> jobs = new ArrayList<>();
+    private long nextId = 0;
+    private long bytes = 0;
+    private boolean stopped = false;
+    private boolean lowPriorityPaused = false;
+    private int lowPriorityInFlight = 0;
+    private long uploaded = 0;
+    private long failures = 0;
+    private long dropped = 0;
+
+    /**
+     * @param dir - directory of the journal, which should belong to this queue only
+     * @param workers - number of uploads sent at the same time
+     * @param byteBudget - most bytes of uploads kept in the journal
+     * @param baseBackoffMillis - delay before the first retry; it doubles with every failure
+     * @param maxBackoffMillis - longest delay between two retries
+     */
+    public UploadQueue(File dir, int workers, long byteBudget, long baseBackoffMillis, long maxBackoffMillis, Uploader uploader) {
+        if(workers < 1 || byteBudget <= 0 || baseBackoffMillis <= 0 || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("Queue needs a worker, a budget, and 0 < base backoff <= max backoff");
+        }
+        this.dir = dir;
+        this.byteBudget = byteBudget;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.uploader = uploader;
+        this.workers = new Thread[workers];
+    }
+
+    /**
+     * Reads back the uploads left in the journal by an earlier run, which are sent first, and starts the workers.
+     */
+    public synchronized void start() throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create upload journal " + dir);
+        }
+        load();
+        for(int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(), "Upload-" + (i + 1));
+            workers[i].setPriority(Thread.NORM_PRIORITY - 1);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Writes an upload to the journal; it is sent once a worker is free. If the journal is over its byte budget, the oldest uploads
+     * not being sent right now are thrown away to make room.
+     * @param metadata - anything the uploader needs to know about the upload(e.g. where it goes)
+     */
+    public void enqueue(Map<String, String> metadata, byte[] data) throws IOException {
+        enqueue(metadata, data, false);
+    }
+
+    /**
+     * Writes an upload to the journal, like enqueue(metadata, data), at the given priority.
+     * @param lowPriority - whether the upload can wait for every normal one(see the class description)
+     */
+    public void enqueue(Map<String, String> metadata, byte[] data, boolean lowPriority) throws IOException {
+        long id;
+        long created = System.currentTimeMillis();
+        synchronized(this) {
+            // The journal has to be read back first, or the new upload would be read back a second time
+            if(workers[0] == null) {
+                throw new IllegalStateException("Upload queue has not been started");
+            }
+            id = nextId++;
+        }
+        // The files are written outside the lock, so the workers are not held up by the disk
+        File dataFile = file(id, DATA_SUFFIX);
+        DurableFiles.write(dataFile, data);
+        Properties props = new Properties();
+        props.setProperty(CREATED_KEY, Long.toString(created));
+        props.setProperty(ATTEMPTS_KEY, "0");
+        props.setProperty(LOW_PRIORITY_KEY, Boolean.toString(lowPriority));
+        for(Map.Entry<String, String> entry : metadata.entrySet()) {
+            props.setProperty(META_PREFIX + entry.getKey(), entry.getValue());
+        }
+        try {
+            writeJob(id, props);
+        } catch(IOException e) {
+            dataFile.delete();
+            throw e;
+        }
+        synchronized(this) {
+            Job job = new Job(id, created, new HashMap<>(metadata), data.length, lowPriority, 0);
+            jobs.add(job);
+            bytes += job.size;
+            trim();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Delay before the next attempt of an upload which has failed the given number of times, without the random jitter.
+     */
+    public long backoffMillis(int attempts) {
+        if(attempts <= 0) {
+            return 0;
+        }
+        // Shifting further than this would overflow, and is far past any sensible maximum anyway
+        int shift = Math.min(attempts - 1, 30);
+        return Math.min(maxBackoffMillis, baseBackoffMillis << shift);
+    }
+
+    // Sends every waiting upload as soon as a worker is free, e.g. once the phone is back online
+    public synchronized void retryNow() {
+        for(Job job : jobs) {
+            job.nextAttemptMillis = 0;
+        }
+        notifyAll();
+    }
+
+    // Holds the low priority uploads back(the ones being sent finish), e.g. to keep a slow connection for the normal ones
+    public synchronized void setLowPriorityPaused(boolean paused) {
+        lowPriorityPaused = paused;
+        notifyAll();
+    }
+
+    public synchronized boolean isLowPriorityPaused() {
+        return lowPriorityPaused;
+    }
+
+    // Stops the workers after the uploads they are sending; what is left stays in the journal for the next start()
+    public void stop() {
+        synchronized(this) {
+            stopped = true;
+            notifyAll();
+        }
+        for(Thread worker : workers) {
+            if(worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    // Number of uploads in the journal, including the ones being sent
+    public synchronized int getDepth() {
+        return jobs.size();
+    }
+
+    // Number of low priority uploads in the journal
+    public synchronized int getLowPriorityDepth() {
+        int depth = 0;
+        for(Job job : jobs) {
+            if(job.lowPriority) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    // Bytes of uploads in the journal
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    // How long the oldest upload has been waiting, or 0 if there is none
+    public synchronized long getOldestAgeMillis() {
+        return jobs.isEmpty() ? 0 : Math.max(0, System.currentTimeMillis() - jobs.get(0).createdMillis);
+    }
+
+    public synchronized long getUploadedCount() {
+        return uploaded;
+    }
+
+    // Attempts which failed and were tried again
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    // Uploads thrown away because the journal was full
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "depth=" + jobs.size() + "(" + getLowPriorityDepth() + " low" + (lowPriorityPaused ? ", paused" : "") + ")"
+                + ", bytes=" + bytes + ", oldest=" + getOldestAgeMillis() / 1000 + "s, uploaded=" + uploaded
+                + ", failures=" + failures + ", dropped=" + dropped;
+    }
+
+    // Waits for the upload that should be sent next; returns null once stopped
+    private synchronized Job take() throws InterruptedException {
+        while(!stopped) {
+            long now = System.currentTimeMillis();
+            // One worker is always kept for normal uploads, unless there is only one
+            boolean lowAllowed = !lowPriorityPaused && lowPriorityInFlight < Math.max(1, workers.length - 1);
+            Job next = null;
+            for(Job job : jobs) {
+                if(!job.inFlight && (lowAllowed || !job.lowPriority) && (next == null || before(job, next, now))) {
+                    next = job;
+                }
+            }
+            long wait = next == null ? 0 : next.nextAttemptMillis - now;
+            if(next != null && wait <= 0) {
+                next.inFlight = true;
+                if(next.lowPriority) {
+                    lowPriorityInFlight++;
+                }
+                return next;
+            }
+            wait(Math.max(0, wait));
+        }
+        return null;
+    }
+
+    // Whether a should be sent before b: uploads that are due first, normal ones before low priority ones, then the earliest due
+    private static boolean before(Job a, Job b, long now) {
+        boolean aDue = a.nextAttemptMillis <= now;
+        boolean bDue = b.nextAttemptMillis <= now;
+        if(aDue != bDue) {
+            return aDue;
+        }
+        if(aDue && a.lowPriority != b.lowPriority) {
+            return !a.lowPriority;
+        }
+        return a.nextAttemptMillis < b.nextAttemptMillis;
+    }
+
+    // A worker is done with the upload, whatever happened to it
+    private void release(Job job) {
+        if(job.inFlight) {
+            job.inFlight = false;
+            if(job.lowPriority) {
+                lowPriorityInFlight--;
+            }
+        }
+        notifyAll();
+    }
+
+    // The upload went through(or its data is gone and it never can), so it leaves the journal
+    private synchronized void remove(Job job, boolean sent) {
+        release(job);
+        if(jobs.remove(job)) {
+            bytes -= job.size;
+        }
+        if(sent) {
+            uploaded++;
+        } else {
+            dropped++;
+        }
+        file(job.id, JOB_SUFFIX).delete();
+        file(job.id, DATA_SUFFIX).delete();
+    }
+
+    // The upload failed, so it waits out its backoff; the new attempt count is saved so it survives a restart
+    private void fail(Job job) {
+        Properties props = null;
+        synchronized(this) {
+            failures++;
+            job.attempts++;
+            long delay = backoffMillis(job.attempts);
+            job.nextAttemptMillis = System.currentTimeMillis() + delay + (long) (delay * BACKOFF_JITTER * random.nextDouble());
+            release(job);
+            if(jobs.contains(job)) {
+                props = readJob(job.id);
+            }
+        }
+        if(props != null) {
+            props.setProperty(ATTEMPTS_KEY, Integer.toString(job.attempts));
+            try {
+                writeJob(job.id, props);
+            } catch(IOException e) {
+                // Only the attempt count is lost; the upload itself is still in the journal
+            }
+        }
+    }
+
+    // Throws the oldest uploads away while the journal is over budget, low priority ones first, keeping at least the newest one
+    private void trim() {
+        trim(true);
+        trim(false);
+    }
+
+    private void trim(boolean lowPriorityOnly) {
+        for(int i = 0; bytes > byteBudget && i < jobs.size() - 1; ) {
+            Job job = jobs.get(i);
+            if(job.inFlight || (lowPriorityOnly && !job.lowPriority)) {
+                i++;
+                continue;
+            }
+            jobs.remove(i);
+            bytes -= job.size;
+            dropped++;
+            file(job.id, JOB_SUFFIX).delete();
+            file(job.id, DATA_SUFFIX).delete();
+        }
+    }
+
+    // Reads the journal back, oldest first, and deletes whatever an interrupted write left behind
+    private void load() {
+        String[] names = dir.list();
+        if(names == null) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        for(String name : names) {
+            if(name.endsWith(JOB_SUFFIX)) {
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - JOB_SUFFIX.length())));
+                } catch(NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(ids);
+        for(long id : ids) {
+            File dataFile = file(id, DATA_SUFFIX);
+            Properties props = readJob(id);
+            if(props == null || !dataFile.isFile()) {
+                file(id, JOB_SUFFIX).delete();
+                dataFile.delete();
+                continue;
+            }
+            Map<String, String> metadata = new HashMap<>();
+            for(String key : props.stringPropertyNames()) {
+                if(key.startsWith(META_PREFIX)) {
+                    metadata.put(key.substring(META_PREFIX.length()), props.getProperty(key));
+                }
+            }
+            Job job = new Job(id, parseLong(props.getProperty(CREATED_KEY)), metadata, dataFile.length(),
+                    Boolean.parseBoolean(props.getProperty(LOW_PRIORITY_KEY)), (int) parseLong(props.getProperty(ATTEMPTS_KEY)));
+            jobs.add(job);
+            bytes += job.size;
+            nextId = Math.max(nextId, id + 1);
+        }
+        // Data files without a job file, and temporary files, are writes that never finished
+        Set<String> present = new HashSet<>(Arrays.asList(names));
+        for(String name : names) {
+            if(name.endsWith(DurableFiles.TMP_SUFFIX)) {
+                new File(dir, name).delete();
+            } else if(name.endsWith(DATA_SUFFIX) && !present.contains(name.replace(DATA_SUFFIX, JOB_SUFFIX))) {
+                new File(dir, name).delete();
+            }
+        }
+        trim();
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value == null ? 0 : Long.parseLong(value);
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private File file(long id, String suffix) {
+        return new File(dir, id + suffix);
+    }
+
+    private Properties readJob(long id) {
+        Properties props = new Properties();
+        try {
+            InputStream in = new FileInputStream(file(id, JOB_SUFFIX));
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            return props;
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    // Writes the job file through a temporary file, so a crash leaves either the old file or the new one
+    private void writeJob(long id, Properties props) throws IOException {
+        DurableFiles.replace(file(id, JOB_SUFFIX), props);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while(read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if(n < 0) {
+                    throw new IOException("Upload data ended early: " + file);
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    // Takes uploads one at a time until the queue stops
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while(true) {
+                Job job;
+                try {
+                    job = take();
+                } catch(InterruptedException e) {
+                    return;
+                }
+                if(job == null) {
+                    return;
+                }
+                byte[] data;
+                try {
+                    data = read(file(job.id, DATA_SUFFIX));
+                } catch(IOException e) {
+                    remove(job, false);
+                    continue;
+                }
+                try {
+                    uploader.upload(job, data);
+                    remove(job, true);
+                } catch(Exception e) {
+                    fail(job);
+                }
+            }
+        }
+    }
+}
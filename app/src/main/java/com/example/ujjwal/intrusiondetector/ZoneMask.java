@@ -0,0 +1,153 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: ZoneMask.java
+ * Description: This class is a set of detection zones compiled for one frame size, as row spans: for every row, the runs of
+ * pixels which are looked at. Loops over a frame walk the spans instead of testing every pixel, so excluded pixels are never
+ * read at all, and the box around all included pixels lets the OpenCV detectors crop the frame before any work is done. */
+
+import java.util.Arrays;
+
+public class ZoneMask {
+    private final int width;
+    private final int height;
+    // The spans of row y are the pairs spans[rowIndex[y]] ... spans[rowIndex[y + 1] - 1], each a start and end(exclusive) column
+    private final int[] rowIndex;
+    private final int[] spans;
+    // Box around every included pixel, right and bottom exclusive; empty(0, 0, 0, 0) if nothing is included
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+    private final int includedPixels;
+    private final boolean rectangular;
+
+    ZoneMask(int width, int height, int[] rowIndex, int[] spans) {
+        this.width = width;
+        this.height = height;
+        this.rowIndex = rowIndex;
+        this.spans = spans;
+        int minX = width, minY = height, maxX = 0, maxY = 0, pixels = 0;
+        for(int y = 0; y < height; y++) {
+            for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+                minX = Math.min(minX, spans[s]);
+                maxX = Math.max(maxX, spans[s + 1]);
+                pixels += spans[s + 1] - spans[s];
+                minY = Math.min(minY, y);
+                maxY = y + 1;
+            }
+        }
+        includedPixels = pixels;
+        if(pixels == 0) {
+            left = top = right = bottom = 0;
+        } else {
+            left = minX;
+            top = minY;
+            right = maxX;
+            bottom = maxY;
+        }
+        rectangular = pixels == (right - left) * (bottom - top);
+    }
+
+    // A mask which includes every pixel
+    public static ZoneMask everywhere(int width, int height) {
+        return DetectionZones.EVERYWHERE.compile(width, height);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Index into getSpans() of row y's first span; row y's spans end where row y + 1's start, and the array has height + 1 entries
+    public int[] getRowIndex() {
+        return rowIndex;
+    }
+
+    // Start and end(exclusive) columns of every span, row by row; the array must not be modified
+    public int[] getSpans() {
+        return spans;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    public int getIncludedPixels() {
+        return includedPixels;
+    }
+
+    public boolean isEmpty() {
+        return includedPixels == 0;
+    }
+
+    // Whether every pixel of the frame is included
+    public boolean isFull() {
+        return includedPixels == width * height;
+    }
+
+    // Whether the included pixels fill their box exactly, so cropping to it is all that is needed
+    public boolean isRectangular() {
+        return rectangular;
+    }
+
+    public boolean contains(int x, int y) {
+        if(y < 0 || y >= height) {
+            return false;
+        }
+        for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+            if(x >= spans[s] && x < spans[s + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether any pixel of a box is included, e.g. to skip tiles which lie wholly in an excluded zone
+    public boolean intersects(int x, int y, int boxWidth, int boxHeight) {
+        int x1 = x + boxWidth;
+        for(int row = Math.max(0, y); row < Math.min(height, y + boxHeight); row++) {
+            for(int s = rowIndex[row]; s < rowIndex[row + 1]; s += 2) {
+                if(spans[s] < x1 && spans[s + 1] > x) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Packs the excluded pixels inside the box(getLeft() ... getBottom()) into a byte per pixel mask, for the OpenCV detectors.
+     * @return (box width) * (box height) bytes, -1(255) where a pixel is excluded and 0 where it is included
+     */
+    public byte[] excludedInBox() {
+        int boxWidth = right - left;
+        byte[] mask = new byte[boxWidth * (bottom - top)];
+        Arrays.fill(mask, (byte) -1);
+        for(int y = top; y < bottom; y++) {
+            int row = (y - top) * boxWidth - left;
+            for(int s = rowIndex[y]; s < rowIndex[y + 1]; s += 2) {
+                for(int x = spans[s]; x < spans[s + 1]; x++) {
+                    mask[row + x] = 0;
+                }
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the adaptive analysis rate, driven by a simulated 30fps camera.
+ */
+public class AnalysisRateSchedulerTest {
+    private static final long MS = 1000000L;
+    private static final long FRAME = 1000000000L / 30;
+
+    // Feeds one second of frames, each analysis costing costMs, and returns how many were analysed
+    private static int runSecond(AnalysisRateScheduler scheduler, long start, long costMs) {
+        int analysed = 0;
+        for(int i = 0; i < 30; i++) {
+            long now = start + i * FRAME;
+            if(scheduler.offer(now)) {
+                analysed++;
+                scheduler.record(costMs * MS, false, now + costMs * MS);
+            }
+        }
+        return analysed;
+    }
+
+    @Test
+    public void cheapAnalysis_runsAtMaxRate() {
+        AnalysisRateScheduler scheduler = new AnalysisRateScheduler(2, 30, 0.25, 5000 * MS);
+        runSecond(scheduler, 0, 2);
+        assertEquals(30, runSecond(scheduler, 1000 * MS, 2));
+        assertEquals(30, scheduler.getRate(), 0.001);
+    }
+
+    @Test
+    public void expensiveAnalysis_holdsTheBudget() {
+        AnalysisRateScheduler scheduler = new AnalysisRateScheduler(2, 30, 0.25, 5000 * MS);
+        for(int s = 0; s < 5; s++) {
+            runSecond(scheduler, s * 1000 * MS, 25);
+        }
+        // 25ms per frame within a quarter of a core is 10fps
+        assertEquals(10, scheduler.getRate(), 0.5);
+        int analysed = runSecond(scheduler, 5000 * MS, 25);
+        assertTrue("Analysed " + analysed, analysed >= 9 && analysed <= 11);
+    }
+
+    @Test
+    public void veryExpensiveAnalysis_staysAtMinRate() {
+        AnalysisRateScheduler scheduler = new AnalysisRateScheduler(2, 30, 0.25, 5000 * MS);
+        for(int s = 0; s < 5; s++) {
+            runSecond(scheduler, s * 1000 * MS, 500);
+        }
+        assertEquals(2, scheduler.getRate(), 0.001);
+    }
+
+    @Test
+    public void motion_boostsUntilTheBoostRunsOut() {
+        AnalysisRateScheduler scheduler = new AnalysisRateScheduler(2, 30, 0.25, 2000 * MS);
+        for(int s = 0; s < 5; s++) {
+            runSecond(scheduler, s * 1000 * MS, 50);
+        }
+        assertEquals(5, scheduler.getRate(), 0.5);
+
+        // Motion is found in the next frame which is analysed
+        long now = 5000 * MS;
+        while(!scheduler.offer(now)) {
+            now += FRAME;
+        }
+        scheduler.record(50 * MS, true, now);
+        assertTrue(scheduler.isBoosted());
+        assertEquals(30, scheduler.getRate(), 0.001);
+
+        // Frames are analysed at the full camera rate while the boost lasts
+        int analysed = 0;
+        for(int i = 1; i < 30; i++) {
+            if(scheduler.offer(now + i * FRAME)) {
+                analysed++;
+            }
+        }
+        assertEquals(29, analysed);
+
+        scheduler.offer(now + 2500 * MS);
+        assertFalse(scheduler.isBoosted());
+        assertEquals(5, scheduler.getRate(), 0.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invertedRates_areRejected() {
+        new AnalysisRateScheduler(10, 5, 0.25, 0);
+    }
+}
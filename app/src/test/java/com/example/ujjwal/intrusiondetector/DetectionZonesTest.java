@@ -0,0 +1,78 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for parsing detection zones and compiling them into row spans.
+ */
+public class DetectionZonesTest {
+
+    @Test
+    public void blankSpec_isEverywhere() {
+        assertTrue(DetectionZones.parse(null).isEverywhere());
+        assertTrue(DetectionZones.parse(" ").isEverywhere());
+        ZoneMask mask = DetectionZones.EVERYWHERE.compile(40, 30);
+        assertTrue(mask.isFull());
+        assertTrue(mask.isRectangular());
+        assertEquals(2 * 30, mask.getSpans().length);
+    }
+
+    @Test
+    public void spec_roundTrips() {
+        String spec = "+0,0,1,1;-0.6,0,1,0.5";
+        assertEquals(spec, DetectionZones.parse(spec).toString());
+        assertEquals(DetectionZones.parse(spec), DetectionZones.parse(" +0, 0, 1, 1 ; -0.6,0,1,0.5;"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingSign_isRejected() {
+        DetectionZones.parse("0,0,1,1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void boxOutsideFrame_isRejected() {
+        DetectionZones.parse("-0.5,0,1.5,1");
+    }
+
+    @Test
+    public void exclusion_splitsRowsIntoSpans() {
+        // 100x100 frame with the middle 40x40 excluded
+        ZoneMask mask = DetectionZones.parse("-0.3,0.3,0.7,0.7").compile(100, 100);
+        assertEquals(100 * 100 - 40 * 40, mask.getIncludedPixels());
+        assertFalse(mask.isRectangular());
+        assertTrue(mask.contains(29, 50));
+        assertFalse(mask.contains(30, 50));
+        assertTrue(mask.contains(70, 50));
+        int[] rowIndex = mask.getRowIndex();
+        assertEquals(2, rowIndex[11] - rowIndex[10]);
+        assertEquals(4, rowIndex[51] - rowIndex[50]);
+        assertFalse(mask.intersects(35, 35, 30, 30));
+        assertTrue(mask.intersects(25, 35, 30, 30));
+    }
+
+    @Test
+    public void include_limitsBoxAndExcludeWins() {
+        ZoneMask mask = DetectionZones.parse("+0.5,0,1,0.5;-0.5,0,0.75,0.25").compile(200, 100);
+        assertEquals(100, mask.getLeft());
+        assertEquals(0, mask.getTop());
+        assertEquals(200, mask.getRight());
+        assertEquals(50, mask.getBottom());
+        assertFalse(mask.contains(120, 10));
+        assertTrue(mask.contains(160, 10));
+        assertTrue(mask.contains(120, 30));
+
+        byte[] excluded = mask.excludedInBox();
+        assertEquals(100 * 50, excluded.length);
+        assertEquals(-1, excluded[10 * 100 + 20]);
+        assertEquals(0, excluded[30 * 100 + 20]);
+    }
+
+    @Test
+    public void everythingExcluded_isEmpty() {
+        ZoneMask mask = DetectionZones.parse("-0,0,1,1").compile(64, 48);
+        assertTrue(mask.isEmpty());
+        assertEquals(0, mask.getSpans().length);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the saved IDs of remote folders.
+ */
+public class FolderIdCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ids_surviveARestart() throws Exception {
+        File file = new File(folder.getRoot(), "ids/folders.properties");
+        FolderIdCache cache = new FolderIdCache(file);
+        assertNull(cache.get("account/Images"));
+        cache.put("account/Images", "DriveId:abc");
+        cache.put("other/Images", "DriveId:def");
+        FolderIdCache restarted = new FolderIdCache(file);
+        assertEquals("DriveId:abc", restarted.get("account/Images"));
+        assertEquals("DriveId:def", restarted.get("other/Images"));
+        assertEquals(1, file.getParentFile().list().length);
+    }
+
+    @Test
+    public void removedIds_stayRemoved() throws Exception {
+        File file = folder.newFile();
+        FolderIdCache cache = new FolderIdCache(file);
+        cache.put("account/Images", "DriveId:abc");
+        cache.remove("account/Images");
+        assertNull(cache.get("account/Images"));
+        assertNull(new FolderIdCache(file).get("account/Images"));
+    }
+
+    @Test
+    public void unreadableFile_isAnEmptyCache() throws Exception {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        // A malformed unicode escape
+        out.write("key=\\uZZZZ".getBytes("ISO-8859-1"));
+        out.close();
+        FolderIdCache cache = new FolderIdCache(file);
+        assertNull(cache.get("key"));
+        cache.put("key", "id");
+        assertEquals("id", new FolderIdCache(file).get("key"));
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the bounded frame analysis engine.
+ */
+public class FrameAnalysisEngineTest {
+
+    // A task which blocks its worker until the test releases it
+    private static class BlockingTask extends FrameAnalysisEngine.FrameTask {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release;
+        boolean dropped;
+
+        BlockingTask(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        protected void onDropped() {
+            dropped = true;
+        }
+    }
+
+    @Test
+    public void dropOldest_keepsLatestFrame() throws Exception {
+        FrameAnalysisEngine engine = new FrameAnalysisEngine(1, 1, FrameAnalysisEngine.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingTask busy = new BlockingTask(release);
+        assertTrue(engine.submit(busy));
+        assertTrue(busy.started.await(5, TimeUnit.SECONDS));
+
+        BlockingTask older = new BlockingTask(release);
+        BlockingTask newer = new BlockingTask(release);
+        assertTrue(engine.submit(older));
+        assertTrue(engine.submit(newer));
+        assertTrue(older.dropped);
+        assertFalse(newer.dropped);
+        assertEquals(1, engine.getQueueDepth());
+
+        release.countDown();
+        assertTrue(newer.started.await(5, TimeUnit.SECONDS));
+        engine.shutdown();
+        assertTrue(engine.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, engine.getAcceptedCount());
+        assertEquals(1, engine.getDroppedCount());
+        assertEquals(2, engine.getAnalysedCount());
+    }
+
+    @Test
+    public void dropNewest_rejectsIncomingFrame() throws Exception {
+        FrameAnalysisEngine engine = new FrameAnalysisEngine(1, 1, FrameAnalysisEngine.OverflowPolicy.DROP_NEWEST);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingTask busy = new BlockingTask(release);
+        engine.submit(busy);
+        assertTrue(busy.started.await(5, TimeUnit.SECONDS));
+
+        BlockingTask queued = new BlockingTask(release);
+        BlockingTask rejected = new BlockingTask(release);
+        assertTrue(engine.submit(queued));
+        assertFalse(engine.submit(rejected));
+        assertFalse(queued.dropped);
+        assertTrue(rejected.dropped);
+
+        release.countDown();
+        assertTrue(queued.started.await(5, TimeUnit.SECONDS));
+        engine.shutdown();
+        assertTrue(engine.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, engine.getDroppedCount());
+        assertEquals(2, engine.getAnalysedCount());
+    }
+
+    @Test
+    public void shutdown_dropsAndFreesWaitingFrames() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        FrameAnalysisEngine engine = new FrameAnalysisEngine(1, 4, FrameAnalysisEngine.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingTask busy = new BlockingTask(release);
+        engine.submit(busy);
+        assertTrue(busy.started.await(5, TimeUnit.SECONDS));
+        BlockingTask waiting = new BlockingTask(release);
+        engine.submit(waiting);
+
+        engine.shutdown();
+        release.countDown();
+        assertTrue(engine.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(waiting.dropped);
+        assertFalse(engine.submit(new FrameAnalysisEngine.FrameTask() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }));
+        assertEquals(0, runs.get());
+        assertEquals(2, engine.getDroppedCount());
+        assertEquals(1, engine.getAnalysedCount());
+    }
+
+    @Test
+    public void shutdown_runsTheActionOnceTheLastFrameIsDone() throws Exception {
+        FrameAnalysisEngine engine = new FrameAnalysisEngine(1, 1, FrameAnalysisEngine.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingTask busy = new BlockingTask(release);
+        engine.submit(busy);
+        assertTrue(busy.started.await(5, TimeUnit.SECONDS));
+        final CountDownLatch terminated = new CountDownLatch(1);
+        engine.shutdown(new Runnable() {
+            @Override
+            public void run() {
+                terminated.countDown();
+            }
+        });
+        // Still analysing, so shutting down did not wait and the action has not run
+        assertEquals(1, terminated.getCount());
+        release.countDown();
+        assertTrue(terminated.await(5, TimeUnit.SECONDS));
+
+        // With nothing being analysed, the action runs as soon as the idle worker stops
+        FrameAnalysisEngine idle = new FrameAnalysisEngine(1, 1, FrameAnalysisEngine.OverflowPolicy.DROP_OLDEST);
+        final AtomicInteger runs = new AtomicInteger();
+        idle.shutdown(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+        assertTrue(idle.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the ring of recent frames that incidents are cut from.
+ */
+public class IncidentBufferTest {
+    private static final long MS = 1000000L;
+    private static final List<Rect> REGIONS = Collections.singletonList(new Rect(1, 2, 3, 4));
+
+    private static byte[] frame(int size) {
+        return new byte[size];
+    }
+
+    @Test
+    public void ring_keepsOnlyThePreEventWindow() {
+        IncidentBuffer buffer = new IncidentBuffer(1000 * MS, 1000 * MS, 1000000);
+        for(int i = 0; i <= 20; i++) {
+            buffer.add(i * 200 * MS, frame(10));
+        }
+        // Frames 3000ms to 4000ms
+        assertEquals(6, buffer.getRingSize());
+        assertEquals(60, buffer.getRingBytes());
+    }
+
+    @Test
+    public void ring_neverGoesOverTheByteBudget() {
+        IncidentBuffer buffer = new IncidentBuffer(60000 * MS, 1000 * MS, 1000);
+        for(int i = 0; i < 500; i++) {
+            buffer.add(i * 100 * MS, frame(90 + i % 20));
+            assertTrue(buffer.getRingBytes() <= 1000);
+        }
+        assertTrue(buffer.getRingSize() >= 9);
+    }
+
+    @Test
+    public void trigger_freezesThePastAndAddsTheFuture() {
+        IncidentBuffer buffer = new IncidentBuffer(1000 * MS, 600 * MS, 1000000);
+        for(int i = 0; i < 10; i++) {
+            assertNull(buffer.add(i * 200 * MS, frame(10)));
+        }
+        assertTrue(buffer.trigger(1800 * MS, 5000, REGIONS));
+        assertTrue(buffer.isRecording());
+        assertNull(buffer.add(2000 * MS, frame(10)));
+        assertNull(buffer.add(2200 * MS, frame(10)));
+        Incident incident = buffer.add(2400 * MS, frame(10));
+        assertNotNull(incident);
+        assertFalse(buffer.isRecording());
+        // 800ms to 1800ms before, then 2000ms to 2400ms after
+        assertEquals(6, incident.getPreEventCount());
+        assertEquals(9, incident.getFrames().size());
+        assertEquals(800 * MS, incident.getFrames().get(0).timestamp);
+        assertEquals(2400 * MS, incident.getFrames().get(8).timestamp);
+        assertEquals(90, incident.getByteCount());
+        assertEquals(5000, incident.getTriggerTimeMillis());
+        assertEquals(REGIONS, incident.getRegions());
+        assertEquals(1, buffer.getCompletedCount());
+    }
+
+    @Test
+    public void lateFramesFromBeforeTheTrigger_countAsPreEvent() {
+        IncidentBuffer buffer = new IncidentBuffer(1000 * MS, 400 * MS, 1000000);
+        buffer.add(0, frame(10));
+        buffer.trigger(400 * MS, 0, REGIONS);
+        // Compressed after the trigger was already set
+        buffer.add(200 * MS, frame(10));
+        buffer.add(400 * MS, frame(10));
+        Incident incident = buffer.add(800 * MS, frame(10));
+        assertNotNull(incident);
+        assertEquals(3, incident.getPreEventCount());
+        assertEquals(4, incident.getFrames().size());
+    }
+
+    @Test
+    public void triggersWhileRecording_areIgnored() {
+        IncidentBuffer buffer = new IncidentBuffer(1000 * MS, 1000 * MS, 1000000);
+        buffer.add(0, frame(10));
+        assertTrue(buffer.trigger(0, 0, REGIONS));
+        assertFalse(buffer.trigger(100 * MS, 0, REGIONS));
+        assertEquals(1, buffer.getIgnoredCount());
+    }
+
+    @Test
+    public void continuousMotion_keepsMemoryBounded() {
+        IncidentBuffer buffer = new IncidentBuffer(5000 * MS, 5000 * MS, 2000);
+        int incidents = 0;
+        for(int i = 0; i < 2000; i++) {
+            long now = i * 100 * MS;
+            buffer.trigger(now, 0, REGIONS);
+            Incident incident = buffer.add(now + 1, frame(100));
+            if(incident != null) {
+                incidents++;
+                assertTrue(incident.getByteCount() <= 2 * 2000 + 100);
+            }
+            assertTrue(buffer.getRingBytes() <= 2000);
+        }
+        assertTrue(incidents > 0);
+    }
+
+    @Test
+    public void clear_dropsTheRingAndTheOpenIncident() {
+        IncidentBuffer buffer = new IncidentBuffer(1000 * MS, 1000 * MS, 1000000);
+        buffer.add(0, frame(10));
+        buffer.trigger(0, 0, REGIONS);
+        buffer.clear();
+        assertFalse(buffer.isRecording());
+        assertEquals(0, buffer.getRingSize());
+        assertEquals(0, buffer.getRingBytes());
+    }
+}
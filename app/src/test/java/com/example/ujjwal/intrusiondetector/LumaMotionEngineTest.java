@@ -0,0 +1,178 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the plain Java motion pipeline, run on synthetic NV21 luma planes.
+ */
+public class LumaMotionEngineTest {
+    private static final int SRC_WIDTH = 640;
+    private static final int SRC_HEIGHT = 480;
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    // A flat gray frame with some fixed texture so the blur has something to work on
+    private static byte[] background() {
+        byte[] frame = new byte[SRC_WIDTH * SRC_HEIGHT * 3 / 2];
+        for(int y = 0; y < SRC_HEIGHT; y++) {
+            for(int x = 0; x < SRC_WIDTH; x++) {
+                frame[y * SRC_WIDTH + x] = (byte) (100 + ((x / 16 + y / 16) % 2) * 10);
+            }
+        }
+        return frame;
+    }
+
+    // Paints a bright square into the luma plane, in source pixels
+    private static byte[] withSquare(byte[] frame, int left, int top, int size) {
+        byte[] copy = Arrays.copyOf(frame, frame.length);
+        for(int y = top; y < top + size; y++) {
+            for(int x = left; x < left + size; x++) {
+                copy[y * SRC_WIDTH + x] = (byte) 230;
+            }
+        }
+        return copy;
+    }
+
+    @Test
+    public void staticScene_hasNoMotion() {
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500);
+        byte[] frame = background();
+        for(int i = 0; i < 5; i++) {
+            assertEquals(0, engine.process(frame, 0, SRC_WIDTH));
+        }
+    }
+
+    @Test
+    public void movingObject_isReportedWithItsBox() {
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500);
+        byte[] frame = background();
+        engine.process(frame, 0, SRC_WIDTH);
+        assertEquals(1, engine.process(withSquare(frame, 200, 160, 120), 0, SRC_WIDTH));
+
+        // The square covers 60x60 analysis pixels at (100, 80); blur and dilation grow the box a little
+        int[] box = engine.getRegions();
+        assertTrue(box[0] <= 100 && box[0] >= 80);
+        assertTrue(box[1] <= 80 && box[1] >= 60);
+        assertTrue(box[0] + box[2] >= 160 && box[0] + box[2] <= 180);
+        assertTrue(box[1] + box[3] >= 140 && box[1] + box[3] <= 160);
+    }
+
+    @Test
+    public void smallObject_isIgnored() {
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 2000);
+        byte[] frame = background();
+        engine.process(frame, 0, SRC_WIDTH);
+        assertEquals(0, engine.process(withSquare(frame, 300, 200, 20), 0, SRC_WIDTH));
+        assertEquals(1, engine.process(withSquare(frame, 300, 200, 160), 0, SRC_WIDTH));
+    }
+
+    @Test
+    public void separateObjects_areSeparateRegions() {
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500);
+        byte[] frame = background();
+        engine.process(frame, 0, SRC_WIDTH);
+        assertEquals(2, engine.process(withSquare(withSquare(frame, 20, 20, 100), 480, 320, 100), 0, SRC_WIDTH));
+    }
+
+    @Test
+    public void background_adaptsToPermanentChange() {
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 5, 5, 2, 500, 0.5);
+        byte[] frame = background();
+        engine.process(frame, 0, SRC_WIDTH);
+        byte[] moved = withSquare(frame, 200, 160, 120);
+        assertEquals(1, engine.process(moved, 0, SRC_WIDTH));
+        int count = 1;
+        for(int i = 0; i < 20 && count > 0; i++) {
+            count = engine.process(moved, 0, SRC_WIDTH);
+        }
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void reset_makesNextFrameTheReference() {
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500);
+        byte[] frame = background();
+        engine.process(frame, 0, SRC_WIDTH);
+        engine.reset();
+        byte[] moved = withSquare(frame, 200, 160, 120);
+        assertEquals(0, engine.process(moved, 0, SRC_WIDTH));
+        assertEquals(0, engine.process(moved, 0, SRC_WIDTH));
+    }
+
+    @Test
+    public void rowStrideAndOffset_areHonoured() {
+        int stride = SRC_WIDTH + 32;
+        int offset = 64;
+        byte[] frame = background();
+        byte[] moved = withSquare(frame, 200, 160, 120);
+        byte[] paddedFrame = new byte[offset + stride * SRC_HEIGHT];
+        byte[] paddedMoved = new byte[offset + stride * SRC_HEIGHT];
+        for(int y = 0; y < SRC_HEIGHT; y++) {
+            System.arraycopy(frame, y * SRC_WIDTH, paddedFrame, offset + y * stride, SRC_WIDTH);
+            System.arraycopy(moved, y * SRC_WIDTH, paddedMoved, offset + y * stride, SRC_WIDTH);
+        }
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500);
+        engine.process(paddedFrame, offset, stride);
+        assertEquals(1, engine.process(paddedMoved, offset, stride));
+    }
+
+    @Test
+    public void excludedZone_hidesItsMotion() {
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500);
+        // The left half of the frame is ignored
+        engine.setZones(DetectionZones.parse("-0,0,0.5,1").compile(WIDTH, HEIGHT));
+        byte[] frame = background();
+        engine.process(frame, 0, SRC_WIDTH);
+        assertEquals(0, engine.process(withSquare(frame, 20, 20, 100), 0, SRC_WIDTH));
+        assertEquals(1, engine.process(withSquare(frame, 480, 320, 100), 0, SRC_WIDTH));
+        assertTrue(engine.getRegions()[0] >= WIDTH / 2);
+    }
+
+    @Test
+    public void blobCrossingZoneEdge_isClipped() {
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500);
+        engine.setZones(DetectionZones.parse("+0.5,0,1,1").compile(WIDTH, HEIGHT));
+        byte[] frame = background();
+        engine.process(frame, 0, SRC_WIDTH);
+        assertEquals(1, engine.process(withSquare(frame, 240, 160, 160), 0, SRC_WIDTH));
+        assertEquals(WIDTH / 2, engine.getRegions()[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortBuffer_isRejected() {
+        new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500).process(new byte[SRC_WIDTH], 0, SRC_WIDTH);
+    }
+
+    @Test
+    public void steadyState_allocatesNothing() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        LumaMotionEngine engine = new LumaMotionEngine(SRC_WIDTH, SRC_HEIGHT, WIDTH, HEIGHT, 500);
+        byte[] frame = background();
+        byte[] moved = withSquare(frame, 200, 160, 120);
+        // Warm up so class loading and compilation are out of the way
+        for(int i = 0; i < 20; i++) {
+            engine.process(i % 2 == 0 ? frame : moved, 0, SRC_WIDTH);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < 20; i++) {
+            engine.process(i % 2 == 0 ? frame : moved, 0, SRC_WIDTH);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        // Leave room for the measurement itself, but nothing near a frame's worth of buffers
+        assertTrue("Allocated " + allocated + " bytes", allocated < 4096);
+    }
+}
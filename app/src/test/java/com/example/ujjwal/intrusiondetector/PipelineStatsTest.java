@@ -0,0 +1,72 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the frame rate and CPU figures of the pipeline.
+ */
+public class PipelineStatsTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void firstSample_onlyStartsTheWindow() {
+        PipelineStats stats = new PipelineStats();
+        stats.frameDelivered(0);
+        stats.sample(1000 * MS, 500 * MS);
+        assertEquals(0, stats.getCameraFps(), 0.001);
+        assertEquals(0, stats.getCpuLoad(), 0.001);
+        assertEquals(1, stats.getFrameCount());
+    }
+
+    @Test
+    public void window_givesRatesAndLoad() {
+        PipelineStats stats = new PipelineStats();
+        stats.sample(0, 0);
+        for(int i = 0; i < 60; i++) {
+            stats.frameDelivered(i);
+            if(i % 3 == 0) {
+                stats.frameAnalysed();
+            }
+        }
+        // 2 seconds, in which the process used 0.5 seconds of CPU
+        stats.sample(2000 * MS, 500 * MS);
+        assertEquals(30, stats.getCameraFps(), 0.001);
+        assertEquals(10, stats.getAnalysisFps(), 0.001);
+        assertEquals(0.25, stats.getCpuLoad(), 0.001);
+    }
+
+    @Test
+    public void nextWindow_onlyCountsItsOwnFrames() {
+        PipelineStats stats = new PipelineStats();
+        stats.sample(0, 0);
+        for(int i = 0; i < 30; i++) {
+            stats.frameDelivered(i);
+        }
+        stats.sample(1000 * MS, 100 * MS);
+        for(int i = 30; i < 45; i++) {
+            stats.frameDelivered(i);
+        }
+        stats.sample(2000 * MS, 300 * MS);
+        assertEquals(15, stats.getCameraFps(), 0.001);
+        assertEquals(0.2, stats.getCpuLoad(), 0.001);
+        assertEquals(45, stats.getFrameCount());
+    }
+
+    @Test
+    public void sequenceGaps_countAsDropped() {
+        PipelineStats stats = new PipelineStats();
+        stats.frameDelivered(0);
+        stats.frameDelivered(1);
+        stats.frameDelivered(4);
+        stats.frameDelivered(5);
+        stats.frameDelivered(8);
+        assertEquals(4, stats.getDroppedCount());
+        // The camera restarted, which is not a gap
+        stats.frameDelivered(0);
+        stats.frameDelivered(1);
+        assertEquals(4, stats.getDroppedCount());
+        assertEquals(7, stats.getFrameCount());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the summaries of the regions recorded with an alert.
+ */
+public class RegionsTest {
+    private static final List<Rect> REGIONS = Arrays.asList(new Rect(10, 20, 5, 5), new Rect(40, 5, 10, 2));
+
+    @Test
+    public void area_sumsTheRegions() {
+        assertEquals(45, Regions.area(REGIONS));
+        assertEquals(0, Regions.area(Collections.<Rect>emptyList()));
+    }
+
+    @Test
+    public void union_coversEveryRegion() {
+        assertEquals(new Rect(10, 5, 40, 20), Regions.union(REGIONS));
+        assertNull(Regions.union(Collections.<Rect>emptyList()));
+    }
+
+    @Test
+    public void scale_roundsSizesUp() {
+        List<Rect> scaled = Regions.scale(REGIONS, 0.5);
+        assertEquals(new Rect(5, 10, 3, 3), scaled.get(0));
+        assertEquals(new Rect(20, 2, 5, 1), scaled.get(1));
+        assertEquals(REGIONS, Regions.scale(REGIONS, 1));
+    }
+
+    @Test
+    public void expand_addsTheMarginWithinTheFrame() {
+        // 10% of 40x20 is less than the 5 pixel minimum, and the top is cut off at the edge
+        assertEquals(new Rect(5, 0, 50, 30), Regions.expand(new Rect(10, 5, 40, 20), 0.1, 5, 100, 100));
+        // Cut off at the right and bottom edges
+        assertEquals(new Rect(80, 80, 20, 20), Regions.expand(new Rect(90, 90, 10, 10), 1, 0, 100, 100));
+        // The extra pixels come on top of the margin
+        assertEquals(new Rect(2, 0, 56, 33), Regions.expand(new Rect(10, 5, 40, 20), 0.1, 5, 3, 100, 100));
+    }
+
+    @Test
+    public void format_roundTrips() {
+        Rect box = new Rect(1, 2, 3, 4);
+        assertEquals("1,2,3,4", Regions.format(box));
+        assertEquals(box, Regions.parse(Regions.format(box)));
+        assertNull(Regions.parse(null));
+        assertNull(Regions.parse("1,2,3"));
+        assertNull(Regions.parse("a,b,c,d"));
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the storage sinks, and for the upload queue sending to one.
+ */
+public class StorageSinkTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, String> name(String name) {
+        return Collections.singletonMap(StorageSink.NAME_KEY, name);
+    }
+
+    @Test
+    public void puts_areStoredByName() throws Exception {
+        InMemoryStorageSink sink = new InMemoryStorageSink(4, 0);
+        Future<String> location = sink.put(new byte[]{1, 2}, name("a/b"));
+        assertEquals("memory:a/b", location.get(2, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[]{1, 2}, sink.get("a/b"));
+        assertEquals(1, sink.getStoredCount());
+        sink.close();
+    }
+
+    @Test
+    public void putsWhileABatchIsStored_areStoredTogether() throws Exception {
+        InMemoryStorageSink sink = new InMemoryStorageSink(3, 50);
+        Future<String> last = null;
+        for(int i = 0; i < 7; i++) {
+            last = sink.put(new byte[1], name("" + i));
+        }
+        last.get(2, TimeUnit.SECONDS);
+        // The first put starts a batch of its own, the six behind it wait and fill batches up to the limit
+        List<Integer> sizes = sink.getBatchSizes();
+        assertEquals(7, sink.getStoredCount());
+        assertTrue(sizes.toString(), sizes.size() < 7);
+        for(int size : sizes) {
+            assertTrue(size <= 3);
+        }
+        sink.close();
+    }
+
+    @Test
+    public void failedBatches_failTheirPuts() throws Exception {
+        BatchingStorageSink sink = new BatchingStorageSink("Failing", 4) {
+            @Override
+            protected void store(List<Put> batch) throws IOException {
+                throw new IOException("offline");
+            }
+        };
+        try {
+            sink.put(new byte[1], name("a")).get(2, TimeUnit.SECONDS);
+            fail();
+        } catch(ExecutionException e) {
+            assertEquals("offline", e.getCause().getMessage());
+        }
+        assertEquals(1, sink.getFailedCount());
+        sink.close();
+        try {
+            sink.put(new byte[1], name("b")).get(2, TimeUnit.SECONDS);
+            fail();
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    // Uploads every put on a thread of its own, like Firebase; puts named "slow" wait for the gate, and cancelled ones are counted
+    private static class AsyncSink extends BatchingStorageSink {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        AsyncSink() {
+            super("AsyncSink", 4);
+        }
+
+        @Override
+        protected void store(List<Put> batch) {
+            for(final Put put : batch) {
+                put.setOnCancel(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopped.countDown();
+                    }
+                });
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if(put.getName().startsWith("slow")) {
+                                gate.await();
+                            }
+                            put.stored("async:" + put.getName());
+                        } catch(InterruptedException e) {
+                            put.failed(e);
+                        }
+                    }
+                }).start();
+            }
+        }
+    }
+
+    @Test
+    public void slowUploads_doNotHoldUpTheOnesBehind() throws Exception {
+        AsyncSink sink = new AsyncSink();
+        Future<String> slow = sink.put(new byte[1000], name("slow"));
+        Thread.sleep(50);
+        // Started after the slow upload, in a batch of its own, and done first
+        assertEquals("async:thumb", sink.put(new byte[1], name("thumb")).get(2, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+        sink.gate.countDown();
+        assertEquals("async:slow", slow.get(2, TimeUnit.SECONDS));
+        sink.close();
+    }
+
+    @Test
+    public void cancelledPuts_areNotStored() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+        BatchingStorageSink sink = new BatchingStorageSink("Blocking", 4) {
+            @Override
+            protected void store(List<Put> batch) throws InterruptedException {
+                gate.await();
+                for(Put put : batch) {
+                    names.add(put.getName());
+                    put.stored(put.getName());
+                }
+            }
+        };
+        Future<String> first = sink.put(new byte[1], name("a"));
+        for(int i = 0; i < 200 && sink.getBatchCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        // Waits behind the batch the thread is storing, until its caller gives up
+        Future<String> second = sink.put(new byte[1], name("b"));
+        assertTrue(second.cancel(false));
+        assertEquals(0, sink.getPendingCount());
+        gate.countDown();
+        first.get(2, TimeUnit.SECONDS);
+        sink.close();
+        Thread.sleep(50);
+        assertEquals(Collections.singletonList("a"), names);
+        assertEquals(1, sink.getCancelledCount());
+    }
+
+    @Test
+    public void uploadsWhichTimeOut_areCancelled() throws Exception {
+        AsyncSink sink = new AsyncSink();
+        SinkUploader uploader = new SinkUploader(sink, 50, new SinkUploader.Listener() {
+            @Override
+            public String nameOf(UploadQueue.Job job) {
+                return "slow";
+            }
+
+            @Override
+            public void onStored(UploadQueue.Job job, String location) {
+                fail("Nothing was stored");
+            }
+        });
+        try {
+            uploader.upload(new UploadQueue.Job(1, 0, new HashMap<String, String>(), 1, false, 0), new byte[1]);
+            fail();
+        } catch(TimeoutException e) {
+            // The queue will try again, so the first upload is stopped
+            assertTrue(sink.stopped.await(2, TimeUnit.SECONDS));
+        }
+        sink.gate.countDown();
+        sink.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putsWithoutAName_areRefused() {
+        new InMemoryStorageSink(1, 0).put(new byte[1], new HashMap<String, String>());
+    }
+
+    @Test
+    public void localSink_writesFilesUnderItsDirectory() throws Exception {
+        File root = folder.newFolder();
+        LocalStorageSink sink = new LocalStorageSink(root, 4);
+        String path = sink.put(new byte[]{7, 8, 9}, name("intrusions/uid/date")).get(2, TimeUnit.SECONDS);
+        File file = new File(root, "intrusions/uid/date");
+        assertEquals(file.getPath(), path);
+        FileInputStream in = new FileInputStream(file);
+        byte[] read = new byte[4];
+        assertEquals(3, in.read(read));
+        in.close();
+        assertEquals(1, file.getParentFile().list().length);
+        try {
+            sink.put(new byte[1], name("../outside")).get(2, TimeUnit.SECONDS);
+            fail();
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertFalse(new File(root.getParentFile(), "outside").exists());
+        sink.close();
+    }
+
+    @Test
+    public void uploadQueue_storesEveryAlertInTheSink() throws Exception {
+        final InMemoryStorageSink sink = new InMemoryStorageSink(4, 5);
+        final List<String> locations = Collections.synchronizedList(new ArrayList<String>());
+        SinkUploader uploader = new SinkUploader(sink, 2000, new SinkUploader.Listener() {
+            @Override
+            public String nameOf(UploadQueue.Job job) {
+                return "intrusions/" + job.get("name");
+            }
+
+            @Override
+            public void onStored(UploadQueue.Job job, String location) {
+                locations.add(location);
+            }
+        });
+        UploadQueue queue = new UploadQueue(folder.newFolder(), 4, 1024 * 1024, 10, 100, uploader);
+        queue.start();
+        int alerts = 200;
+        for(int i = 0; i < alerts; i++) {
+            queue.enqueue(Collections.singletonMap("name", "" + i), new byte[1024]);
+        }
+        for(int i = 0; i < 500 && queue.getDepth() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, queue.getDepth());
+        assertEquals(alerts, queue.getUploadedCount());
+        assertEquals(alerts, sink.getNames().size());
+        assertTrue(locations.contains("memory:intrusions/199"));
+        // The workers' uploads were stored together
+        assertTrue(sink.getBatchCount() < alerts);
+        queue.stop();
+        sink.close();
+    }
+}
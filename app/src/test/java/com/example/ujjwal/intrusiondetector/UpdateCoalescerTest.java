@@ -0,0 +1,125 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for merging database updates into one write.
+ */
+public class UpdateCoalescerTest {
+    // Remembers every write it gets, and finishes it straight away
+    private static class RecordingSink implements UpdateCoalescer.Sink {
+        final List<String> nodes = Collections.synchronizedList(new ArrayList<String>());
+        final List<Map<String, Object>> writes = Collections.synchronizedList(new ArrayList<Map<String, Object>>());
+
+        @Override
+        public void write(String node, Map<String, Object> updates, UpdateCoalescer.Done done) {
+            nodes.add(node);
+            writes.add(updates);
+            done.finished(null);
+        }
+    }
+
+    // Holds on to every write until the test finishes it
+    private static class HeldSink implements UpdateCoalescer.Sink {
+        final BlockingQueue<UpdateCoalescer.Done> writes = new LinkedBlockingQueue<>();
+
+        @Override
+        public void write(String node, Map<String, Object> updates, UpdateCoalescer.Done done) {
+            writes.add(done);
+        }
+    }
+
+    private static Map<String, Object> update(String path, Object value) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put(path, value);
+        return updates;
+    }
+
+    @Test
+    public void updatesWithinTheWindow_areOneWrite() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        UpdateCoalescer coalescer = new UpdateCoalescer(100, sink);
+        Future<?> first = coalescer.submit("user", update("events/a", 1));
+        coalescer.submit("user", update("notify", true));
+        Future<?> last = coalescer.submit("user", update("events/b", 2));
+        last.get(2, TimeUnit.SECONDS);
+        assertTrue(first.isDone());
+        assertEquals(1, sink.writes.size());
+        Map<String, Object> written = sink.writes.get(0);
+        assertEquals(3, written.size());
+        assertEquals(1, written.get("events/a"));
+        assertEquals(2, written.get("events/b"));
+        assertEquals(3, coalescer.getSubmittedCount());
+        assertEquals(1, coalescer.getWrittenCount());
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void laterValues_winForTheSamePath() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        UpdateCoalescer coalescer = new UpdateCoalescer(50, sink);
+        coalescer.submit("user", update("recentImg", "old"));
+        coalescer.submit("user", update("recentImg", "new")).get(2, TimeUnit.SECONDS);
+        assertEquals("new", sink.writes.get(0).get("recentImg"));
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void nodes_andWindows_areWrittenSeparately() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        UpdateCoalescer coalescer = new UpdateCoalescer(20, sink);
+        Future<?> a = coalescer.submit("a", update("notify", true));
+        Future<?> b = coalescer.submit("b", update("notify", true));
+        a.get(2, TimeUnit.SECONDS);
+        b.get(2, TimeUnit.SECONDS);
+        assertEquals(2, sink.writes.size());
+        // The window has ended, so this starts a new write
+        coalescer.submit("a", update("notify", false)).get(2, TimeUnit.SECONDS);
+        assertEquals(3, sink.writes.size());
+        assertEquals(false, sink.writes.get(2).get("notify"));
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void futures_waitForTheWriteToFinish() throws Exception {
+        HeldSink sink = new HeldSink();
+        UpdateCoalescer coalescer = new UpdateCoalescer(10, sink);
+        Future<?> future = coalescer.submit("user", update("notify", true));
+        UpdateCoalescer.Done done = sink.writes.poll(2, TimeUnit.SECONDS);
+        assertNotNull(done);
+        // Handed to the sink, but not written yet
+        assertFalse(future.isDone());
+        done.finished(null);
+        future.get(2, TimeUnit.SECONDS);
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void failedWrites_failTheirFutures() throws Exception {
+        HeldSink sink = new HeldSink();
+        UpdateCoalescer coalescer = new UpdateCoalescer(10, sink);
+        Future<?> future = coalescer.submit("user", update("notify", true));
+        IllegalStateException error = new IllegalStateException("offline");
+        sink.writes.poll(2, TimeUnit.SECONDS).finished(error);
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail("The write failed");
+        } catch(ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        coalescer.shutdown();
+    }
+}
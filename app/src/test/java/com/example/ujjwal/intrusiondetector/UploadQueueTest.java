@@ -0,0 +1,245 @@
+package com.example.ujjwal.intrusiondetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the persistent upload queue.
+ */
+public class UploadQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Records what it uploads, failing the first few attempts
+    private static class RecordingUploader implements UploadQueue.Uploader {
+        final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger failuresLeft;
+        final CountDownLatch done;
+
+        RecordingUploader(int failures, int expected) {
+            failuresLeft = new AtomicInteger(failures);
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void upload(UploadQueue.Job job, byte[] data) throws Exception {
+            if(failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("offline");
+            }
+            names.add(job.get("name") + ":" + data.length);
+            done.countDown();
+        }
+    }
+
+    private static Map<String, String> name(String name) {
+        return Collections.singletonMap("name", name);
+    }
+
+    // Waits for the queue to finish with the upload the latch was counted down for
+    private static void awaitEmpty(UploadQueue queue) throws InterruptedException {
+        for(int i = 0; i < 200 && queue.getDepth() > 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void enqueuedData_isUploadedAndLeavesTheJournal() throws Exception {
+        File dir = folder.newFolder();
+        RecordingUploader uploader = new RecordingUploader(0, 2);
+        UploadQueue queue = new UploadQueue(dir, 1, 1000, 10, 100, uploader);
+        queue.start();
+        queue.enqueue(name("a"), new byte[3]);
+        queue.enqueue(name("b"), new byte[5]);
+        assertTrue(uploader.done.await(2, TimeUnit.SECONDS));
+        awaitEmpty(queue);
+        assertEquals(2, queue.getUploadedCount());
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, queue.getBytes());
+        assertEquals(0, dir.list().length);
+        assertTrue(uploader.names.contains("a:3"));
+        assertTrue(uploader.names.contains("b:5"));
+        queue.stop();
+    }
+
+    @Test
+    public void failedUploads_areRetried() throws Exception {
+        RecordingUploader uploader = new RecordingUploader(3, 1);
+        UploadQueue queue = new UploadQueue(folder.newFolder(), 1, 1000, 5, 20, uploader);
+        queue.start();
+        queue.enqueue(name("a"), new byte[3]);
+        assertTrue(uploader.done.await(2, TimeUnit.SECONDS));
+        awaitEmpty(queue);
+        assertEquals(3, queue.getFailureCount());
+        assertEquals(1, queue.getUploadedCount());
+        queue.stop();
+    }
+
+    @Test
+    public void backoff_doublesUpToTheMaximum() {
+        UploadQueue queue = new UploadQueue(folder.getRoot(), 1, 1000, 1000, 30000, new RecordingUploader(0, 0));
+        assertEquals(0, queue.backoffMillis(0));
+        assertEquals(1000, queue.backoffMillis(1));
+        assertEquals(2000, queue.backoffMillis(2));
+        assertEquals(16000, queue.backoffMillis(5));
+        assertEquals(30000, queue.backoffMillis(6));
+        assertEquals(30000, queue.backoffMillis(1000));
+    }
+
+    @Test
+    public void journal_survivesARestart() throws Exception {
+        File dir = folder.newFolder();
+        // Always offline, with retries far in the future
+        RecordingUploader offline = new RecordingUploader(Integer.MAX_VALUE, 1);
+        UploadQueue first = new UploadQueue(dir, 1, 1000, 60000, 60000, offline);
+        first.start();
+        first.enqueue(name("a"), new byte[3]);
+        first.enqueue(name("b"), new byte[4]);
+        first.stop();
+
+        RecordingUploader online = new RecordingUploader(0, 2);
+        UploadQueue second = new UploadQueue(dir, 1, 1000, 10, 100, online);
+        second.start();
+        assertTrue(online.done.await(2, TimeUnit.SECONDS));
+        // Read back oldest first, with their metadata
+        assertEquals("a:3", online.names.get(0));
+        assertEquals("b:4", online.names.get(1));
+        second.stop();
+    }
+
+    @Test
+    public void interruptedWrites_areCleanedUpOnStart() throws Exception {
+        File dir = folder.newFolder();
+        // The data of an upload whose job file was never written, and a half written job file
+        new FileOutputStream(new File(dir, "7.data")).close();
+        new FileOutputStream(new File(dir, "8.job.tmp")).close();
+        UploadQueue queue = new UploadQueue(dir, 1, 1000, 10, 100, new RecordingUploader(0, 0));
+        queue.start();
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, dir.list().length);
+        queue.stop();
+    }
+
+    @Test
+    public void fullJournal_dropsTheOldestUploads() throws Exception {
+        File dir = folder.newFolder();
+        UploadQueue queue = new UploadQueue(dir, 1, 10, 60000, 60000, new RecordingUploader(Integer.MAX_VALUE, 0));
+        queue.start();
+        // Keep the worker away from the journal, so nothing is in flight
+        queue.stop();
+        for(int i = 0; i < 5; i++) {
+            queue.enqueue(name("" + i), new byte[4]);
+        }
+        assertEquals(2, queue.getDepth());
+        assertEquals(8, queue.getBytes());
+        assertEquals(3, queue.getDroppedCount());
+        assertEquals(4, dir.list().length);
+        assertTrue(queue.getOldestAgeMillis() >= 0);
+    }
+
+    // Uploads in order, blocking on the uploads whose name starts with "block" until the test releases them
+    private static class GatedUploader implements UploadQueue.Uploader {
+        final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        @Override
+        public void upload(UploadQueue.Job job, byte[] data) throws Exception {
+            if(job.get("name").startsWith("block")) {
+                blocked.countDown();
+                gate.await();
+            }
+            names.add(job.get("name"));
+        }
+    }
+
+    @Test
+    public void normalUploads_goBeforeLowPriorityOnes() throws Exception {
+        GatedUploader uploader = new GatedUploader();
+        UploadQueue queue = new UploadQueue(folder.newFolder(), 1, 1000, 10, 100, uploader);
+        queue.start();
+        queue.enqueue(name("block"), new byte[1]);
+        assertTrue(uploader.blocked.await(2, TimeUnit.SECONDS));
+        queue.enqueue(name("full"), new byte[1], true);
+        queue.enqueue(name("thumb"), new byte[1]);
+        uploader.gate.countDown();
+        awaitEmpty(queue);
+        assertEquals(Arrays.asList("block", "thumb", "full"), uploader.names);
+        queue.stop();
+    }
+
+    @Test
+    public void lowPriorityUploads_leaveAWorkerFree() throws Exception {
+        GatedUploader uploader = new GatedUploader();
+        UploadQueue queue = new UploadQueue(folder.newFolder(), 2, 1000, 10, 100, uploader);
+        queue.start();
+        queue.enqueue(name("block-full"), new byte[1], true);
+        queue.enqueue(name("full"), new byte[1], true);
+        assertTrue(uploader.blocked.await(2, TimeUnit.SECONDS));
+        queue.enqueue(name("thumb"), new byte[1]);
+        for(int i = 0; i < 200 && uploader.names.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        // The second low priority upload waits, even though a worker is idle
+        assertEquals(Collections.singletonList("thumb"), uploader.names);
+        assertEquals(2, queue.getLowPriorityDepth());
+        uploader.gate.countDown();
+        awaitEmpty(queue);
+        assertEquals(Arrays.asList("thumb", "block-full", "full"), uploader.names);
+        queue.stop();
+    }
+
+    @Test
+    public void pausedLowPriorityUploads_waitForResume() throws Exception {
+        RecordingUploader uploader = new RecordingUploader(0, 2);
+        UploadQueue queue = new UploadQueue(folder.newFolder(), 2, 1000, 10, 100, uploader);
+        queue.setLowPriorityPaused(true);
+        queue.start();
+        queue.enqueue(name("full"), new byte[2], true);
+        queue.enqueue(name("thumb"), new byte[1]);
+        for(int i = 0; i < 200 && queue.getDepth() > 1; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(Collections.singletonList("thumb:1"), uploader.names);
+        queue.setLowPriorityPaused(false);
+        assertTrue(uploader.done.await(2, TimeUnit.SECONDS));
+        assertEquals("full:2", uploader.names.get(1));
+        queue.stop();
+    }
+
+    @Test
+    public void fullJournal_dropsLowPriorityUploadsFirst() throws Exception {
+        File dir = folder.newFolder();
+        UploadQueue queue = new UploadQueue(dir, 1, 10, 60000, 60000, new RecordingUploader(Integer.MAX_VALUE, 0));
+        queue.start();
+        queue.stop();
+        queue.enqueue(name("thumb"), new byte[4]);
+        queue.enqueue(name("full"), new byte[4], true);
+        queue.enqueue(name("thumb2"), new byte[4]);
+        assertEquals(2, queue.getDepth());
+        assertEquals(0, queue.getLowPriorityDepth());
+
+        // The priority is read back after a restart
+        queue.enqueue(name("full2"), new byte[1], true);
+        UploadQueue restarted = new UploadQueue(dir, 1, 100, 60000, 60000, new RecordingUploader(Integer.MAX_VALUE, 0));
+        restarted.setLowPriorityPaused(true);
+        restarted.start();
+        assertEquals(1, restarted.getLowPriorityDepth());
+        restarted.stop();
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: LumaMotionEngineBenchmark.java
+ * Description: This class measures the plain Java pipeline end to end on the same synthetic frames and resolutions as the OpenCV
+ * stage benchmarks, alternating between a still frame and one with an object in it. */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class LumaMotionEngineBenchmark {
+    private static final int ANALYSIS_WIDTH = 500;
+
+    @Param({"480x320", "640x480", "800x600", "1920x1080"})
+    public String resolution;
+
+    private LumaMotionEngine engine;
+    private byte[][] frames;
+    private int width;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        width = size[0];
+        int height = size[1];
+        byte[] background = SyntheticFrames.background(width, height);
+        frames = new byte[][] {background, SyntheticFrames.withObject(background, width, height)};
+        engine = new LumaMotionEngine(width, height, Math.min(ANALYSIS_WIDTH, width), height, 500);
+        engine.process(background, 0, width);
+    }
+
+    @Benchmark
+    public int process() {
+        next ^= 1;
+        return engine.process(frames[next], 0, width);
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: PipelineStageBenchmark.java
+ * Description: This class measures each stage of the motion detection pipeline on its own, across camera resolutions and pixel
+ * depths, so a change to the hot path can be judged by numbers instead of the per-run log line. Every stage writes into buffers
+ * allocated during setup, so the gc profiler's allocation rate shows what the stage itself allocates. */
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class PipelineStageBenchmark {
+    // Width frames are resized to before analysis, as in CameraActivity
+    private static final int ANALYSIS_WIDTH = 500;
+    private static final double MIN_AREA = 500.0;
+
+    static {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    // Camera frame sizes: 320p, 480p, 600p(the app's current limit) and 1080p
+    @Param({"480x320", "640x480", "800x600", "1920x1080"})
+    public String resolution;
+
+    // Pixel depth of the analysis stages: 8U(fixed point path), 32F(float model) and 64F(the original pipeline)
+    @Param({"8U", "32F", "64F"})
+    public String depth;
+
+    private Mat cameraFrame;
+    private Mat resized;
+    private Mat converted;
+    private Mat blurred;
+    private Mat reference;
+    private Mat diff;
+    private Mat thresholded;
+    private Mat mask;
+    private Mat dilated;
+    private Mat kernel;
+    private Mat hierarchy;
+    private Size analysisSize;
+    private Size blurSize;
+    private Point anchor;
+    private List<MatOfPoint> contours;
+    private int type;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        int width = size[0];
+        int height = size[1];
+        type = depth.equals("8U") ? CvType.CV_8UC1 : depth.equals("32F") ? CvType.CV_32FC1 : CvType.CV_64FC1;
+        byte[] background = SyntheticFrames.background(width, height);
+        cameraFrame = SyntheticFrames.toMat(SyntheticFrames.withObject(background, width, height), width, height);
+        Mat backgroundFrame = SyntheticFrames.toMat(background, width, height);
+
+        analysisSize = new Size(ANALYSIS_WIDTH, height);
+        blurSize = new Size(21, 21);
+        anchor = new Point(-1, -1);
+        resized = new Mat();
+        Imgproc.resize(cameraFrame, resized, analysisSize, 0, 0, Imgproc.INTER_AREA);
+        converted = new Mat();
+        resized.convertTo(converted, type);
+        blurred = new Mat();
+        Imgproc.GaussianBlur(converted, blurred, blurSize, 0);
+
+        // The reference is the blurred background at the same size and depth
+        Mat smallBackground = new Mat();
+        Imgproc.resize(backgroundFrame, smallBackground, analysisSize, 0, 0, Imgproc.INTER_AREA);
+        smallBackground.convertTo(smallBackground, type);
+        reference = new Mat();
+        Imgproc.GaussianBlur(smallBackground, reference, blurSize, 0);
+
+        diff = new Mat();
+        Core.absdiff(blurred, reference, diff);
+        thresholded = new Mat();
+        Imgproc.threshold(diff, thresholded, 5, 255, Imgproc.THRESH_BINARY);
+        mask = new Mat();
+        thresholded.convertTo(mask, CvType.CV_8UC1);
+        dilated = new Mat();
+        kernel = new Mat();
+        Imgproc.dilate(mask, dilated, kernel, anchor, 2);
+        hierarchy = new Mat();
+        contours = new ArrayList<>();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for(Mat mat : new Mat[] {cameraFrame, resized, converted, blurred, reference, diff, thresholded, mask, dilated, kernel, hierarchy}) {
+            mat.release();
+        }
+    }
+
+    @Benchmark
+    public Mat resize() {
+        Imgproc.resize(cameraFrame, resized, analysisSize, 0, 0, Imgproc.INTER_AREA);
+        return resized;
+    }
+
+    @Benchmark
+    public Mat convertType() {
+        resized.convertTo(converted, type);
+        return converted;
+    }
+
+    @Benchmark
+    public Mat gaussianBlur21() {
+        Imgproc.GaussianBlur(converted, blurred, blurSize, 0);
+        return blurred;
+    }
+
+    @Benchmark
+    public Mat absdiff() {
+        Core.absdiff(blurred, reference, diff);
+        return diff;
+    }
+
+    @Benchmark
+    public Mat threshold() {
+        Imgproc.threshold(diff, thresholded, 5, 255, Imgproc.THRESH_BINARY);
+        return thresholded;
+    }
+
+    @Benchmark
+    public Mat dilate() {
+        Imgproc.dilate(mask, dilated, kernel, anchor, 2);
+        return dilated;
+    }
+
+    @Benchmark
+    public int findContoursAndFilter() {
+        contours.clear();
+        Imgproc.findContours(dilated, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        int moving = 0;
+        for(MatOfPoint contour : contours) {
+            if(Imgproc.contourArea(contour) > MIN_AREA) {
+                moving++;
+            }
+            contour.release();
+        }
+        return moving;
+    }
+}
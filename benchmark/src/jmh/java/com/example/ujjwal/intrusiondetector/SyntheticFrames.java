@@ -0,0 +1,56 @@
+package com.example.ujjwal.intrusiondetector;
+
+/**
+ * Name: Ujjwal Krishnamurthi
+ * Program File: SyntheticFrames.java
+ * Description: This class builds the fake camera frames the benchmarks run on: a textured background, and the same background with
+ * a bright object in it, so every stage has realistic work to do without needing a camera. */
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Random;
+
+final class SyntheticFrames {
+    // Same seed every run, so results are comparable between runs
+    private static final long SEED = 42;
+
+    private SyntheticFrames() {
+    }
+
+    // Parses a "WIDTHxHEIGHT" benchmark parameter
+    static int[] parseResolution(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    // A luma plane of checkerboard texture plus a little sensor noise
+    static byte[] background(int width, int height) {
+        Random random = new Random(SEED);
+        byte[] luma = new byte[width * height];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                luma[y * width + x] = (byte) (90 + ((x / 24 + y / 24) % 2) * 30 + random.nextInt(5));
+            }
+        }
+        return luma;
+    }
+
+    // The background with a bright square(a quarter of the frame's height across) a third of the way in
+    static byte[] withObject(byte[] background, int width, int height) {
+        byte[] luma = background.clone();
+        int size = height / 4;
+        for(int y = height / 3; y < height / 3 + size; y++) {
+            for(int x = width / 3; x < width / 3 + size; x++) {
+                luma[y * width + x] = (byte) 220;
+            }
+        }
+        return luma;
+    }
+
+    static Mat toMat(byte[] luma, int width, int height) {
+        Mat mat = new Mat(height, width, CvType.CV_8UC1);
+        mat.put(0, 0, luma);
+        return mat;
+    }
+}
@@ -25,7 +25,6 @@ admin.initializeApp(config);
 
 var database = admin.database();
 var storage = admin.storage();
-var imgsString;
 
 var server = restify.createServer();
 server.listen(process.env.port || process.env.PORT || 3978, function () {
@@ -133,11 +132,12 @@ bot.dialog('QueryImagesDialog',
         } else {
             num = 5;
         }
-        var imgs = grabImg(UUID, num);
-        console.log("Images 133: " + imgs);
-        var cards = getCards(session, imgs);
-        var message = new builder.Message(session).attachmentLayout(builder.AttachmentLayout.carousel).attachments(cards);
-        session.send(message);
+        grabImg(UUID, num, function(imgs) {
+            console.log("Images: " + imgs);
+            var cards = getCards(session, imgs);
+            var message = new builder.Message(session).attachmentLayout(builder.AttachmentLayout.carousel).attachments(cards);
+            session.send(message);
+        });
     }
 ).triggerAction({
     matches: 'QueryImages' 
@@ -160,21 +160,23 @@ bot.dialog('DetectedMovementDialog',
 
 function checkStorage(UUID, loaded) {
     var reference = 'users/' + UUID + '/'; //Maybe second slash is unnecessary
-    userRef = database.ref(reference);
+    // Only the flag is watched, so an alert never downloads the user's whole history of events
+    userRef = database.ref(reference + 'notify');
     console.log(reference);
     // Don't need to set Interval or timeout
     userRef.on('value',function(snapshot) {
-        console.log(snapshot.val());
-        var notifyUser = snapshot.val().notify;
-        imgsString = snapshot.val().images;
+        var notifyUser = snapshot.val();
         if(notifyUser == 'true' || notifyUser == true) {
             // Reset the data for our changes
-            var imgURL = snapshot.val().recentImg;
-            var imgDate = snapshot.val().lastImgUpload;
             database.ref(reference).update({
                 notify: false
             });
-            getImg(imgURL, imgDate, loaded);
+            latestEvents(UUID, 1, function(events) {
+                // The thumbnail arrives first; the full size image's(or crop's) url is filled in later
+                if(events.length > 0) {
+                    getImg(eventImg(events[0]), events[0].date, loaded);
+                }
+            });
         }
     });
     manager = onLoad(function(cancelled) {
@@ -200,22 +202,34 @@ function getImg(URL, imgDate, loaded) {
     xhr.send();
 }
 
-function grabImg(UUID, num) {
-    var imgURLs = [];
-    console.log("ImgString: " + imgsString);
-    var imgSplit = imgsString.split(",");
-    for(var i = 0; i < num; i++) {
-        if(imgSplit.length <= num) {
-            // Should output all images
-            return -1;
-        } else {
-            var imgURL = imgSplit[imgSplit.length - 1 - i]; //Will this work?
-            // Check what to do if you don't pass in parameters to javascript function
-            imgURLs.push(imgURL.replace("[","").replace("]",""));
+// The best image of an event which has been stored so far: the full size image, else the crop of the part which moved, else
+// the thumbnail, which arrives first
+function eventImg(event) {
+    return event.url || event.cropUrl || event.thumbnail;
+}
+
+// Reads the newest num events of the user, newest first. Push keys sort by time, so this only ever downloads num events,
+// however long the history is
+function latestEvents(UUID, num, callback) {
+    database.ref('users/' + UUID + '/events').orderByKey().limitToLast(num).once('value', function(snapshot) {
+        var events = [];
+        snapshot.forEach(function(child) {
+            events.unshift(child.val());
+        });
+        callback(events);
+    });
+}
+
+// Gives the URLs of the newest num images, newest first(fewer if there are not that many)
+function grabImg(UUID, num, callback) {
+    latestEvents(UUID, num, function(events) {
+        var imgURLs = [];
+        for(var i = 0; i < events.length; i++) {
+            imgURLs.push(eventImg(events[i]));
         }
-    }
-    console.log(imgURLs);
-    return imgURLs;
+        console.log(imgURLs);
+        callback(imgURLs);
+    });
 }
 
 function getCards(session, imgs) {
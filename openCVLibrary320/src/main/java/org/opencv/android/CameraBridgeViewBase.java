@@ -48,6 +48,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected int mPreviewFormat = RGBA;
     protected int mCameraIndex = CAMERA_ID_ANY;
     protected boolean mEnabled;
+    protected boolean mDirectPreview = false;
     protected FpsMeter mFpsMeter = null;
 
     public static final int CAMERA_ID_ANY   = -1;
@@ -75,6 +76,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             enableFpsMeter();
 
         mCameraIndex = styledAttrs.getInt(R.styleable.CameraBridgeViewBase_camera_id, -1);
+        mDirectPreview = styledAttrs.getBoolean(R.styleable.CameraBridgeViewBase_direct_preview, false);
 
         getHolder().addCallback(this);
         mMaxWidth = MAX_UNSPECIFIED;
@@ -90,6 +92,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         this.mCameraIndex = cameraIndex;
     }
 
+    /**
+     * Returns the camera index, as set or given in the layout
+     */
+    public int getCameraIndex() {
+        return mCameraIndex;
+    }
+
     public interface CvCameraViewListener {
         /**
          * This method is invoked when camera preview has started. After this method is invoked
@@ -188,6 +197,25 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns the time the frame was captured, in nanoseconds. The clock depends on
+         * the camera, so only the differences between frames from one camera are meaningful
+         */
+        public long timestamp();
+
+        /**
+         * This method returns the number of the frame, counting from 0 when the camera connects.
+         * Gaps between the frames a callback sees are frames dropped because it fell behind
+         */
+        public long sequence();
+
+        /**
+         * This method copies the raw frame into a CapturedFrame, which stays valid after the
+         * callback returns and converts colour only if asked to. Nothing is converted here, so
+         * it is the way to keep a frame for later use, e.g. to upload it
+         */
+        public CapturedFrame capture();
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -241,6 +269,22 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         }
     }
 
+    /**
+     * This method selects how the preview reaches the screen. In direct mode the camera draws its stream straight into this
+     * view's surface, where it is scaled and composited by the GPU; frames are still delivered to onCameraFrame(), but the
+     * returned Mat is ignored, so the listener can return null and skip the RGBA conversion. Nothing can be drawn over the
+     * stream from here, so overlays belong in a separate view on top of this one, and the fps label is only logged.
+     * Takes effect the next time the camera is connected.
+     * @param directPreview - true to let the camera draw the preview, false to draw the frames returned by the listener
+     */
+    public void setDirectPreview(boolean directPreview) {
+        mDirectPreview = directPreview;
+    }
+
+    public boolean isDirectPreview() {
+        return mDirectPreview;
+    }
+
     /**
      * This method enables label with fps value on the screen
      */
@@ -388,6 +432,15 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
         Mat modified;
 
+        if (mDirectPreview) {
+            /* The camera already put this frame on screen, so it is only handed to the listener */
+            if (mListener != null)
+                mListener.onCameraFrame(frame);
+            if (mFpsMeter != null)
+                mFpsMeter.measure();
+            return;
+        }
+
         if (mListener != null) {
             modified = mListener.onCameraFrame(frame);
         } else {
@@ -454,6 +507,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     // NOTE: On Android 4.1.x the function must be called before SurfaceTexture constructor!
     protected void AllocateCache()
     {
+        if (mDirectPreview)
+            return;
         mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
     }
 
@@ -0,0 +1,84 @@
+package org.opencv.android;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class is a camera frame kept past the onCameraFrame callback, made by
+ * CvCameraViewFrame.capture(). It owns a copy of the raw NV21 data, so it stays valid while the
+ * camera moves on, and it never changes: gray() is a view of the Y plane and rgba() converts the
+ * colour the first time it is called only. It can be handed to any thread; the Mats it returns
+ * must not be modified, and release() frees them once the frame is no longer needed.
+ */
+public class CapturedFrame implements CameraBridgeViewBase.CvCameraViewFrame {
+
+    private final Mat mYuvFrameData;
+    private final Mat mGray;
+    private final int mWidth;
+    private final int mHeight;
+    private final long mSequence;
+    private final long mTimestamp;
+    private Mat mRgba;
+
+    /**
+     * @param yuv420sp - NV21 data of the frame, height * 3 / 2 rows of width bytes, which the new frame takes over
+     */
+    public CapturedFrame(Mat yuv420sp, int width, int height, long sequence, long timestamp) {
+        mYuvFrameData = yuv420sp;
+        mGray = yuv420sp.submat(0, height, 0, width);
+        mWidth = width;
+        mHeight = height;
+        mSequence = sequence;
+        mTimestamp = timestamp;
+    }
+
+    /* The raw NV21 data, height * 3 / 2 rows of width bytes, e.g. to convert it to another format than RGBA in one step */
+    public Mat yuv() {
+        return mYuvFrameData;
+    }
+
+    @Override
+    public Mat gray() {
+        return mGray;
+    }
+
+    @Override
+    public synchronized Mat rgba() {
+        if (mRgba == null) {
+            mRgba = new Mat();
+            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        }
+        return mRgba;
+    }
+
+    @Override
+    public long timestamp() {
+        return mTimestamp;
+    }
+
+    @Override
+    public long sequence() {
+        return mSequence;
+    }
+
+    /* Already a copy of its own */
+    @Override
+    public CapturedFrame capture() {
+        return this;
+    }
+
+    public int width() {
+        return mWidth;
+    }
+
+    public int height() {
+        return mHeight;
+    }
+
+    public synchronized void release() {
+        mGray.release();
+        mYuvFrameData.release();
+        if (mRgba != null)
+            mRgba.release();
+    }
+}
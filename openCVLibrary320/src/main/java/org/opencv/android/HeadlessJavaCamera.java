@@ -0,0 +1,256 @@
+package org.opencv.android;
+
+import java.util.List;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.hardware.Camera.PreviewCallback;
+import android.util.Log;
+
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewListener2;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * This class delivers frames from the Java Camera to a CvCameraViewListener2 without any view.
+ * The preview goes to a SurfaceTexture which is never drawn, so nothing is rendered and the
+ * camera keeps running with the screen off, e.g. from a Service.
+ * Frames are delivered on a worker thread from a ring of preview buffers, the same way
+ * JavaCameraView does it, and the Mat returned by onCameraFrame() is ignored.
+ */
+public class HeadlessJavaCamera implements PreviewCallback {
+
+    private static final int MAGIC_TEXTURE_ID = 10;
+    private static final String TAG = "HeadlessJavaCamera";
+
+    private final int mCameraIndex;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private CvCameraViewListener2 mListener;
+
+    private Camera mCamera;
+    private SurfaceTexture mSurfaceTexture;
+    private PreviewCallbackRing mRing;
+    private Mat mFrameData;
+    private JavaCameraView.JavaCameraFrame mCameraFrame;
+    private Thread mThread;
+    private int mFrameWidth;
+    private int mFrameHeight;
+
+    /**
+     * @param cameraIndex - CameraBridgeViewBase.CAMERA_ID_ANY, CAMERA_ID_BACK, CAMERA_ID_FRONT or a camera number
+     * @param maxWidth - largest frame width to ask the camera for
+     * @param maxHeight - largest frame height to ask the camera for
+     */
+    public HeadlessJavaCamera(int cameraIndex, int maxWidth, int maxHeight) {
+        mCameraIndex = cameraIndex;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+    }
+
+    public void setCvCameraViewListener(CvCameraViewListener2 listener) {
+        mListener = listener;
+    }
+
+    /**
+     * This method opens the camera and starts delivering frames. The camera callbacks arrive on the
+     * looper of the calling thread (or the main looper), so call it from a thread with one.
+     * @return false if the camera could not be opened or configured
+     */
+    public synchronized boolean start() {
+        if (mCamera != null)
+            return true;
+        Log.d(TAG, "Connecting to camera");
+        if (!initializeCamera()) {
+            releaseCamera();
+            return false;
+        }
+
+        if (mListener != null)
+            mListener.onCameraViewStarted(mFrameWidth, mFrameHeight);
+
+        mThread = new Thread(new CameraWorker(mRing));
+        mThread.start();
+        return true;
+    }
+
+    /**
+     * This method stops the worker thread and releases the camera. onCameraViewStopped() is
+     * called once no more frames will be delivered.
+     */
+    public void stop() {
+        Log.d(TAG, "Disconnecting from camera");
+        Thread thread;
+        synchronized (this) {
+            if (mCamera == null)
+                return;
+            mRing.stop();
+            thread = mThread;
+        }
+        try {
+            if (thread != null)
+                thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            mThread = null;
+            releaseCamera();
+        }
+        if (mListener != null)
+            mListener.onCameraViewStopped();
+    }
+
+    public synchronized boolean isStarted() {
+        return mCamera != null;
+    }
+
+    /* Frames dropped since the camera started, because the listener fell behind */
+    public long getDroppedFrameCount() {
+        PreviewCallbackRing ring = mRing;
+        return ring != null ? ring.getDroppedCount() : 0;
+    }
+
+    public int getFrameWidth() {
+        return mFrameWidth;
+    }
+
+    public int getFrameHeight() {
+        return mFrameHeight;
+    }
+
+    private boolean initializeCamera() {
+        try {
+            int index = findCamera();
+            mCamera = index < 0 ? Camera.open() : Camera.open(index);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Camera is not available (in use or does not exist): " + e.getLocalizedMessage());
+            return false;
+        }
+        if (mCamera == null)
+            return false;
+
+        try {
+            Camera.Parameters params = mCamera.getParameters();
+            Camera.Size frameSize = chooseSize(params.getSupportedPreviewSizes());
+            if (frameSize == null)
+                return false;
+
+            params.setPreviewFormat(ImageFormat.NV21);
+            Log.d(TAG, "Set preview size to " + frameSize.width + "x" + frameSize.height);
+            params.setPreviewSize(frameSize.width, frameSize.height);
+            params.setRecordingHint(true);
+            List<String> focusModes = params.getSupportedFocusModes();
+            if (focusModes != null && focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO))
+                params.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+            mCamera.setParameters(params);
+            params = mCamera.getParameters();
+
+            mFrameWidth = params.getPreviewSize().width;
+            mFrameHeight = params.getPreviewSize().height;
+
+            int size = mFrameWidth * mFrameHeight * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
+            mRing = new PreviewCallbackRing(mCamera, PreviewCallbackRing.DEFAULT_BUFFER_COUNT, size);
+            mCamera.setPreviewCallbackWithBuffer(this);
+
+            mFrameData = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+            mCameraFrame = new JavaCameraView.JavaCameraFrame(mFrameData, mFrameWidth, mFrameHeight);
+
+            /* The camera needs somewhere to put the preview; the texture is never drawn */
+            mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
+            mCamera.setPreviewTexture(mSurfaceTexture);
+
+            Log.d(TAG, "startPreview");
+            mCamera.startPreview();
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to start the camera", e);
+            return false;
+        }
+    }
+
+    /* Camera number to open, or -1 for the default (back) camera */
+    private int findCamera() {
+        if (mCameraIndex != CameraBridgeViewBase.CAMERA_ID_BACK && mCameraIndex != CameraBridgeViewBase.CAMERA_ID_FRONT)
+            return mCameraIndex;
+        int facing = mCameraIndex == CameraBridgeViewBase.CAMERA_ID_BACK ?
+                Camera.CameraInfo.CAMERA_FACING_BACK : Camera.CameraInfo.CAMERA_FACING_FRONT;
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        for (int camIdx = 0; camIdx < Camera.getNumberOfCameras(); ++camIdx) {
+            Camera.getCameraInfo(camIdx, cameraInfo);
+            if (cameraInfo.facing == facing)
+                return camIdx;
+        }
+        throw new RuntimeException("No camera facing " + (facing == Camera.CameraInfo.CAMERA_FACING_BACK ? "back" : "front"));
+    }
+
+    /* The largest size within the maximum, or the smallest size if none fits */
+    private Camera.Size chooseSize(List<Camera.Size> sizes) {
+        if (sizes == null || sizes.isEmpty())
+            return null;
+        Camera.Size best = null;
+        Camera.Size smallest = sizes.get(0);
+        for (Camera.Size size : sizes) {
+            if (size.width * size.height < smallest.width * smallest.height)
+                smallest = size;
+            if (size.width <= mMaxWidth && size.height <= mMaxHeight
+                    && (best == null || size.width * size.height > best.width * best.height))
+                best = size;
+        }
+        return best != null ? best : smallest;
+    }
+
+    private void releaseCamera() {
+        if (mCamera != null) {
+            mCamera.stopPreview();
+            mCamera.setPreviewCallback(null);
+            mCamera.release();
+        }
+        mCamera = null;
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        mRing = null;
+        if (mFrameData != null) {
+            mFrameData.release();
+            mFrameData = null;
+        }
+        if (mCameraFrame != null) {
+            mCameraFrame.release();
+            mCameraFrame = null;
+        }
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] frame, Camera camera) {
+        PreviewCallbackRing ring = mRing;
+        if (ring != null)
+            ring.add(frame);
+    }
+
+    private class CameraWorker implements Runnable {
+        private final PreviewCallbackRing mFrames;
+
+        CameraWorker(PreviewCallbackRing frames) {
+            mFrames = frames;
+        }
+
+        @Override
+        public void run() {
+            PreviewCallbackRing.Slot slot;
+            while ((slot = mFrames.take()) != null) {
+                mCameraFrame.attach(slot);
+                try {
+                    if (mListener != null)
+                        mListener.onCameraFrame(mCameraFrame);
+                } finally {
+                    mCameraFrame.detach();
+                    mFrames.recycle(slot);
+                }
+            }
+            Log.d(TAG, "Finish processing thread");
+        }
+    }
+}
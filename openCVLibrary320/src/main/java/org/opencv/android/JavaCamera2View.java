@@ -0,0 +1,543 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Surface;
+import android.view.ViewGroup.LayoutParams;
+
+import org.opencv.R;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class is an implementation of the Bridge View between OpenCV and the Camera2 API.
+ * Frames come from an ImageReader in YUV_420_888 format, on a background thread, and are
+ * passed to the external callback the same way JavaCameraView does it:
+ * connectCamera - picks the camera and frame size, creates the ImageReader and opens the camera.
+ * disconnectCamera - waits for an open still in progress, closes the capture session and the camera,
+ * and waits for the frame thread.
+ * gray() reads only the Y plane and rgba() converts the chroma planes only when it is called,
+ * and each frame carries the sensor timestamp of its Image.
+ */
+@TargetApi(21)
+public class JavaCamera2View extends CameraBridgeViewBase implements ImageReader.OnImageAvailableListener {
+
+    private static final String LOGTAG = "JavaCamera2View";
+    public static final int DEFAULT_MAX_IMAGES = 2;
+    /* Longest disconnectCamera() waits for the camera to finish opening */
+    private static final long OPEN_TIMEOUT_MILLIS = 2500;
+
+    private int mMaxImages = DEFAULT_MAX_IMAGES;
+    private String mCameraID;
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private ImageReader mImageReader;
+    private JavaCamera2Frame mCameraFrame;
+    private HandlerThread mBackgroundThread;
+    private Handler mBackgroundHandler;
+    private volatile long mSequence;
+    private volatile long mDroppedFrames;
+    private OpenCallback mOpenCallback;
+
+    public static class JavaCamera2SizeAccessor implements ListItemAccessor {
+
+        @Override
+        public int getWidth(Object obj) {
+            android.util.Size size = (android.util.Size) obj;
+            return size.getWidth();
+        }
+
+        @Override
+        public int getHeight(Object obj) {
+            android.util.Size size = (android.util.Size) obj;
+            return size.getHeight();
+        }
+    }
+
+    public JavaCamera2View(Context context, int cameraId) {
+        super(context, cameraId);
+    }
+
+    public JavaCamera2View(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        TypedArray styledAttrs = getContext().obtainStyledAttributes(attrs, R.styleable.CameraBridgeViewBase);
+        /* Skipping to the newest image holds two images at once */
+        mMaxImages = Math.max(2, styledAttrs.getInt(R.styleable.CameraBridgeViewBase_max_images, DEFAULT_MAX_IMAGES));
+        styledAttrs.recycle();
+    }
+
+    /**
+     * This method sets how many images the ImageReader may hold at once. Frames are always taken
+     * newest first, so more images only give the listener more slack before the camera stalls,
+     * at the cost of one frame of memory each. Takes effect the next time the camera is connected.
+     * @param maxImages - at least 2, so the camera can fill one image while another is delivered
+     */
+    public void setMaxImages(int maxImages) {
+        if (maxImages < 2)
+            throw new IllegalArgumentException("maxImages must be at least 2: " + maxImages);
+        mMaxImages = maxImages;
+    }
+
+    public int getMaxImages() {
+        return mMaxImages;
+    }
+
+    /**
+     * This method returns how many frames were dropped since the camera was connected, because the
+     * callback fell behind by more than the images could hold. Dropped frames show up as gaps in
+     * CvCameraViewFrame.sequence().
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    @Override
+    protected boolean connectCamera(int width, int height) {
+        Log.d(LOGTAG, "Connecting to camera");
+        startBackgroundThread();
+        if (!initializeCamera(width, height)) {
+            disconnectCamera();
+            return false;
+        }
+        return true;
+    }
+
+    protected boolean initializeCamera(int width, int height) {
+        CameraManager manager = (CameraManager) getContext().getSystemService(Context.CAMERA_SERVICE);
+        try {
+            mCameraID = null;
+            String camList[] = manager.getCameraIdList();
+            if (camList.length == 0) {
+                Log.e(LOGTAG, "Error: camera isn't detected.");
+                return false;
+            }
+            if (mCameraIndex == CAMERA_ID_ANY) {
+                mCameraID = camList[0];
+            } else {
+                for (String cameraID : camList) {
+                    CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraID);
+                    Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                    if (mCameraIndex == CAMERA_ID_BACK && facing != null && facing == CameraCharacteristics.LENS_FACING_BACK ||
+                        mCameraIndex == CAMERA_ID_FRONT && facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
+                        mCameraID = cameraID;
+                        break;
+                    }
+                }
+            }
+            if (mCameraID == null) {
+                Log.e(LOGTAG, "Requested camera not found!");
+                return false;
+            }
+
+            /* Select the size that fits surface considering maximum size allowed */
+            StreamConfigurationMap map = manager.getCameraCharacteristics(mCameraID)
+                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            List<android.util.Size> sizes = Arrays.asList(map.getOutputSizes(ImageFormat.YUV_420_888));
+            org.opencv.core.Size frameSize = calculateCameraFrameSize(sizes, new JavaCamera2SizeAccessor(), width, height);
+            if (frameSize.width == 0 || frameSize.height == 0)
+                return false;
+            mFrameWidth = (int) frameSize.width;
+            mFrameHeight = (int) frameSize.height;
+            Log.d(LOGTAG, "Set frame size to " + mFrameWidth + "x" + mFrameHeight + ", " + mMaxImages + " images");
+
+            if ((getLayoutParams().width == LayoutParams.MATCH_PARENT) && (getLayoutParams().height == LayoutParams.MATCH_PARENT))
+                mScale = Math.min(((float)height)/mFrameHeight, ((float)width)/mFrameWidth);
+            else
+                mScale = 0;
+
+            if (mFpsMeter != null) {
+                mFpsMeter.setResolution(mFrameWidth, mFrameHeight);
+            }
+
+            if (mDirectPreview) {
+                /* A preview surface has to be one of the camera's sizes; the view scales it to fit. Resizing
+                 * the surface restarts the camera once, through surfaceChanged() */
+                getHolder().setFixedSize(mFrameWidth, mFrameHeight);
+            }
+
+            AllocateCache();
+
+            mCameraFrame = new JavaCamera2Frame(mFrameWidth, mFrameHeight);
+            mSequence = 0;
+            mDroppedFrames = 0;
+            mImageReader = ImageReader.newInstance(mFrameWidth, mFrameHeight, ImageFormat.YUV_420_888, mMaxImages);
+            mImageReader.setOnImageAvailableListener(this, mBackgroundHandler);
+
+            /* The session is created once the camera has opened */
+            Log.i(LOGTAG, "Opening camera: " + mCameraID);
+            OpenCallback callback = new OpenCallback();
+            manager.openCamera(mCameraID, callback, mBackgroundHandler);
+            mOpenCallback = callback;
+            return true;
+        } catch (CameraAccessException e) {
+            Log.e(LOGTAG, "initializeCamera - Camera Access Exception");
+        } catch (IllegalArgumentException e) {
+            Log.e(LOGTAG, "initializeCamera - Illegal Argument Exception");
+        } catch (SecurityException e) {
+            Log.e(LOGTAG, "initializeCamera - Security Exception");
+        }
+        return false;
+    }
+
+    /*
+     * The callbacks of one open of the camera. If disconnectCamera() gives up waiting for the open,
+     * the open is abandoned: its frame thread is left running, and once the camera does open (or
+     * fails to) it is closed and the thread stops itself, so the camera is never left open.
+     */
+    private class OpenCallback extends CameraDevice.StateCallback {
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+        private boolean mAbandoned;
+
+        @Override
+        public void onOpened(CameraDevice cameraDevice) {
+            synchronized (this) {
+                if (!mAbandoned) {
+                    mCameraDevice = cameraDevice;
+                    createCameraPreviewSession();
+                    mFinished.countDown();
+                    return;
+                }
+            }
+            Log.d(LOGTAG, "Camera opened after disconnecting, closing it");
+            cameraDevice.close();
+            Looper.myLooper().quitSafely();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice cameraDevice) {
+            cameraDevice.close();
+            finished();
+        }
+
+        @Override
+        public void onError(CameraDevice cameraDevice, int error) {
+            Log.e(LOGTAG, "Camera error " + error);
+            cameraDevice.close();
+            finished();
+        }
+
+        private void finished() {
+            synchronized (this) {
+                if (!mAbandoned) {
+                    mCameraDevice = null;
+                    mFinished.countDown();
+                    return;
+                }
+            }
+            Looper.myLooper().quitSafely();
+        }
+
+        /* Waits for the open to finish, and abandons it if it does not in time; returns whether it was abandoned */
+        boolean awaitOrAbandon(long timeoutMillis) {
+            try {
+                mFinished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.e(LOGTAG, "disconnectCamera interrupted while the camera was opening");
+            }
+            synchronized (this) {
+                mAbandoned = mFinished.getCount() > 0;
+                return mAbandoned;
+            }
+        }
+    }
+
+    private void createCameraPreviewSession() {
+        try {
+            final CaptureRequest.Builder requestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            List<Surface> surfaces = new ArrayList<Surface>();
+            surfaces.add(mImageReader.getSurface());
+            if (mDirectPreview) {
+                /* The camera also draws the preview into this view's surface */
+                surfaces.add(getHolder().getSurface());
+            }
+            for (Surface surface : surfaces)
+                requestBuilder.addTarget(surface);
+
+            mCameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession cameraCaptureSession) {
+                    if (mCameraDevice == null)
+                        return;
+                    mCaptureSession = cameraCaptureSession;
+                    try {
+                        requestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+                        requestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                        mCaptureSession.setRepeatingRequest(requestBuilder.build(), null, mBackgroundHandler);
+                        Log.i(LOGTAG, "CameraPreviewSession has been started");
+                    } catch (CameraAccessException e) {
+                        Log.e(LOGTAG, "setRepeatingRequest failed");
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
+                    Log.e(LOGTAG, "createCameraPreviewSession failed");
+                }
+            }, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            Log.e(LOGTAG, "createCameraPreviewSession - Camera Access Exception");
+        }
+    }
+
+    @Override
+    protected void disconnectCamera() {
+        Log.d(LOGTAG, "Disconnecting from camera");
+        /* Once the frame thread stops, a later onOpened() would never run and the camera would stay
+         * open, so an open still in progress is waited for, or handed the thread to close it itself */
+        if (mOpenCallback != null) {
+            if (mOpenCallback.awaitOrAbandon(OPEN_TIMEOUT_MILLIS)) {
+                Log.w(LOGTAG, "Camera still opening after " + OPEN_TIMEOUT_MILLIS + "ms, leaving it to close itself");
+                mBackgroundThread = null;
+                mBackgroundHandler = null;
+            }
+            mOpenCallback = null;
+        }
+        /* The camera is closed on the frame thread, after any frame being delivered */
+        if (mBackgroundHandler != null) {
+            mBackgroundHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCaptureSession != null) {
+                        mCaptureSession.close();
+                        mCaptureSession = null;
+                    }
+                    if (mCameraDevice != null) {
+                        mCameraDevice.close();
+                        mCameraDevice = null;
+                    }
+                }
+            });
+        }
+        stopBackgroundThread();
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        if (mCameraFrame != null) {
+            mCameraFrame.release();
+            mCameraFrame = null;
+        }
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        /* Older images still queued are dropped (and counted), so a slow listener always gets the newest frame */
+        Image image = reader.acquireNextImage();
+        if (image == null)
+            return;
+        long sequence = mSequence++;
+        Image next;
+        while ((next = reader.acquireNextImage()) != null) {
+            image.close();
+            image = next;
+            sequence = mSequence++;
+            mDroppedFrames++;
+        }
+        try {
+            mCameraFrame.init(image, sequence);
+            deliverAndDrawFrame(mCameraFrame);
+        } finally {
+            mCameraFrame.detach();
+            image.close();
+        }
+    }
+
+    private void startBackgroundThread() {
+        stopBackgroundThread();
+        mBackgroundThread = new HandlerThread("CameraBackground");
+        mBackgroundThread.start();
+        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (mBackgroundThread == null)
+            return;
+        mBackgroundThread.quitSafely();
+        try {
+            mBackgroundThread.join();
+        } catch (InterruptedException e) {
+            Log.e(LOGTAG, "stopBackgroundThread");
+        }
+        mBackgroundThread = null;
+        mBackgroundHandler = null;
+    }
+
+    /*
+     * A frame over one Image. The 3.2 Mat cannot wrap a ByteBuffer, so gray() copies the Y plane
+     * (rows and their padding, in one bulk read) into a reused Mat and returns a view without the
+     * padding; the chroma planes are only read if rgba() or capture() is called. The Image is closed
+     * as soon as the listener returns; after that rgba() can only give the gray copy in color.
+     */
+    private class JavaCamera2Frame implements CvCameraViewFrame {
+        @Override
+        public Mat gray() {
+            if (!mGrayValid && mImage != null) {
+                Image.Plane plane = mImage.getPlanes()[0];
+                int rowStride = plane.getRowStride();
+                if (mGrayPadded == null || mGrayPadded.cols() != rowStride) {
+                    releaseGray();
+                    mGrayPadded = new Mat(mHeight, rowStride, CvType.CV_8UC1);
+                    mGray = mGrayPadded.submat(0, mHeight, 0, mWidth);
+                }
+                mLuma = read(plane.getBuffer(), mLuma);
+                mGrayPadded.put(0, 0, mLuma);
+                mGrayValid = true;
+            }
+            return mGray;
+        }
+
+        @Override
+        public Mat rgba() {
+            if (mImage == null) {
+                if (mGrayValid)
+                    Imgproc.cvtColor(mGray, mRgba, Imgproc.COLOR_GRAY2RGBA, 4);
+                return mRgba;
+            }
+            mYuv.put(0, 0, readNv21());
+            Imgproc.cvtColor(mYuv, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            return mRgba;
+        }
+
+        @Override
+        public CapturedFrame capture() {
+            Mat yuv = new Mat(mHeight + mHeight / 2, mWidth, CvType.CV_8UC1);
+            if (mImage != null) {
+                yuv.put(0, 0, readNv21());
+            } else {
+                /* The Image is gone, so only the gray copy is left, with neutral chroma */
+                yuv.setTo(new Scalar(128));
+                if (mGrayValid) {
+                    Mat luma = yuv.submat(0, mHeight, 0, mWidth);
+                    mGray.copyTo(luma);
+                    luma.release();
+                }
+            }
+            return new CapturedFrame(yuv, mWidth, mHeight, mSequence, mTimestamp);
+        }
+
+        /* Packs the Image into NV21, in a reused array */
+        private byte[] readNv21() {
+            gray();
+            int lumaSize = mWidth * mHeight;
+            if (mNv21 == null)
+                mNv21 = new byte[lumaSize + lumaSize / 2];
+            int rowStride = mGrayPadded.cols();
+            for (int row = 0; row < mHeight; row++)
+                System.arraycopy(mLuma, row * rowStride, mNv21, row * mWidth, mWidth);
+
+            Image.Plane[] planes = mImage.getPlanes();
+            ByteBuffer u = planes[1].getBuffer();
+            ByteBuffer v = planes[2].getBuffer();
+            int pixelStride = planes[1].getPixelStride();
+            int chromaStride = planes[1].getRowStride();
+            boolean interleaved = false;
+            if (pixelStride == 2 && chromaStride == mWidth && v.remaining() == lumaSize / 2 - 1) {
+                /* Usually the V plane is the NV21 chroma itself (V and U interleaved), so it is read in one go */
+                v.get(mNv21, lumaSize, lumaSize / 2 - 1);
+                v.rewind();
+                mNv21[lumaSize + lumaSize / 2 - 1] = u.get(u.remaining() - 1);
+                interleaved = mNv21[lumaSize + 1] == u.get(0);
+            }
+            if (!interleaved) {
+                for (int row = 0; row < mHeight / 2; row++) {
+                    for (int col = 0; col < mWidth / 2; col++) {
+                        int index = row * chromaStride + col * pixelStride;
+                        mNv21[lumaSize + row * mWidth + col * 2] = v.get(index);
+                        mNv21[lumaSize + row * mWidth + col * 2 + 1] = u.get(index);
+                    }
+                }
+            }
+            return mNv21;
+        }
+
+        @Override
+        public long timestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public long sequence() {
+            return mSequence;
+        }
+
+        public JavaCamera2Frame(int width, int height) {
+            super();
+            mWidth = width;
+            mHeight = height;
+            mYuv = new Mat(height + height / 2, width, CvType.CV_8UC1);
+            mRgba = new Mat();
+        }
+
+        void init(Image image, long sequence) {
+            mImage = image;
+            mSequence = sequence;
+            mTimestamp = image.getTimestamp();
+            mGrayValid = false;
+        }
+
+        void detach() {
+            mImage = null;
+        }
+
+        /* Reads the whole buffer into the array, reallocating it only if the buffer grew */
+        private byte[] read(ByteBuffer buffer, byte[] bytes) {
+            int size = buffer.remaining();
+            if (bytes == null || bytes.length < size)
+                bytes = new byte[size];
+            buffer.get(bytes, 0, size);
+            buffer.rewind();
+            return bytes;
+        }
+
+        private void releaseGray() {
+            if (mGray != null)
+                mGray.release();
+            if (mGrayPadded != null)
+                mGrayPadded.release();
+        }
+
+        public void release() {
+            releaseGray();
+            mYuv.release();
+            mRgba.release();
+        }
+
+        private Image mImage;
+        private long mSequence;
+        private long mTimestamp;
+        private boolean mGrayValid;
+        private Mat mGrayPadded;
+        private Mat mGray;
+        private byte[] mLuma;
+        private byte[] mNv21;
+        private Mat mYuv;
+        private Mat mRgba;
+        private int mWidth;
+        private int mHeight;
+    };
+}
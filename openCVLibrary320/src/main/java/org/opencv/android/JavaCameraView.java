@@ -3,6 +3,7 @@ package org.opencv.android;
 import java.util.List;
 
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
@@ -13,6 +14,7 @@ import android.util.Log;
 import android.view.ViewGroup.LayoutParams;
 
 import org.opencv.BuildConfig;
+import org.opencv.R;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
@@ -26,20 +28,21 @@ import org.opencv.imgproc.Imgproc;
  * disconnectCamera - closes the camera and stops preview.
  * When frame is delivered via callback from Camera - it processed via OpenCV to be
  * converted to RGBA32 and then passed to the external callback for modifications if required.
+ * The camera fills a ring of callback buffers (see PreviewCallbackRing), and each frame is only
+ * copied into a Mat when the callback asks for gray() or rgba().
  */
 public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallback {
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
-    private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    private int mBufferCount = PreviewCallbackRing.DEFAULT_BUFFER_COUNT;
+    private PreviewCallbackRing mRing;
+    private Mat mFrameData;
     private Thread mThread;
-    private boolean mStopThread;
 
     protected Camera mCamera;
-    protected JavaCameraFrame[] mCameraFrame;
+    protected JavaCameraFrame mCameraFrame;
     private SurfaceTexture mSurfaceTexture;
 
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
@@ -63,6 +66,31 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
     public JavaCameraView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        TypedArray styledAttrs = getContext().obtainStyledAttributes(attrs, R.styleable.CameraBridgeViewBase);
+        mBufferCount = Math.max(2, styledAttrs.getInt(R.styleable.CameraBridgeViewBase_preview_buffers, PreviewCallbackRing.DEFAULT_BUFFER_COUNT));
+        styledAttrs.recycle();
+    }
+
+    /**
+     * This method sets how many preview buffers the camera may fill ahead of the callback. More
+     * buffers let the callback fall further behind before frames are dropped, at the cost of one
+     * frame of memory each. Takes effect the next time the camera is connected.
+     * @param bufferCount - at least 2
+     */
+    public void setPreviewBufferCount(int bufferCount) {
+        if (bufferCount < 2)
+            throw new IllegalArgumentException("At least 2 preview buffers are needed: " + bufferCount);
+        mBufferCount = bufferCount;
+    }
+
+    /**
+     * This method returns how many frames were dropped since the camera was connected, because the
+     * callback fell behind by more than the preview buffers could hold. Dropped frames show up as
+     * gaps in CvCameraViewFrame.sequence().
+     */
+    public long getDroppedFrameCount() {
+        PreviewCallbackRing ring = mRing;
+        return ring != null ? ring.getDroppedCount() : 0;
     }
 
     protected boolean initializeCamera(int width, int height) {
@@ -175,22 +203,20 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
-
-                    mCamera.addCallbackBuffer(mBuffer);
+                    Log.d(TAG, "Using " + mBufferCount + " preview buffers");
+                    mRing = new PreviewCallbackRing(mCamera, mBufferCount, size);
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    mFrameData = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
 
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mCameraFrame = new JavaCameraFrame(mFrameData, mFrameWidth, mFrameHeight);
 
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    if (mDirectPreview) {
+                        /* The camera draws into this view's surface itself, and callbacks only carry frames for analysis */
+                        mCamera.setPreviewDisplay(getHolder());
+                    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
                         mCamera.setPreviewTexture(mSurfaceTexture);
                     } else
@@ -220,19 +246,14 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
-            }
-            if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
-            }
+            mRing = null;
+            if (mFrameData != null)
+                mFrameData.release();
+            if (mCameraFrame != null)
+                mCameraFrame.release();
         }
     }
 
-    private boolean mCameraFrameReady = false;
-
     @Override
     protected boolean connectCamera(int width, int height) {
 
@@ -244,12 +265,9 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
-
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
-        mStopThread = false;
-        mThread = new Thread(new CameraWorker());
+        mThread = new Thread(new CameraWorker(mRing));
         mThread.start();
 
         return true;
@@ -262,11 +280,9 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
          */
         Log.d(TAG, "Disconnecting from camera");
         try {
-            mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            if (mRing != null)
+                mRing.stop();
             Log.d(TAG, "Wating for thread");
             if (mThread != null)
                 mThread.join();
@@ -278,80 +294,126 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
-        }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+        /* Only queued here; the camera keeps filling the other buffers meanwhile */
+        PreviewCallbackRing ring = mRing;
+        if (ring != null)
+            ring.add(frame);
     }
 
-    private class JavaCameraFrame implements CvCameraViewFrame {
+    /*
+     * A frame over one preview buffer. The 3.2 Mat cannot wrap a byte array, so the buffer is copied
+     * into the frame's Mat, but only when gray() or rgba() is first called, and gray() copies just
+     * the Y plane; frames the callback does not look at are never copied. The buffer goes back to
+     * the camera once the callback returns, after which the Mat keeps the last copy; capture() is
+     * the way to keep a frame.
+     * It does not depend on the view, so HeadlessJavaCamera uses it too.
+     */
+    static class JavaCameraFrame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            if (mData != null && mCopied == NOTHING) {
+                mGray.put(0, 0, mData);
+                mCopied = LUMA;
+            }
+            return mGray;
         }
 
         @Override
         public Mat rgba() {
+            if (mData != null && mCopied != ALL) {
+                mYuvFrameData.put(0, 0, mData);
+                mCopied = ALL;
+            }
             Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
             return mRgba;
         }
 
+        @Override
+        public long timestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public long sequence() {
+            return mSequence;
+        }
+
+        @Override
+        public CapturedFrame capture() {
+            Mat yuv = new Mat(mYuvFrameData.rows(), mYuvFrameData.cols(), CvType.CV_8UC1);
+            if (mData != null)
+                yuv.put(0, 0, mData);
+            else
+                mYuvFrameData.copyTo(yuv);
+            return new CapturedFrame(yuv, mWidth, mHeight, mSequence, mTimestamp);
+        }
+
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
             mRgba = new Mat();
         }
 
+        /* Points the frame at a filled buffer; the old camera API has no sensor timestamps, so the arrival time stands in */
+        void attach(PreviewCallbackRing.Slot slot) {
+            mData = slot.data;
+            mSequence = slot.sequence;
+            mTimestamp = slot.timestamp;
+            mCopied = NOTHING;
+        }
+
+        void detach() {
+            mData = null;
+        }
+
         public void release() {
+            mGray.release();
             mRgba.release();
         }
 
+        private static final int NOTHING = 0;
+        private static final int LUMA = 1;
+        private static final int ALL = 2;
+
         private Mat mYuvFrameData;
+        private Mat mGray;
         private Mat mRgba;
         private int mWidth;
         private int mHeight;
+        private byte[] mData;
+        private int mCopied;
+        private long mSequence;
+        private long mTimestamp;
     };
 
     private class CameraWorker implements Runnable {
+        private final PreviewCallbackRing mFrames;
+
+        CameraWorker(PreviewCallbackRing frames) {
+            mFrames = frames;
+        }
 
         @Override
         public void run() {
-            do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
-                    }
-                }
-
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+            PreviewCallbackRing.Slot slot;
+            while ((slot = mFrames.take()) != null) {
+                mCameraFrame.attach(slot);
+                try {
+                    deliverAndDrawFrame(mCameraFrame);
+                } finally {
+                    mCameraFrame.detach();
+                    mFrames.recycle(slot);
                 }
-            } while (!mStopThread);
+            }
             Log.d(TAG, "Finish processing thread");
         }
     }
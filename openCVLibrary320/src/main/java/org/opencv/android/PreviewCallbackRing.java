@@ -0,0 +1,137 @@
+package org.opencv.android;
+
+import java.util.ArrayDeque;
+
+import android.hardware.Camera;
+
+/**
+ * This class is the ring of preview callback buffers shared by JavaCameraView and HeadlessJavaCamera.
+ * The camera fills whichever of the N buffers it holds, and add() only queues the filled buffer, so
+ * the camera thread never waits for the consumer and never copies anything. The consumer takes the
+ * queued frames in order on its own thread and hands each buffer back to the camera when it is done.
+ * Every frame gets a sequence number as it arrives. If the consumer falls so far behind that the
+ * camera would be left without a buffer, counting the frames queued and the ones the consumer has
+ * taken but not recycled yet, the oldest queued frame is dropped instead, so frames are only ever
+ * dropped here, where they are counted, and never silently by the camera.
+ */
+class PreviewCallbackRing {
+
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    /* Where buffers are handed back to be filled: the camera, or a fake one in tests */
+    interface BufferOwner {
+        void addCallbackBuffer(byte[] buffer);
+    }
+
+    /* One callback buffer, and the frame it holds while it is queued */
+    static final class Slot {
+        final byte[] data;
+        long sequence;
+        long timestamp;
+
+        Slot(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private final BufferOwner mCamera;
+    private final Slot[] mSlots;
+    private final ArrayDeque<Slot> mQueue;
+    /* Frames taken by the consumer and not recycled yet */
+    private int mInFlight = 0;
+    private long mSequence = 0;
+    private long mDropped = 0;
+    private boolean mStopped = false;
+
+    /**
+     * Allocates the buffers and gives them all to the camera; the camera's callback should then be
+     * set with setPreviewCallbackWithBuffer() and pass every frame to add().
+     * @param bufferCount - at least 2, so the camera always has a buffer while one is queued
+     * @param bufferSize - bytes in one preview frame
+     */
+    PreviewCallbackRing(final Camera camera, int bufferCount, int bufferSize) {
+        this(new BufferOwner() {
+            @Override
+            public void addCallbackBuffer(byte[] buffer) {
+                camera.addCallbackBuffer(buffer);
+            }
+        }, bufferCount, bufferSize);
+    }
+
+    PreviewCallbackRing(BufferOwner camera, int bufferCount, int bufferSize) {
+        if (bufferCount < 2)
+            throw new IllegalArgumentException("At least 2 preview buffers are needed: " + bufferCount);
+        mCamera = camera;
+        mSlots = new Slot[bufferCount];
+        mQueue = new ArrayDeque<Slot>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            mSlots[i] = new Slot(bufferSize);
+            camera.addCallbackBuffer(mSlots[i].data);
+        }
+    }
+
+    /* Called from onPreviewFrame() with a buffer the camera has filled */
+    synchronized void add(byte[] data) {
+        Slot slot = null;
+        for (Slot candidate : mSlots) {
+            if (candidate.data == data) {
+                slot = candidate;
+                break;
+            }
+        }
+        if (slot == null || mStopped)
+            return;
+        slot.sequence = mSequence++;
+        slot.timestamp = System.nanoTime();
+        mQueue.addLast(slot);
+        if (mQueue.size() + mInFlight >= mSlots.length) {
+            /* The camera has no buffer left; give it the oldest frame back rather than stall */
+            mDropped++;
+            mCamera.addCallbackBuffer(mQueue.removeFirst().data);
+        }
+        notify();
+    }
+
+    /**
+     * Waits for the next frame, in the order they arrived.
+     * @return the oldest queued frame, which has to be passed to recycle(), or null once stopped
+     */
+    synchronized Slot take() {
+        while (mQueue.isEmpty() && !mStopped) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (mStopped)
+            return null;
+        mInFlight++;
+        return mQueue.removeFirst();
+    }
+
+    /* Gives the buffer of a frame from take() back to the camera */
+    synchronized void recycle(Slot slot) {
+        mInFlight--;
+        if (!mStopped)
+            mCamera.addCallbackBuffer(slot.data);
+    }
+
+    /* Wakes the consumer, which gets null from take(); call it before the camera is released */
+    synchronized void stop() {
+        mStopped = true;
+        mQueue.clear();
+        notifyAll();
+    }
+
+    /* Frames received so far; the next frame gets this number as its sequence */
+    synchronized long getFrameCount() {
+        return mSequence;
+    }
+
+    /* Frames dropped because the consumer fell behind */
+    synchronized long getDroppedCount() {
+        return mDropped;
+    }
+}
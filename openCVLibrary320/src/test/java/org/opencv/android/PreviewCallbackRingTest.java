@@ -0,0 +1,76 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the ring of preview buffers, with a fake camera which fills the buffers it holds.
+ */
+public class PreviewCallbackRingTest {
+    // Holds the buffers it is given, like the camera, and fills the oldest one on every frame
+    private static class FakeCamera implements PreviewCallbackRing.BufferOwner {
+        final List<byte[]> free = new ArrayList<>();
+        int stalls = 0;
+
+        @Override
+        public void addCallbackBuffer(byte[] buffer) {
+            free.add(buffer);
+        }
+
+        // A new frame; without a buffer the camera drops it where nobody sees it
+        void frame(PreviewCallbackRing ring) {
+            if (free.isEmpty()) {
+                stalls++;
+                return;
+            }
+            ring.add(free.remove(0));
+        }
+    }
+
+    @Test
+    public void cameraKeepsABuffer_whileTheConsumerHoldsOne() {
+        FakeCamera camera = new FakeCamera();
+        PreviewCallbackRing ring = new PreviewCallbackRing(camera, 3, 4);
+        camera.frame(ring);
+        PreviewCallbackRing.Slot held = ring.take();
+        assertEquals(0, held.sequence);
+        // The consumer is busy with its frame while the camera goes on
+        for (int i = 0; i < 10; i++) {
+            camera.frame(ring);
+            assertFalse(camera.free.isEmpty());
+        }
+        assertEquals(0, camera.stalls);
+        assertEquals(11, ring.getFrameCount());
+        // One buffer is held, one is queued and one is the camera's, so all but the newest were dropped
+        assertEquals(9, ring.getDroppedCount());
+        ring.recycle(held);
+        assertEquals(10, ring.take().sequence);
+    }
+
+    @Test
+    public void framesAreNotDropped_whileTheConsumerKeepsUp() {
+        FakeCamera camera = new FakeCamera();
+        PreviewCallbackRing ring = new PreviewCallbackRing(camera, 3, 4);
+        for (int i = 0; i < 10; i++) {
+            camera.frame(ring);
+            PreviewCallbackRing.Slot slot = ring.take();
+            assertEquals(i, slot.sequence);
+            ring.recycle(slot);
+        }
+        assertEquals(0, ring.getDroppedCount());
+        assertEquals(3, camera.free.size());
+    }
+
+    @Test
+    public void stoppedRing_givesNoFrames() {
+        FakeCamera camera = new FakeCamera();
+        PreviewCallbackRing ring = new PreviewCallbackRing(camera, 2, 4);
+        camera.frame(ring);
+        ring.stop();
+        assertNull(ring.take());
+    }
+}